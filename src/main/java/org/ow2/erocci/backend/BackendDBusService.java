@@ -15,9 +15,12 @@
  */
 package org.ow2.erocci.backend;
 
+import java.util.concurrent.locks.Lock;
+
 import org.freedesktop.dbus.DBusConnection;
 import org.freedesktop.dbus.exceptions.DBusException;
 import org.ow2.erocci.backend.impl.CoreImpl;
+import org.ow2.erocci.backend.impl.DispatchingCore;
 import org.ow2.erocci.model.ConfigurationManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +34,11 @@ import org.slf4j.LoggerFactory;
 public class BackendDBusService {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(BackendDBusService.class);
+
+	/**
+	 * Maximum number of workers of a dbus-java connection.
+	 */
+	private static final int MAX_DBUS_WORKERS = Byte.MAX_VALUE;
 	
 	private DBusConnection dbusConnection;
 	private CoreImpl coreImpl = new CoreImpl();
@@ -48,8 +56,11 @@ public class BackendDBusService {
             dbusConnection = DBusConnection.getConnection(DBusConnection.SESSION);
             //Service Name can be changed
             dbusConnection.requestBusName(dbusServiceName.trim());
+            // Calls are run by the dispatcher, the D-Bus workers wait for them.
+            DispatchingCore dispatchingCore = new DispatchingCore(coreImpl);
+            dbusConnection.changeThreadCount((byte) Math.min(MAX_DBUS_WORKERS, dispatchingCore.getMaxCallsInFlight()));
             //EROCCI considers that the service is available on / (convention)
-            dbusConnection.exportObject("/", coreImpl);
+            dbusConnection.exportObject("/", dispatchingCore);
             
             // dbusConnection.exportObject("/action", actionImpl);
             
@@ -73,9 +84,17 @@ public class BackendDBusService {
         new BackendDBusService()
                     .start("org.ow2.erocci.backend");
         
-        ConfigurationManager.getConfigurationForOwner(ConfigurationManager.DEFAULT_OWNER);
-        // Register Erocci Schema for Erocci usage (when get on core interface is called).
-        ConfigurationManager.loadExtensionsAndErocciSchema(true);
+        // D-Bus calls may already be dispatched.
+        Lock lock = ConfigurationManager.getWriteLock();
+        lock.lock();
+        try {
+            ConfigurationManager.getConfigurationForOwner(ConfigurationManager.DEFAULT_OWNER);
+            // Register Erocci Schema for Erocci usage (when get on core interface is called).
+            ConfigurationManager.loadExtensionsAndErocciSchema(true);
+            ConfigurationManager.publishAllEntityViews();
+        } finally {
+            lock.unlock();
+        }
         
 //        // For testing classpath entries..
 //        
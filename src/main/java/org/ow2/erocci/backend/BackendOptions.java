@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2015-2017 Inria - Linagora
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Backend tuning options. An option is read from the options given by erocci
+ * on Init (backend opts in erocci configuration), then from the java system
+ * properties (-Derocci.index.attributes=...), then its default value is used.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class BackendOptions {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackendOptions.class);
+
+    /**
+     * Attributes with an inverted value index used by collection EQUAL
+     * filters, comma separated (ex: occi.compute.state,occi.network.vlan).
+     */
+    public static final String INDEXED_ATTRIBUTES = "erocci.index.attributes";
+
+    /**
+     * Attributes with a sorted numeric index used by collection range
+     * filters, comma separated (ex: occi.compute.memory,occi.compute.cores).
+     */
+    public static final String NUMERIC_INDEXED_ATTRIBUTES = "erocci.index.numeric.attributes";
+
+    /**
+     * Attributes with a trigram index used by collection LIKE filters, comma
+     * separated.
+     */
+    public static final String LIKE_INDEXED_ATTRIBUTES = "erocci.index.like.attributes";
+
+    /**
+     * Attribute values longer than this are not split in trigrams, they are
+     * always checked by LIKE filters.
+     */
+    public static final String LIKE_MAX_VALUE_LENGTH = "erocci.index.like.maxValueLength";
+
+    /**
+     * Maximum number of trigram references by owner, beyond this new values
+     * are always checked by LIKE filters.
+     */
+    public static final String LIKE_MAX_POSTINGS = "erocci.index.like.maxPostings";
+
+    /**
+     * Maximum number of entities of a collection result pinned by its first
+     * page, the follow-up pages are then read from this result. Larger results
+     * are paged on the current configuration.
+     */
+    public static final String COLLECTION_SNAPSHOT_MAX_ENTITIES = "erocci.collection.snapshotMaxEntities";
+
+    /**
+     * Time in milliseconds a pinned collection result is served to the
+     * follow-up pages.
+     */
+    public static final String COLLECTION_SNAPSHOT_TTL = "erocci.collection.snapshotTtl";
+
+    /**
+     * Number of entity view publications (one by modification) after which a
+     * pinned collection result is no longer served.
+     */
+    public static final String COLLECTION_SNAPSHOT_MAX_LAG = "erocci.collection.snapshotMaxLag";
+
+    /**
+     * Deadline of the connector calls (create, retrieve, update, delete) in
+     * milliseconds, 0 for no deadline. May be set by operation with the
+     * suffix .create, .retrieve, .update or .delete.
+     */
+    public static final String CONNECTOR_TIMEOUT = "erocci.connector.timeout";
+
+    /**
+     * Maximum number of connector calls running at the same time for the
+     * entities of a kind.
+     */
+    public static final String CONNECTOR_MAX_CALLS_PER_KIND = "erocci.connector.maxCallsPerKind";
+
+    /**
+     * Time in milliseconds an entity retrieved from its connector is served
+     * by Get without calling the connector again, 0 to always call it. May be
+     * set by kind with the suffix .[kind term].
+     */
+    public static final String RETRIEVE_TTL = "erocci.retrieve.ttl";
+
+    /**
+     * Maximum number of entities remembered as freshly retrieved, the least
+     * recently used are forgotten first. Read on start.
+     */
+    public static final String RETRIEVE_CACHE_SIZE = "erocci.retrieve.cacheSize";
+
+    /**
+     * Interval in milliseconds between the background refresh rounds of the
+     * entities, 0 to disable the refresh (Get then calls the connector).
+     * Read on start.
+     */
+    public static final String REFRESH_INTERVAL = "erocci.refresh.interval";
+
+    /**
+     * Number of entities retrieved in parallel by the background refresh.
+     * Read on start.
+     */
+    public static final String REFRESH_BATCH_SIZE = "erocci.refresh.batchSize";
+
+    /**
+     * Maximum number of background retrieves per second for the entities of
+     * a kind. May be set by kind with the suffix .[kind term], 0 to not
+     * refresh a kind.
+     */
+    public static final String REFRESH_RATE = "erocci.refresh.rate";
+
+    /**
+     * Random variation of the refresh interval, in percent. Read on start.
+     */
+    public static final String REFRESH_JITTER = "erocci.refresh.jitter";
+
+    /**
+     * Entities read by Get less than this time ago (milliseconds) are
+     * refreshed first. Read on start.
+     */
+    public static final String REFRESH_HOT_MILLIS = "erocci.refresh.hotMillis";
+
+    /**
+     * Number of workers running the entity actions in the background. Read
+     * on start.
+     */
+    public static final String ACTION_THREADS = "erocci.action.threads";
+
+    /**
+     * Maximum number of queued or running actions, further actions are
+     * rejected. Read on start.
+     */
+    public static final String ACTION_MAX_PENDING = "erocci.action.maxPending";
+
+    /**
+     * Prefix of the admission control options, by method class (read,
+     * write, action) : erocci.admission.[class].maxInFlight is the number of
+     * calls of the class in flight, erocci.admission.[class].maxQueueMillis
+     * the time a call waits to start before being rejected. Read on start.
+     */
+    public static final String ADMISSION_PREFIX = "erocci.admission.";
+
+    /**
+     * Number of threads running the D-Bus method calls (or maximum number of
+     * concurrent calls with virtual threads). Read on start, so only given as
+     * a java system property.
+     */
+    public static final String DISPATCH_THREADS = "erocci.dispatch.threads";
+
+    /**
+     * Number of D-Bus method calls waiting for a dispatch thread, further
+     * calls are run by the D-Bus worker receiving them. Read on start.
+     */
+    public static final String DISPATCH_QUEUE_SIZE = "erocci.dispatch.queueSize";
+
+    /**
+     * Run each D-Bus method call on its own virtual thread (java 21 and
+     * later), true or false. Read on start.
+     */
+    public static final String DISPATCH_VIRTUAL_THREADS = "erocci.dispatch.virtualThreads";
+
+    /**
+     * Options given by erocci on Init.
+     */
+    private static final Map<String, String> options = new ConcurrentHashMap<>();
+
+    /**
+     * Load options given by erocci, replace previously loaded values.
+     *
+     * @param opts
+     */
+    public static void load(final Map<String, String> opts) {
+        if (opts == null) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : opts.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                options.put(entry.getKey(), entry.getValue());
+                LOGGER.info("Backend option " + entry.getKey() + " = " + entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the option value, defaultValue if not set.
+     */
+    public static String getString(final String key, final String defaultValue) {
+        String value = options.get(key);
+        if (value == null) {
+            value = System.getProperty(key);
+        }
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the option value, defaultValue if not set or not a number.
+     */
+    public static int getInt(final String key, final int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            LOGGER.warn("Backend option " + key + " is not a number: " + value + ", using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return true if the option value is "true" (ignoring case), defaultValue
+     * if not set.
+     */
+    public static boolean getBoolean(final String key, final boolean defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * @param key
+     * @return the comma separated values of the option, empty list if not
+     * set.
+     */
+    public static List<String> getList(final String key) {
+        List<String> values = new ArrayList<>();
+        String value = getString(key, null);
+        if (value == null) {
+            return values;
+        }
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                values.add(item.trim());
+            }
+        }
+        return values;
+    }
+
+}
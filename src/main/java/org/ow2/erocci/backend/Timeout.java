@@ -0,0 +1,31 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend;
+
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+/**
+ * Runtime exception when a connector does not answer before its deadline.
+ * @author Christophe Gourdin - Inria
+ */
+public class Timeout extends DBusExecutionException {
+
+    public Timeout(String message) {
+        super(message);
+        setType("Timeout");
+    }
+
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ow2.erocci.backend.Unavailable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the actions of the entities in the background on a bounded pool of
+ * workers. The actions of one entity are run one after the other in
+ * submission order, actions of different entities run in parallel. Each
+ * action is a job with an id, the last job of an entity is reported in its
+ * attributes (erocci.action.*) so the caller can poll it with Get.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class ActionEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ActionEngine.class);
+
+    public static final String ATTRIBUTE_JOB = "erocci.action.job";
+    public static final String ATTRIBUTE_ACTION = "erocci.action.name";
+    public static final String ATTRIBUTE_STATUS = "erocci.action.status";
+    public static final String ATTRIBUTE_MESSAGE = "erocci.action.message";
+
+    public static final String STATUS_QUEUED = "queued";
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_DONE = "done";
+    public static final String STATUS_FAILED = "failed";
+
+    public static final int DEFAULT_THREADS = 8;
+
+    public static final int DEFAULT_MAX_PENDING = 1000;
+
+    /**
+     * Idle workers are stopped after this delay.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ThreadPoolExecutor workers;
+
+    /**
+     * Pending actions by entity id, an entity has a queue while it has
+     * pending actions.
+     */
+    private final ConcurrentMap<String, EntityQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Last submitted job by entity id.
+     */
+    private final ConcurrentMap<String, Job> lastJobs = new ConcurrentHashMap<>();
+
+    /**
+     * Number of queued or running actions.
+     */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final int maxPending;
+
+    /**
+     * @param threads number of workers.
+     */
+    public ActionEngine(final int threads) {
+        this(threads, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param threads number of workers.
+     * @param maxPending maximum number of queued or running actions.
+     */
+    public ActionEngine(final int threads, final int maxPending) {
+        this.maxPending = Math.max(1, maxPending);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        int poolSize = Math.max(1, threads);
+        this.workers = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(runnable, "erocci-action-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.workers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue an action of an entity, after the pending actions of this
+     * entity.
+     *
+     * @param entityId
+     * @param actionId action kind id (scheme + term).
+     * @param action runs the action, a failure is reported on the job.
+     * @return the queued job.
+     * @throws Unavailable if too many actions are pending.
+     */
+    public Job submit(final String entityId, final String actionId, final Callable<Void> action) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            throw new Unavailable("Too many pending actions, retry action " + actionId + " of entity " + entityId
+                    + " later");
+        }
+        Job job = new Job(String.valueOf(Utils.getUniqueInt()), entityId, actionId, action);
+        lastJobs.put(entityId, job);
+        while (true) {
+            EntityQueue queue = queues.get(entityId);
+            if (queue == null) {
+                queue = new EntityQueue(entityId);
+                EntityQueue previous = queues.putIfAbsent(entityId, queue);
+                if (previous != null) {
+                    queue = previous;
+                }
+            }
+            if (queue.offer(job)) {
+                LOGGER.info("Action " + actionId + " of entity " + entityId + " queued, job " + job.getId());
+                return job;
+            }
+            // The queue has just been closed, retry with a new one.
+        }
+    }
+
+    /**
+     * @param entityId
+     * @return the attributes describing the last action job of an entity,
+     * empty if none.
+     */
+    public Map<String, String> getJobAttributes(final String entityId) {
+        Job job = lastJobs.get(entityId);
+        if (job == null) {
+            return new HashMap<>();
+        }
+        return job.getAttributes(job.getStatus());
+    }
+
+    /**
+     * @param entityId
+     * @return the last action job of an entity, null if none.
+     */
+    public Job getLastJob(final String entityId) {
+        return lastJobs.get(entityId);
+    }
+
+    /**
+     * Forget the last job of a deleted entity, its pending actions are still
+     * run.
+     *
+     * @param entityId
+     */
+    public void forget(final String entityId) {
+        lastJobs.remove(entityId);
+    }
+
+    /**
+     * Pending actions of an entity. It is scheduled on the workers while it
+     * is not empty, a worker runs one action then schedules the queue again
+     * so that entities share the workers.
+     */
+    private class EntityQueue implements Runnable {
+
+        private final String entityId;
+
+        private final Deque<Job> jobs = new ArrayDeque<>();
+
+        private boolean closed;
+
+        EntityQueue(final String entityId) {
+            this.entityId = entityId;
+        }
+
+        /**
+         * @return false if the queue is closed, the job must be offered to a
+         * new queue.
+         */
+        synchronized boolean offer(final Job job) {
+            if (closed) {
+                return false;
+            }
+            jobs.add(job);
+            if (jobs.size() == 1) {
+                workers.execute(this);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            Job job;
+            synchronized (this) {
+                job = jobs.peek();
+            }
+            try {
+                job.run();
+            } finally {
+                pending.decrementAndGet();
+                synchronized (this) {
+                    jobs.poll();
+                    if (jobs.isEmpty()) {
+                        closed = true;
+                        queues.remove(entityId, this);
+                    } else {
+                        workers.execute(this);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * An action of an entity and its status.
+     */
+    public static class Job {
+
+        private final String id;
+
+        private final String entityId;
+
+        private final String actionId;
+
+        private final Callable<Void> action;
+
+        private volatile String status = STATUS_QUEUED;
+
+        private volatile String message;
+
+        Job(final String id, final String entityId, final String actionId, final Callable<Void> action) {
+            this.id = id;
+            this.entityId = entityId;
+            this.actionId = actionId;
+            this.action = action;
+        }
+
+        void run() {
+            status = STATUS_RUNNING;
+            try {
+                action.call();
+                status = STATUS_DONE;
+                LOGGER.info("Action " + actionId + " of entity " + entityId + " done, job " + id);
+            } catch (Exception ex) {
+                fail(ex.getMessage());
+            } catch (Error err) {
+                // The job ends anyway, the worker is then replaced.
+                fail(err.toString());
+                throw err;
+            }
+        }
+
+        private void fail(final String failure) {
+            message = failure;
+            status = STATUS_FAILED;
+            LOGGER.error("Action " + actionId + " of entity " + entityId + " failed, job " + id + " : " + message);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getEntityId() {
+            return entityId;
+        }
+
+        public String getActionId() {
+            return actionId;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @param status job status read by the caller, the message is set
+         * before the status.
+         * @return the attributes describing this job with this status.
+         */
+        public Map<String, String> getAttributes(final String status) {
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put(ATTRIBUTE_JOB, id);
+            attributes.put(ATTRIBUTE_ACTION, actionId);
+            attributes.put(ATTRIBUTE_STATUS, status);
+            if (message != null) {
+                attributes.put(ATTRIBUTE_MESSAGE, message);
+            }
+            return attributes;
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ow2.erocci.backend.BackendOptions;
+import org.ow2.erocci.backend.Unavailable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the D-Bus calls in flight by method class (reads, writes, actions).
+ * A call waits for a permit of its class at most the queue time of the
+ * class, it is then rejected with an Unavailable error which erocci may
+ * retry. A burst of writes is thus rejected early instead of piling up EMF
+ * objects, and does not take the permits of the reads.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class AdmissionControl {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionControl.class);
+
+    /**
+     * Method classes, with their default limits.
+     */
+    public enum MethodClass {
+        READ(48), WRITE(16), ACTION(16);
+
+        private final int defaultMaxInFlight;
+
+        MethodClass(final int defaultMaxInFlight) {
+            this.defaultMaxInFlight = defaultMaxInFlight;
+        }
+
+        /**
+         * @return option name prefix, erocci.admission.[class].
+         */
+        String getOptionPrefix() {
+            return BackendOptions.ADMISSION_PREFIX + name().toLowerCase() + ".";
+        }
+    }
+
+    public static final int DEFAULT_MAX_QUEUE_MILLIS = 2000;
+
+    /**
+     * A rejection is logged every LOG_REJECTIONS rejections, not to flood
+     * the logs under load.
+     */
+    private static final long LOG_REJECTIONS = 1000;
+
+    private final Semaphore[] permits = new Semaphore[MethodClass.values().length];
+
+    private final long[] maxQueueMillis = new long[MethodClass.values().length];
+
+    private final AtomicLong rejections = new AtomicLong();
+
+    /**
+     * Limits read from the backend options (java system properties when
+     * started before Init).
+     */
+    public AdmissionControl() {
+        for (MethodClass methodClass : MethodClass.values()) {
+            int maxInFlight = BackendOptions.getInt(methodClass.getOptionPrefix() + "maxInFlight",
+                    methodClass.defaultMaxInFlight);
+            permits[methodClass.ordinal()] = new Semaphore(Math.max(1, maxInFlight));
+            maxQueueMillis[methodClass.ordinal()] = BackendOptions.getInt(methodClass.getOptionPrefix()
+                    + "maxQueueMillis", DEFAULT_MAX_QUEUE_MILLIS);
+            LOGGER.info("Admission of " + methodClass + " calls : " + Math.max(1, maxInFlight) + " in flight, queued "
+                    + maxQueueMillis[methodClass.ordinal()] + " ms at most");
+        }
+    }
+
+    /**
+     * Wait for a permit, to release with release() when the call ends.
+     *
+     * @param methodClass
+     * @param method method name, for the error message.
+     * @throws Unavailable if no permit is available before the queue time of
+     * the class.
+     */
+    public void acquire(final MethodClass methodClass, final String method) {
+        Semaphore semaphore = permits[methodClass.ordinal()];
+        boolean acquired;
+        try {
+            acquired = semaphore.tryAcquire(maxQueueMillis[methodClass.ordinal()], TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new Unavailable("Interrupted while waiting to run " + method);
+        }
+        if (!acquired) {
+            long count = rejections.incrementAndGet();
+            if (count % LOG_REJECTIONS == 1) {
+                LOGGER.warn("Backend saturated, " + method + " rejected (" + count + " calls rejected so far)");
+            }
+            throw new Unavailable("Backend saturated, too many " + methodClass.name().toLowerCase()
+                    + " calls in flight, retry " + method + " later");
+        }
+    }
+
+    public void release(final MethodClass methodClass) {
+        permits[methodClass.ordinal()].release();
+    }
+
+}
@@ -16,6 +16,8 @@
 package org.ow2.erocci.backend.impl;
 
 import org.ow2.erocci.backend.Struct2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This object represents a filter for collections listings.
@@ -24,10 +26,24 @@ import org.ow2.erocci.backend.Struct2;
  */
 public class CollectionFilter {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(CollectionFilter.class);
+
+    /**
+     * Separator of the min and max values of a RANGE filter.
+     */
+    public static final String RANGE_SEPARATOR = "..";
+
     public static final int OPERATOR_EQUAL = 0;
     public static final int OPERATOR_LIKE = 1;
+    public static final int OPERATOR_GREATER_THAN = 2;
+    public static final int OPERATOR_GREATER_OR_EQUAL = 3;
+    public static final int OPERATOR_LOWER_THAN = 4;
+    public static final int OPERATOR_LOWER_OR_EQUAL = 5;
+    public static final int OPERATOR_RANGE = 6;
     /**
-     * Operator : 0: Equal, 1: LIKE.
+     * Operator : 0: Equal, 1: LIKE, 2: greater than, 3: greater or equal, 4:
+     * lower than, 5: lower or equal, 6: range (value like "min..max", bounds
+     * included, one bound may be empty). Operators 2 to 6 compare numbers.
      */
     private int operator = 0;
 
@@ -100,4 +116,85 @@ public class CollectionFilter {
         return Float.valueOf(value);
     }
 
+    /**
+     * @return true if the operator compares numbers (greater, lower, range).
+     */
+    public boolean isNumericOperator() {
+        return operator >= OPERATOR_GREATER_THAN && operator <= OPERATOR_RANGE;
+    }
+
+    /**
+     * @return the lower bound of a numeric filter, null if none or if the
+     * value is not a number.
+     */
+    public Double getMinValue() {
+        if (value == null) {
+            return null;
+        }
+        switch (operator) {
+            case OPERATOR_GREATER_THAN:
+            case OPERATOR_GREATER_OR_EQUAL:
+                return parseNumber(value);
+            case OPERATOR_RANGE:
+                int separator = value.indexOf(RANGE_SEPARATOR);
+                if (separator < 0) {
+                    LOGGER.warn("Range filter value must be like min..max : " + value);
+                    return null;
+                }
+                return parseNumber(value.substring(0, separator));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the upper bound of a numeric filter, null if none or if the
+     * value is not a number.
+     */
+    public Double getMaxValue() {
+        if (value == null) {
+            return null;
+        }
+        switch (operator) {
+            case OPERATOR_LOWER_THAN:
+            case OPERATOR_LOWER_OR_EQUAL:
+                return parseNumber(value);
+            case OPERATOR_RANGE:
+                int separator = value.indexOf(RANGE_SEPARATOR);
+                if (separator < 0) {
+                    return null;
+                }
+                return parseNumber(value.substring(separator + RANGE_SEPARATOR.length()));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return true if the lower bound is included.
+     */
+    public boolean isMinInclusive() {
+        return operator != OPERATOR_GREATER_THAN;
+    }
+
+    /**
+     * @return true if the upper bound is included.
+     */
+    public boolean isMaxInclusive() {
+        return operator != OPERATOR_LOWER_THAN;
+    }
+
+    private static Double parseNumber(final String number) {
+        if (number == null || number.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            Double result = Double.valueOf(number.trim());
+            return result.isNaN() ? null : result;
+        } catch (NumberFormatException ex) {
+            LOGGER.warn("Filter value is not a number : " + number);
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.occiware.clouddesigner.occi.AttributeState;
+import org.occiware.clouddesigner.occi.Entity;
+
+/**
+ * Collection filters compiled once by request: conditions are grouped by
+ * attribute name (case insensitive) and numeric values are parsed once. An
+ * entity matches when each filter is respected by one of its attributes, all
+ * filters are checked in one pass on the entity attributes.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class CollectionFilterPredicate {
+
+    /**
+     * Conditions by attribute name, case insensitive.
+     */
+    private final Map<String, List<Condition>> conditionsByName = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Conditions on any attribute (empty attribute name on filter).
+     */
+    private final List<Condition> anyAttributeConditions = new ArrayList<>();
+
+    private final int conditionCount;
+
+    /**
+     * Compile a list of filters.
+     *
+     * @param filters
+     */
+    public CollectionFilterPredicate(final List<CollectionFilter> filters) {
+        int index = 0;
+        for (CollectionFilter filter : filters) {
+            Condition condition = new Condition(index++, filter);
+            String name = filter.getAttributeFilter();
+            if (name == null || name.isEmpty()) {
+                anyAttributeConditions.add(condition);
+            } else {
+                List<Condition> conditions = conditionsByName.get(name);
+                if (conditions == null) {
+                    conditions = new ArrayList<>();
+                    conditionsByName.put(name, conditions);
+                }
+                conditions.add(condition);
+            }
+        }
+        conditionCount = index;
+    }
+
+    /**
+     * @return true if there is no filter, all entities match.
+     */
+    public boolean isEmpty() {
+        return conditionCount == 0;
+    }
+
+    /**
+     * @param entity
+     * @return true if all filters are respected by the entity attributes.
+     */
+    public boolean matches(final Entity entity) {
+        if (conditionCount == 0) {
+            return true;
+        }
+        Evaluation evaluation = new Evaluation();
+        for (AttributeState attr : entity.getAttributes()) {
+            if (evaluation.accept(attr.getName(), attr.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param attributes (key: attribute name, value: attribute value).
+     * @return true if all filters are respected by the attributes.
+     */
+    public boolean matches(final Map<String, String> attributes) {
+        if (conditionCount == 0) {
+            return true;
+        }
+        Evaluation evaluation = new Evaluation();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            if (evaluation.accept(entry.getKey(), entry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Conditions respected so far while walking an entity attributes.
+     */
+    private class Evaluation {
+
+        private final boolean[] respected = new boolean[conditionCount];
+        private int remaining = conditionCount;
+
+        /**
+         * @param name
+         * @param value
+         * @return true if all conditions are respected.
+         */
+        private boolean accept(final String name, final String value) {
+            List<Condition> conditions = name == null ? null : conditionsByName.get(name);
+            if (conditions != null) {
+                check(conditions, value);
+            }
+            if (!anyAttributeConditions.isEmpty()) {
+                check(anyAttributeConditions, value);
+            }
+            return remaining == 0;
+        }
+
+        private void check(final List<Condition> conditions, final String value) {
+            for (Condition condition : conditions) {
+                if (!respected[condition.index] && condition.test(value)) {
+                    respected[condition.index] = true;
+                    remaining--;
+                }
+            }
+        }
+    }
+
+    /**
+     * A compiled filter.
+     */
+    private static class Condition {
+
+        private final int index;
+        private final int operator;
+        private final String value;
+        private final Double min;
+        private final Double max;
+        private final boolean minInclusive;
+        private final boolean maxInclusive;
+
+        private Condition(final int index, final CollectionFilter filter) {
+            this.index = index;
+            this.operator = filter.getOperator();
+            this.value = filter.getValue();
+            this.min = filter.getMinValue();
+            this.max = filter.getMaxValue();
+            this.minInclusive = filter.isMinInclusive();
+            this.maxInclusive = filter.isMaxInclusive();
+        }
+
+        private boolean test(final String attrValue) {
+            if (value == null) {
+                // Null: all value is ok for this attribute.
+                return true;
+            }
+            if (attrValue == null) {
+                return false;
+            }
+            switch (operator) {
+                case CollectionFilter.OPERATOR_EQUAL:
+                    return value.equals(attrValue);
+                case CollectionFilter.OPERATOR_LIKE:
+                    return attrValue.contains(value);
+                case CollectionFilter.OPERATOR_GREATER_THAN:
+                case CollectionFilter.OPERATOR_GREATER_OR_EQUAL:
+                case CollectionFilter.OPERATOR_LOWER_THAN:
+                case CollectionFilter.OPERATOR_LOWER_OR_EQUAL:
+                case CollectionFilter.OPERATOR_RANGE:
+                    return testNumber(attrValue);
+                default:
+                    return false;
+            }
+        }
+
+        private boolean testNumber(final String attrValue) {
+            if (min == null && max == null) {
+                // No valid bound given.
+                return false;
+            }
+            double number;
+            try {
+                number = Double.parseDouble(attrValue.trim());
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+            if (Double.isNaN(number)) {
+                return false;
+            }
+            if (min != null && (minInclusive ? number < min : number <= min)) {
+                return false;
+            }
+            return max == null || (maxInclusive ? number <= max : number < max);
+        }
+    }
+
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.occiware.clouddesigner.occi.Entity;
+import org.ow2.erocci.backend.BackendOptions;
+import org.ow2.erocci.backend.Timeout;
+import org.ow2.erocci.model.DetachedEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the connector lifecycle calls of the entities (occiCreate,
+ * occiRetrieve, occiUpdate, occiDelete) on connector threads, with a deadline
+ * by operation and a bounded number of concurrent calls by kind. A connector
+ * works on a copy of the entity (see DetachedEntity), without the owner lock:
+ * its changes are applied to the entity on the owner's writer when it ends.
+ * A connector which does not answer in time is left in the background, the
+ * caller gets a Timeout and the changes are applied when the call ends,
+ * unless the entity has been removed meanwhile.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class ConnectorExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectorExecutor.class);
+
+    public static final String CREATE = "create";
+    public static final String RETRIEVE = "retrieve";
+    public static final String UPDATE = "update";
+    public static final String DELETE = "delete";
+
+    public static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    public static final int DEFAULT_MAX_CALLS_PER_KIND = 8;
+
+    private static final int RUNNING = 0;
+    private static final int ENDED = 1;
+    private static final int ABANDONED = 2;
+
+    /**
+     * Idle connector threads are stopped after this delay.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * A connector call on the copy of an entity.
+     */
+    public interface ConnectorCall<T> {
+
+        T call(Entity copy) throws Exception;
+
+    }
+
+    /**
+     * Connector threads, their number is bounded by the permits of the
+     * kinds.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Concurrent calls permits by kind id.
+     */
+    private final ConcurrentMap<String, Semaphore> permitsByKind = new ConcurrentHashMap<>();
+
+    private final DetachedEntity.Copier copier;
+
+    public ConnectorExecutor() {
+        this(DetachedEntity.EMF_COPIER);
+    }
+
+    /**
+     * @param copier copies the entities given to the connectors.
+     */
+    public ConnectorExecutor(final DetachedEntity.Copier copier) {
+        this.copier = copier;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(runnable, "erocci-connector-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    public void create(final String owner, final Entity entity) {
+        call(CREATE, owner, entity, new ConnectorCall<Void>() {
+            @Override
+            public Void call(final Entity copy) {
+                copy.occiCreate();
+                return null;
+            }
+        });
+    }
+
+    public void retrieve(final String owner, final Entity entity) {
+        call(RETRIEVE, owner, entity, new ConnectorCall<Void>() {
+            @Override
+            public Void call(final Entity copy) {
+                copy.occiRetrieve();
+                return null;
+            }
+        });
+    }
+
+    public void update(final String owner, final Entity entity) {
+        call(UPDATE, owner, entity, new ConnectorCall<Void>() {
+            @Override
+            public Void call(final Entity copy) {
+                copy.occiUpdate();
+                return null;
+            }
+        });
+    }
+
+    public void delete(final String owner, final Entity entity) {
+        call(DELETE, owner, entity, new ConnectorCall<Void>() {
+            @Override
+            public Void call(final Entity copy) {
+                copy.occiDelete();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Run a connector call of an entity on a copy and wait for its result
+     * until the deadline of the operation (erocci.connector.timeout.[operation],
+     * else erocci.connector.timeout, in milliseconds, 0 for no deadline). The
+     * changes of the copy are applied to the entity on the owner's writer,
+     * also when the call fails.
+     *
+     * @param operation operation name, used for the deadline option.
+     * @param owner entity owner.
+     * @param entity
+     * @param connectorCall
+     * @return the result of the connector call.
+     * @throws Timeout if the connector has not answered before the deadline,
+     * or if all the calls allowed for the entity kind are running.
+     */
+    public <T> T call(final String operation, final String owner, final Entity entity,
+            final ConnectorCall<T> connectorCall) {
+        long timeout = getTimeoutMillis(operation);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        // The caller may be the owner's writer, it does not wait for a permit.
+        final Semaphore permits = getPermits(entity);
+        if (!permits.tryAcquire()) {
+            throw new Timeout("Too many connector calls running for the kind of entity " + entity.getId()
+                    + ", " + operation + " not started");
+        }
+
+        // The caller gives up or the call ends, whichever comes first.
+        final AtomicInteger state = new AtomicInteger(RUNNING);
+        final DetachedEntity detached;
+        Future<T> future;
+        try {
+            detached = DetachedEntity.detach(owner, entity, copier);
+            future = executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return connectorCall.call(detached.getCopy());
+                    } finally {
+                        permits.release();
+                        if (!state.compareAndSet(RUNNING, ENDED)) {
+                            applyLateChanges(operation, detached);
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+
+        try {
+            if (timeout > 0) {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } else {
+                future.get();
+            }
+        } catch (TimeoutException ex) {
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                LOGGER.warn("Connector " + operation + " of entity " + entity.getId() + " has not answered after "
+                        + timeout + " ms");
+                throw new Timeout("Connector " + operation + " of entity " + entity.getId()
+                        + " has not answered after " + timeout + " ms");
+            }
+            // Ended meanwhile, its changes are applied by the caller.
+        } catch (InterruptedException ex) {
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for a connector of entity " + entity.getId(), ex);
+            }
+        } catch (ExecutionException ex) {
+            // Failed, its partial changes are applied below.
+        }
+        detached.apply();
+        return getDone(future);
+    }
+
+    /**
+     * Run an action of an entity on a copy, on the caller thread (an action
+     * worker, see ActionEngine) without deadline, then apply the changes of
+     * the copy to the entity on the owner's writer, also when the action
+     * fails.
+     *
+     * @param owner entity owner.
+     * @param entity
+     * @param actionCall
+     * @return the result of the action.
+     */
+    public <T> T action(final String owner, final Entity entity, final ConnectorCall<T> actionCall) {
+        DetachedEntity detached = DetachedEntity.detach(owner, entity, copier);
+        try {
+            return actionCall.call(detached.getCopy());
+        } catch (Exception ex) {
+            throw propagate(ex);
+        } finally {
+            detached.apply();
+        }
+    }
+
+    /**
+     * Apply the changes made by a connector call after the caller has given
+     * up, dropped if the entity has been removed meanwhile.
+     */
+    private static void applyLateChanges(final String operation, final DetachedEntity detached) {
+        String id = detached.getEntity().getId();
+        LOGGER.info("Connector " + operation + " of entity " + id + " has ended after its deadline");
+        try {
+            if (!detached.apply()) {
+                LOGGER.info("Entity " + id + " has been removed, the changes of its connector " + operation
+                        + " are dropped");
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.error("Cannot apply the changes of the connector " + operation + " of entity " + id + " : "
+                    + ex.getMessage());
+        }
+    }
+
+    private static <T> T getDone(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            throw propagate(ex.getCause());
+        }
+    }
+
+    private Semaphore getPermits(final Entity entity) {
+        String kind = entity.getKind() == null ? "" : entity.getKind().getScheme() + entity.getKind().getTerm();
+        Semaphore permits = permitsByKind.get(kind);
+        if (permits == null) {
+            permits = new Semaphore(Math.max(1, BackendOptions.getInt(BackendOptions.CONNECTOR_MAX_CALLS_PER_KIND,
+                    DEFAULT_MAX_CALLS_PER_KIND)));
+            Semaphore previous = permitsByKind.putIfAbsent(kind, permits);
+            if (previous != null) {
+                permits = previous;
+            }
+        }
+        return permits;
+    }
+
+    private static long getTimeoutMillis(final String operation) {
+        int timeout = BackendOptions.getInt(BackendOptions.CONNECTOR_TIMEOUT, DEFAULT_TIMEOUT_MILLIS);
+        return BackendOptions.getInt(BackendOptions.CONNECTOR_TIMEOUT + "." + operation, timeout);
+    }
+
+    private static RuntimeException propagate(final Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new RuntimeException(cause);
+    }
+
+}
@@ -17,40 +17,66 @@ package org.ow2.erocci.backend.impl;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import org.eclipse.emf.common.util.EList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
 
 import org.freedesktop.DBus;
 import org.freedesktop.dbus.UInt32;
 import org.freedesktop.dbus.Variant;
 import org.occiware.clouddesigner.occi.Action;
-import org.occiware.clouddesigner.occi.AttributeState;
 import org.occiware.clouddesigner.occi.Entity;
 import org.occiware.clouddesigner.occi.Extension;
 import org.occiware.clouddesigner.occi.Link;
 import org.occiware.clouddesigner.occi.Mixin;
 import org.occiware.clouddesigner.occi.Resource;
 import org.occiware.clouddesigner.occi.util.OcciHelper;
+import org.ow2.erocci.backend.BackendOptions;
 import org.ow2.erocci.backend.Conflict;
 import org.ow2.erocci.backend.NotFound;
+import org.ow2.erocci.backend.NotModified;
 import org.ow2.erocci.backend.Pair;
 import org.ow2.erocci.backend.Quintuple;
 import org.ow2.erocci.backend.Septuple;
 import org.ow2.erocci.backend.Sextuple;
 import org.ow2.erocci.backend.Struct1;
 import org.ow2.erocci.backend.Struct2;
+import org.ow2.erocci.backend.Timeout;
 import org.ow2.erocci.backend.core;
+import org.ow2.erocci.model.CollectionCursor;
 import org.ow2.erocci.model.ConfigurationManager;
+import org.ow2.erocci.model.EntityPathTrie;
+import org.ow2.erocci.model.EntityView;
 import org.ow2.erocci.model.OcciConstants;
+import org.ow2.erocci.model.OwnerExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Implementation of OCCI core.
  *
+ * D-Bus calls may be dispatched on several threads: each call runs on the
+ * OwnerExecutor of the entity owner, modifications of the configuration on
+ * the owner's writer thread, reads on the calling thread. The owner is the one
+ * given on creation, then the one of the configuration where the entity is
+ * found. The connectors are called without the owner lock, on copies of the
+ * entities, their changes are then applied on the writer (see
+ * ConnectorExecutor).
+ *
+ * Get reads the entity view published by the writer, without lock. The first
+ * page of a collection is queried on each owner in turn with its read lock,
+ * the ordered results are merged, and the result is pinned for the follow-up
+ * pages, which are read without lock. This is not a snapshot read: a page
+ * reflects each owner when it was queried, and a pinned result is a
+ * best-effort read-ahead of the locations, served until it expires (see
+ * CollectionCursor).
+ *
  * @author Pierre-Yves Gibello - Linagora
  * @author Christophe Gourdin - Inria
  */
@@ -61,13 +87,97 @@ public class CoreImpl implements core, DBus.Properties {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CoreImpl.class);
 
+    /**
+     * Default maximum number of entities of a collection result pinned for
+     * its follow-up pages.
+     */
+    public static final int DEFAULT_COLLECTION_SNAPSHOT_MAX_ENTITIES = 10000;
+
+    /**
+     * Number of pages read by the first page of a collection to pin its
+     * result, a larger result is not pinned.
+     */
+    public static final int COLLECTION_SNAPSHOT_PAGES = 4;
+
+    /**
+     * Default time in milliseconds a pinned collection result is served.
+     */
+    public static final int DEFAULT_COLLECTION_SNAPSHOT_TTL = 30000;
+
+    /**
+     * Default number of view publications a pinned collection result is
+     * served after.
+     */
+    public static final int DEFAULT_COLLECTION_SNAPSHOT_MAX_LAG = 100;
+
+    /**
+     * Runs the connector calls with deadlines.
+     */
+    private final ConnectorExecutor connectors = new ConnectorExecutor();
+
+    /**
+     * Entities retrieved less than their TTL ago, Get does not call their
+     * connector again.
+     */
+    private final RetrieveCache retrieveCache = new RetrieveCache(
+            BackendOptions.getInt(BackendOptions.RETRIEVE_CACHE_SIZE, RetrieveCache.DEFAULT_SIZE));
+
+    /**
+     * Refreshes the entities in the background when enabled, read on start.
+     */
+    private final EntityRefresher refresher = new EntityRefresher(connectors, retrieveCache);
+
+    /**
+     * Get and Action structures of the entities, by entity view.
+     */
+    private final EntityProjections projections = new EntityProjections();
+
+    /**
+     * Runs the actions in the background, read on start.
+     */
+    private final ActionEngine actionEngine = new ActionEngine(
+            BackendOptions.getInt(BackendOptions.ACTION_THREADS, ActionEngine.DEFAULT_THREADS),
+            BackendOptions.getInt(BackendOptions.ACTION_MAX_PENDING, ActionEngine.DEFAULT_MAX_PENDING));
+
+    /**
+     * Serializes the check that a location is not held by another owner with
+     * the creation of the entity at this location.
+     */
+    private final Object locationLock = new Object();
+
+    /**
+     * Collection order of the entities of several owners.
+     */
+    private static final Comparator<Entity> ENTITY_LOCATION_ORDER = new Comparator<Entity>() {
+        @Override
+        public int compare(Entity e1, Entity e2) {
+            return EntityPathTrie.LOCATION_ORDER.compare(e1.getId(), e2.getId());
+        }
+    };
+
+    /**
+     * Maximum number of collection page serials kept.
+     */
+    private static final int MAX_PAGE_SERIALS = 1024;
+
+    /**
+     * Serial of the last collection pages by query key, start and number,
+     * least recently used pages are dropped first.
+     */
+    private final Map<String, PageSerial> pageSerials = new LinkedHashMap<String, PageSerial>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, PageSerial> eldest) {
+            return size() > MAX_PAGE_SERIALS;
+        }
+    };
+
     private Map<String, List<Struct2>> currentListRequests = new HashMap<String, List<Struct2>>();
 
     /**
      * Default constructor
      */
     public CoreImpl() {
-
+        refresher.start();
     }
 
     @Override
@@ -98,7 +208,17 @@ public class CoreImpl implements core, DBus.Properties {
 
     @Override
     public void Init(Map<String, Variant> opts) {
-        LOGGER.info("Init method invoked with opts : " + Utils.convertVariantMap(opts));
+        Map<String, String> options = Utils.convertVariantMap(opts);
+        LOGGER.info("Init method invoked with opts : " + options);
+        BackendOptions.load(options);
+        Lock lock = ConfigurationManager.getWriteLock();
+        lock.lock();
+        try {
+            ConfigurationManager.applyIndexOptions();
+            ConfigurationManager.publishAllEntityViews();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -106,7 +226,19 @@ public class CoreImpl implements core, DBus.Properties {
         LOGGER.info("Terminate method invoked");
         // TODO : Release all resources (and link) created and referenced here.
         // TODO : Check with occi spec and erocci spec.
-        ConfigurationManager.resetAll();
+        Lock lock = ConfigurationManager.getWriteLock();
+        lock.lock();
+        try {
+            ConfigurationManager.resetAll();
+            retrieveCache.clear();
+            refresher.clear();
+            projections.clear();
+            synchronized (pageSerials) {
+                pageSerials.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
         // terminate the program.
         Runtime.getRuntime().exit(0);
     }
@@ -149,6 +281,40 @@ public class CoreImpl implements core, DBus.Properties {
     @Override
     public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> Create1(String location,
             String kind, List<String> mixins, Map<String, Variant> attributes, String owner, String group) {
+        final String entityOwner = owner == null || owner.isEmpty() ? ConfigurationManager.DEFAULT_OWNER : owner;
+        final List<String> links = new LinkedList<>();
+        Entity entity = ConfigurationManager.getOwnerExecutor(entityOwner).write(new Callable<Entity>() {
+            @Override
+            public Entity call() {
+                return create1(location, kind, mixins, attributes, entityOwner, group, links);
+            }
+        });
+        // The connector is called once the entity is on the configuration,
+        // off the owner's writer.
+        try {
+            connectors.create(entityOwner, entity);
+            LOGGER.info("Create entity done returning relative path : " + entity.getId());
+        } catch (Timeout ex) {
+            // The entity is created on the model, the connector goes on.
+            LOGGER.warn(ex.getMessage());
+        } catch (Exception ex) {
+            LOGGER.error("Exception thrown : " + ex.getMessage());
+            ex.printStackTrace();
+        }
+        // The serial is the one of the created entity view, as returned by Get.
+        Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> q = new Quintuple(kind, mixins,
+                attributes, links, ConfigurationManager.getEtagNumber(entityOwner, entity.getId()).toString());
+        return q;
+    }
+
+    /**
+     * Add the entity to the owner's configuration, on the owner's writer.
+     *
+     * @param links filled with the source and target of a link.
+     * @return the created entity.
+     */
+    private Entity create1(String location, String kind, List<String> mixins, Map<String, Variant> attributes,
+            String owner, String group, List<String> links) {
 
         LOGGER.info("Create entity with location set, input with location=" + location + ", kind=" + kind + ", mixins="
                 + mixins + ", attributes=" + Utils.convertVariantMap(attributes) + " , owner : " + owner + " group: "
@@ -202,42 +368,38 @@ public class CoreImpl implements core, DBus.Properties {
             LOGGER.info("Create entity : " + entityId);
 
         }
-        List<String> links = new LinkedList<>();
-        if (isResource) {
-            ConfigurationManager.addResourceToConfiguration(entityId, kind, mixins, attr, owner);
-        } else {
-            String src = attr.get(OcciConstants.ATTRIBUTE_SOURCE);
-            String target = attr.get(OcciConstants.ATTRIBUTE_TARGET);
-            if (src != null) {
-                links.add(src);
+        // Owners are written on their own writers, a location is checked and
+        // taken at once.
+        synchronized (locationLock) {
+            String holder = ConfigurationManager.findOwnerOfEntity(entityId);
+            if (holder != null && !holder.equals(owner)) {
+                throw new Conflict("The location " + location + " is already used by another owner.");
             }
-            if (target != null) {
-                links.add(target);
+            if (isResource) {
+                ConfigurationManager.addResourceToConfiguration(entityId, kind, mixins, attr, owner);
+            } else {
+                String src = attr.get(OcciConstants.ATTRIBUTE_SOURCE);
+                String target = attr.get(OcciConstants.ATTRIBUTE_TARGET);
+                if (src != null) {
+                    links.add(src);
+                }
+                if (target != null) {
+                    links.add(target);
+                }
+                attr.put("occi.core.id", identifierUUID);
+                ConfigurationManager.addLinkToConfiguration(entityId, kind, mixins, src, target, attr, owner);
             }
-            attr.put("occi.core.id", identifierUUID);
-            ConfigurationManager.addLinkToConfiguration(entityId, kind, mixins, src, target, attr, owner);
         }
         // Get the entity to be sure that it was inserted on configuration
         // object.
         Entity entity = ConfigurationManager.findEntity(owner, entityId);
-        if (entity != null) {
-            try {
-                entity.occiCreate();
-                LOGGER.info("Create entity done returning relative path : " + entity.getId());
-                Utils.printEntity(entity);
-                
-            } catch (Exception ex) {
-                LOGGER.error("Exception thrown : " + ex.getMessage());
-                ex.printStackTrace();
-            }
-
-        } else {
+        if (entity == null) {
             LOGGER.error("Error, entity was not created on object model, please check your query.");
             throw new RuntimeException("Error, entity was not created on object model, please check your query.");
         }
-        Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> q = new Quintuple(kind, mixins,
-                attributes, links, ConfigurationManager.getEtagNumber(owner, entityId).toString());
-        return q;
+        ConfigurationManager.updateEntityIndexes(owner, entity);
+        Utils.printEntity(entity);
+        return entity;
     }
 
     /**
@@ -253,6 +415,13 @@ public class CoreImpl implements core, DBus.Properties {
     @Override
     public Sextuple<String, String, List<String>, Map<String, Variant>, List<String>, String> Create2(String kind,
             List<String> mixins, Map<String, Variant> attributes, String owner, String group) {
+        final String entityOwner = owner == null || owner.isEmpty() ? ConfigurationManager.DEFAULT_OWNER : owner;
+        // Create1 writes on the owner's writer.
+        return create2(kind, mixins, attributes, entityOwner, group);
+    }
+
+    private Sextuple<String, String, List<String>, Map<String, Variant>, List<String>, String> create2(String kind,
+            List<String> mixins, Map<String, Variant> attributes, String owner, String group) {
 
         LOGGER.info("Create entity without location set, input with kind=" + kind + ", mixins="
                 + mixins + ", attributes=" + Utils.convertVariantMap(attributes) + " , owner : " + owner + " group: "
@@ -283,9 +452,6 @@ public class CoreImpl implements core, DBus.Properties {
             String location) {
         LOGGER.info("Get entity invoked with location=" + location);
 
-        String owner = ConfigurationManager.DEFAULT_OWNER;
-        String group = ConfigurationManager.DEFAULT_OWNER;
-
         if (location != null && !location.isEmpty()) {
             // Check if location is set as root "/uuid".
             if (location.startsWith("/")) {
@@ -296,75 +462,104 @@ public class CoreImpl implements core, DBus.Properties {
             throw new RuntimeException("Entity location is not set !");
         }
 
-        Entity entity = ConfigurationManager.findEntity(owner, location);
-
-        Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> sept = null;
-        if (entity != null) {
-            LOGGER.info("Before retrieving...");
-            Utils.printEntity(entity);
-            
-            entity.occiRetrieve(); // Try to retrieve values before getting vals on configuration.
-            LOGGER.info("After retrieving...");
-            Utils.printEntity(entity);
-            List<Mixin> mixins = entity.getMixins();
-            List<String> mixinsToReturn = new ArrayList<>();
-            for (Mixin mixin : mixins) {
-                mixinsToReturn.add(mixin.getScheme() + mixin.getTerm());
-            }
-            EList<AttributeState> attrsState = entity.getAttributes();
-            
-            Map<String, String> attrs = ConfigurationManager.getEntityAttributesMap(attrsState);
-            String identifierUUID = Utils.getUUIDFromId(location, attrs);
-            attrs.put("occi.core.id", identifierUUID);
-
-            String src = null;
-            String target = null;
-            List<String> links = new ArrayList<>();
-            if (entity instanceof Resource) {
-
-                Resource resource = (Resource) entity;
-                List<Link> linksRes = resource.getLinks();
-                for (Link link : linksRes) {
-                    if (link.getId().startsWith("/")) {
-                        links.add(link.getId());
-                    } else {
-                        links.add("/" + link.getId());
-                    }
-
-                }
-            } else if (entity instanceof Link) {
+        // The connector retrieves a copy of the entity without the owner
+        // lock, the changes are applied and the entity view published by the
+        // owner's writer, the view is then read on this thread without lock.
+        // An entity retrieved less than its TTL ago is not retrieved again,
+        // nor an entity refreshed in the background.
+        final String entityLocation = location;
+        final String owner = getEntityOwner(entityLocation);
+        refresher.read(entityLocation);
+        if (!refresher.isEnabled() && !retrieveCache.isFresh(entityLocation)) {
+            retrieve(owner, entityLocation);
+        }
+        return get(owner, entityLocation);
+    }
 
-                Link link = (Link) entity;
-                if (link.getSource() != null) {
-                    src = link.getSource().getId();
-                }
-                if (link.getTarget() != null) {
-                    target = link.getTarget().getId();
-                }
+    /**
+     * Conditional Get: get an entity unless it is unchanged since the given
+     * serial.
+     *
+     * @param location (string): entity path relative part
+     * @param serial (string): serial known by the caller, from a previous
+     * Get.
+     * @return the entity, as Get.
+     * @throws NotModified if the entity serial is still this serial.
+     */
+    @Override
+    public Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> GetIfModified(
+            String location, String serial) {
+        Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> sept = Get(location);
+        if (sept.g.equals(serial)) {
+            throw new NotModified("Entity " + location + " not modified since serial " + serial);
+        }
+        return sept;
+    }
 
-                if (src != null) {
-                    links.add("/" + src);
-                    attrs.put("occi.core.source", "/" + src);
-                }
-                if (target != null) {
-                    links.add("/" + target);
-                    attrs.put("occi.core.target", "/" + target);
-                }
+    /**
+     * Retrieve the values of an entity from its connector.
+     *
+     * @param location (string): entity path relative part, without leading
+     * slash.
+     */
+    private void retrieve(String owner, String location) {
+        Entity entity = findEntity(owner, location);
+        if (entity != null) {
+            try {
+                connectors.retrieve(owner, entity); // Try to retrieve values before getting vals on configuration.
+            } catch (Timeout ex) {
+                LOGGER.warn(ex.getMessage() + ", the last known state is returned");
+                return;
             }
+            retrieveCache.retrieved(entity.getId(), entity.getKind() == null ? null : entity.getKind().getTerm());
+            LOGGER.info("Entity " + entity.getId() + " retrieved");
+        }
+    }
 
-            Map<String, Variant> attributes = Utils.convertStringMapToVariant(attrs);
-            String serial = ConfigurationManager.getEtagNumber(owner, entity.getId()).toString();
-            String kind = entity.getKind().getScheme() + entity.getKind().getTerm();
+    /**
+     * Find an entity with the owner's read lock.
+     *
+     * @return the entity, null if not found.
+     */
+    private Entity findEntity(final String owner, final String location) {
+        return ConfigurationManager.getOwnerExecutor(owner).read(new Callable<Entity>() {
+            @Override
+            public Entity call() {
+                return ConfigurationManager.findEntity(owner, location);
+            }
+        });
+    }
 
-            sept = new Septuple<>(kind,
-                    mixinsToReturn, attributes, links, owner, group, serial);
+    private Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> get(String owner,
+            String location) {
+        return getProjection(owner, location).getSeptuple();
+    }
 
-        } else {
+    /**
+     * Reply of a modification, on the owner's writer: the views are published
+     * first so the reply is the modified entity, whether Get retrieves it or
+     * not.
+     *
+     * @param owner
+     * @param id id of the modified entity.
+     * @return the entity as returned by Action.
+     */
+    private Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> getModified(String owner, String id) {
+        ConfigurationManager.publishEntityViews(owner);
+        return getProjection(owner, id).getQuintuple();
+    }
 
+    /**
+     * @return the projection of the last published view of an entity, built
+     * once per view and action job status.
+     */
+    private EntityProjections.Projection getProjection(String owner, String location) {
+        EntityView view = ConfigurationManager.getEntityView(owner, location);
+        if (view == null) {
             LOGGER.warn("Entity " + location + " --< doesnt exist !");
             throw new NotFound("Entity " + location + " --< doesnt exist !");
         }
-        return sept;
+        return projections.get(owner, view, actionEngine.getLastJob(view.getId()));
     }
 
     /**
@@ -376,10 +571,21 @@ public class CoreImpl implements core, DBus.Properties {
      */
     @Override
     public void Link(String location, byte type, String link) {
+        // The owner of the link, the resource must be on the same configuration.
+        final String owner = getEntityOwner(link);
+        ConfigurationManager.getOwnerExecutor(owner).write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                link(owner, location, type, link);
+                return null;
+            }
+        });
+    }
+
+    private void link(String owner, String location, byte type, String link) {
 
         LOGGER.info("Link resource endpoint invoked with location=" + location + " type: " + type + " , link to set: " + link);
 
-        String owner = ConfigurationManager.DEFAULT_OWNER;
         String group = ConfigurationManager.DEFAULT_OWNER;
 
         if (location != null && !location.isEmpty()) {
@@ -412,11 +618,11 @@ public class CoreImpl implements core, DBus.Properties {
             Resource res = (Resource) linkedResource;
             // Assign the source.
             if (type == 0) {
-                linkEntity.setSource(res);
+                ConfigurationManager.setLinkSource(owner, linkEntity, res);
             }
             // Assign the target.
             if (type == 1) {
-                linkEntity.setTarget(res);
+                ConfigurationManager.setLinkTarget(owner, linkEntity, res);
             }
         } else {
             LOGGER.warn("Cant assign a link " + link + " to the resource: " + location);
@@ -438,8 +644,18 @@ public class CoreImpl implements core, DBus.Properties {
     @Override
     public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> Mixin(String location,
             String mixin, Map<String, Variant> attributes) {
+        final String owner = getEntityOwner(location);
+        return ConfigurationManager.getOwnerExecutor(owner).write(new Callable<Quintuple<String, List<String>, Map<String, Variant>, List<String>, String>>() {
+            @Override
+            public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> call() {
+                return mixin(owner, location, mixin, attributes);
+            }
+        });
+    }
+
+    private Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> mixin(String owner, String location,
+            String mixin, Map<String, Variant> attributes) {
 
-        String owner = ConfigurationManager.DEFAULT_OWNER;
         String group = ConfigurationManager.DEFAULT_OWNER;
 
         if (location != null && !location.isEmpty()) {
@@ -465,9 +681,9 @@ public class CoreImpl implements core, DBus.Properties {
         if (!result) {
             throw new RuntimeException("cannot find mixin: " + mixin + " on configuration.");
         }
+        retrieveCache.invalidate(entity.getId());
 
-        Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> sept = Get(location);
-        Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> q = new Quintuple<>(sept.a, sept.b, sept.c, sept.d, sept.g);
+        Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> q = getModified(owner, entity.getId());
 
         return q;
 
@@ -483,8 +699,18 @@ public class CoreImpl implements core, DBus.Properties {
     @Override
     public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> Unmixin(String location,
             String mixin) {
+        final String owner = getEntityOwner(location);
+        return ConfigurationManager.getOwnerExecutor(owner).write(new Callable<Quintuple<String, List<String>, Map<String, Variant>, List<String>, String>>() {
+            @Override
+            public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> call() {
+                return unmixin(owner, location, mixin);
+            }
+        });
+    }
+
+    private Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> unmixin(String owner, String location,
+            String mixin) {
 
-        String owner = ConfigurationManager.DEFAULT_OWNER;
         String group = ConfigurationManager.DEFAULT_OWNER;
 
         if (location != null && !location.isEmpty()) {
@@ -512,8 +738,8 @@ public class CoreImpl implements core, DBus.Properties {
             LOGGER.error("Cant dissociate a mixin from the entity : " + location + ", cant retrieve this mixin " + mixin);
             throw new RuntimeException("Cant dissociate a mixin from the entity : " + location + ", cant retrieve this mixin " + mixin);
         }
-        Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> sept = Get(location);
-        Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> q = new Quintuple<>(sept.a, sept.b, sept.c, sept.d, sept.g);
+        retrieveCache.invalidate(entity.getId());
+        Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> q = getModified(owner, entity.getId());
 
         return q;
     }
@@ -521,8 +747,11 @@ public class CoreImpl implements core, DBus.Properties {
     /**
      * Collection : List of entity collections with filters and pagination.
      * Filter is a list of constraint. Constraint is a 3-tuple: - operator: 0:
-     * EQUAL, 1: LIKE - key (string): attribute on which apply the constraint
-     * (or empty string for any attribute) - value (variant) : constraint value
+     * EQUAL, 1: LIKE, 2: >, 3: >=, 4: <, 5: <=, 6: RANGE ("min..max") - key
+     * (string): attribute on which apply the constraint (or empty string for
+     * any attribute) - value (variant) : constraint value. An entity is
+     * returned if all constraints are respected. An EQUAL constraint on "kind"
+     * or "mixins" with a category id selects the entities of this category.
      *
      * @param id (string): category id or path
      * @param filter (a(ysv)): filter
@@ -534,8 +763,37 @@ public class CoreImpl implements core, DBus.Properties {
      */
     @Override
     public Pair<List<String>, String> Collection(String id, List<Struct2> filter, UInt32 start, int number) {
+        return collection(id, filter, start, number, null);
+    }
+
+    /**
+     * Conditional Collection: get a collection page unless the collection is
+     * unchanged since the given serial.
+     *
+     * @param id (string): category id or relative path
+     * @param filter
+     * @param start (unsigned int): first entity index
+     * @param number (int): page size, -1 for all
+     * @param serial (string): serial known by the caller, from a previous
+     * Collection.
+     * @return the collection page, as Collection.
+     * @throws NotModified if the page serial is still this serial.
+     */
+    @Override
+    public Pair<List<String>, String> CollectionIfModified(String id, List<Struct2> filter, UInt32 start, int number,
+            String serial) {
+        return collection(id, filter, start, number, serial);
+    }
+
+    /**
+     * @param knownSerial serial of the page known by the caller, null if
+     * none.
+     * @throws NotModified if the page serial is still knownSerial.
+     */
+    private Pair<List<String>, String> collection(final String id, List<Struct2> filter, UInt32 start, final int number,
+            final String knownSerial) {
         // Load filters.
-        List<CollectionFilter> filters = new ArrayList<>();
+        final List<CollectionFilter> filters = new ArrayList<>();
         if (filter == null || filter.isEmpty()) {
             LOGGER.info("No specific filters are set, default filters with all elements is used.");
             LOGGER.info("Collection method invoked  with id: " + id + " filters : empty or null list, start:" + start.toString() + " number: " + number);
@@ -547,48 +805,235 @@ public class CoreImpl implements core, DBus.Properties {
             LOGGER.info("Collection method invoked  with id: " + id + " filters : " + filter.toString() + " start:" + start.toString() + " number: " + number);
         }
 
-        int collectionSerial = Utils.getUniqueInt();
-        String serial = String.valueOf(collectionSerial);
+        final int startIndex = start.intValue() > 1 ? start.intValue() : 1;
 
-        List<String> collectionList = new LinkedList<>();
+        // A follow-up page of a pinned result is read from the result of the
+        // first page, without lock, other pages query the owners' indexes.
+        final String queryKey = CollectionCursor.getQueryKey(id, filters);
 
-        List<Entity> entities = new LinkedList<>();
+        // The serial of a page computed at the current snapshot version is
+        // still the one of this page, no query is needed.
+        final String pageKey = queryKey + '#' + startIndex + '#' + number;
+        final long snapshotVersion = ConfigurationManager.getSnapshotVersion();
+        if (knownSerial != null && knownSerial.equals(findPageSerial(pageKey, snapshotVersion))) {
+            throw new NotModified("Collection " + id + " not modified since serial " + knownSerial);
+        }
 
-        int startIndex = start.intValue();
+        Pair<List<String>, String> page = null;
+        CollectionCursor cursor = ConfigurationManager.findCollectionCursor(queryKey, startIndex);
+        if (cursor != null && cursor.isPinned()) {
+            if (cursor.isPinnedValid(System.currentTimeMillis(), snapshotVersion,
+                    BackendOptions.getInt(BackendOptions.COLLECTION_SNAPSHOT_TTL, DEFAULT_COLLECTION_SNAPSHOT_TTL),
+                    BackendOptions.getInt(BackendOptions.COLLECTION_SNAPSHOT_MAX_LAG, DEFAULT_COLLECTION_SNAPSHOT_MAX_LAG))) {
+                page = getPinnedPage(cursor, startIndex, number);
+            } else {
+                // Too old, the page resumes after the previous one.
+                cursor = cursor.unpin();
+            }
+        }
+        if (page == null) {
+            page = queryCollection(id, filters, queryKey, cursor, startIndex, number);
+        }
+        savePageSerial(pageKey, page.b, snapshotVersion);
+        if (page.b.equals(knownSerial)) {
+            throw new NotModified("Collection " + id + " not modified since serial " + knownSerial);
+        }
+        return page;
+    }
 
-        String owner = ConfigurationManager.DEFAULT_OWNER;
-        String group = ConfigurationManager.DEFAULT_OWNER;
+    /**
+     * Query a collection page on the indexes of all owners. The first page
+     * reads up to COLLECTION_SNAPSHOT_PAGES pages (and at most
+     * erocci.collection.snapshotMaxEntities entities): a result read whole is
+     * pinned for the follow-up pages, else the next page resumes after the
+     * last entity of this page. The owners are queried one after the other,
+     * each with its read lock only for its own query, so the merged result is
+     * not consistent across owners.
+     */
+    private Pair<List<String>, String> queryCollection(final String id, final List<CollectionFilter> filters,
+            String queryKey, CollectionCursor cursor, int startIndex, int number) {
+        // A follow-up page resumes after the last entity of the previous
+        // page.
+        String afterId = null;
+        if (cursor != null) {
+            afterId = cursor.getLastEntityId();
+        }
+        int maxPinned = BackendOptions.getInt(BackendOptions.COLLECTION_SNAPSHOT_MAX_ENTITIES,
+                DEFAULT_COLLECTION_SNAPSHOT_MAX_ENTITIES);
+        // One more entity tells if there is a next page, or if the result
+        // read ahead is whole.
+        int limit = number;
+        if (number > 0) {
+            int readAhead = cursor == null ? Math.min(maxPinned, COLLECTION_SNAPSHOT_PAGES * number) : number;
+            limit = Math.max(number, readAhead) + 1;
+        }
+
+        // Each owner returns the first entities of its result, ordered by
+        // location, the page is taken from the merge of these results.
+        int skip = afterId == null ? startIndex - 1 : 0;
+        final int ownerLimit = limit < 0 ? limit : skip + limit;
+        final String ownerAfterId = afterId;
+        final Map<String, String> owners = new HashMap<>();
+        List<Entity> merged = new ArrayList<>();
+        int resultOwners = 0;
+        for (final String owner : ConfigurationManager.getOwners()) {
+            List<Entity> ownerEntities = ConfigurationManager.getOwnerExecutor(owner).read(new Callable<List<Entity>>() {
+                @Override
+                public List<Entity> call() {
+                    return findCollectionEntities(owner, id, filters, ownerLimit, ownerAfterId);
+                }
+            });
+            for (Entity entity : ownerEntities) {
+                owners.put(entity.getId(), owner);
+            }
+            if (!ownerEntities.isEmpty()) {
+                merged.addAll(ownerEntities);
+                resultOwners++;
+            }
+        }
+        if (resultOwners > 1) {
+            Collections.sort(merged, ENTITY_LOCATION_ORDER);
+        }
+        int from = Math.min(skip, merged.size());
+        int to = limit < 0 ? merged.size() : Math.min(merged.size(), from + limit);
+        List<Entity> entities = merged.subList(from, to);
 
+        List<String> collectionList = new ArrayList<>(entities.size());
+        for (Entity entity : entities) {
+            collectionList.add("/" + entity.getId());
+        }
+        if (number < 0 || collectionList.size() <= number) {
+            return new Pair<>(collectionList, getPageSerial(queryKey, startIndex, collectionList, owners));
+        }
+
+        List<String> page = new ArrayList<>(collectionList.subList(0, number));
+        if (collectionList.size() < limit && collectionList.size() <= maxPinned) {
+            long snapshotVersion = ConfigurationManager.getSnapshotVersion();
+            LOGGER.info("Collection " + queryKey + " pinned at snapshot version " + snapshotVersion + " with "
+                    + collectionList.size() + " entities");
+            ConfigurationManager.saveCollectionCursor(new CollectionCursor(queryKey, startIndex + number,
+                    entities.get(number - 1).getId(), Collections.unmodifiableList(collectionList),
+                    startIndex, snapshotVersion, System.currentTimeMillis()));
+        } else {
+            ConfigurationManager.saveCollectionCursor(new CollectionCursor(queryKey, startIndex + number,
+                    entities.get(number - 1).getId()));
+        }
+        return new Pair<>(page, getPageSerial(queryKey, startIndex, page, owners));
+    }
+
+    /**
+     * Find the first entities of a collection for an owner, with the owner's
+     * read lock.
+     *
+     * @param owner
+     * @param id collection id (category id or path).
+     * @param filters
+     * @param number maximum number of entities, -1 for all.
+     * @param afterId resume after this entity id, null to start from the
+     * first entity.
+     * @return the entities ordered by location.
+     */
+    private List<Entity> findCollectionEntities(String owner, String id, List<CollectionFilter> filters, int number,
+            String afterId) {
         // Check if categoryId or relative path part.
         if (id != null && id.startsWith("http")) {
             // it's a categoryId...
             // Search for kind, mixins, actions and get their entities.
-            entities.addAll(ConfigurationManager.findAllEntitiesForCategoryId(owner, id, startIndex, number, filters));
+            return ConfigurationManager.findAllEntitiesForCategoryId(owner, id, 1, number, filters, afterId);
 
         } else if (id == null || id.isEmpty() || id.equals("/")) {
 
             // We return all entities for all kinds.
-            entities.addAll(ConfigurationManager.findAllEntitiesOwner(owner, startIndex, number, filters));
+            return ConfigurationManager.findAllEntitiesOwner(owner, 1, number, filters, afterId);
 
         } else {
             // it's a relative path url part.
-            if (id.startsWith("/")) {
-                id = id.substring(1);
+            String path = id;
+            if (path.startsWith("/")) {
+                path = path.substring(1);
             }
-            entities.addAll(ConfigurationManager.findAllEntitiesOwnerForRelativePath(owner, id, startIndex, number, filters));
+            return ConfigurationManager.findAllEntitiesOwnerForRelativePath(owner, path, 1, number, filters, afterId);
         }
+    }
 
-        String location;
-        String entityUUID;
-        for (Entity entity : entities) {
-            location = entity.getId();
-            // entityUUID = Utils.getUUIDFromId(entity.getId());
+    /**
+     * @param queryKey
+     * @param startIndex
+     * @param locations locations of the page.
+     * @param owners owner by entity id, null to find the owners.
+     * @return a serial derived from the query, the start of the page and the
+     * locations and serials of its entities.
+     */
+    private String getPageSerial(String queryKey, int startIndex, List<String> locations, Map<String, String> owners) {
+        long serial = Utils.createSerial(queryKey.hashCode(), startIndex);
+        for (String location : locations) {
+            String entityId = location.substring(1);
+            String owner = owners == null ? ConfigurationManager.findOwnerOfEntity(entityId) : owners.get(entityId);
+            serial = Utils.createSerial(serial, location.hashCode());
+            if (owner != null) {
+                serial = Utils.createSerial(serial,
+                        (int) ConfigurationManager.getEtagNumber(owner, entityId).longValue());
+            }
+        }
+        return String.valueOf(serial);
+    }
 
-            collectionList.add("/" + location);
+    /**
+     * Read a page from the result pinned by the first page of a collection
+     * query.
+     */
+    private Pair<List<String>, String> getPinnedPage(CollectionCursor cursor, int startIndex, int number) {
+        List<String> pinned = cursor.getPinnedLocations();
+        int from = startIndex - cursor.getPinnedStartIndex();
+        int to = number < 0 ? pinned.size() : Math.min(pinned.size(), from + number);
+        List<String> page = new ArrayList<>(pinned.subList(from, to));
+        if (to < pinned.size()) {
+            String lastLocation = pinned.get(to - 1);
+            ConfigurationManager.saveCollectionCursor(new CollectionCursor(cursor.getQueryKey(), startIndex + page.size(),
+                    lastLocation.substring(1), pinned, cursor.getPinnedStartIndex(), cursor.getSnapshotVersion(),
+                    cursor.getPinnedAt()));
+        }
+        return new Pair<>(page, getPageSerial(cursor.getQueryKey(), startIndex, page, null));
+    }
+
+    /**
+     * @param pageKey query key, start and number of a collection page.
+     * @param snapshotVersion current snapshot version of the views of all
+     * owners.
+     * @return the serial of this page if it was computed at this snapshot
+     * version, null if unknown.
+     */
+    private String findPageSerial(String pageKey, long snapshotVersion) {
+        PageSerial pageSerial;
+        synchronized (pageSerials) {
+            pageSerial = pageSerials.get(pageKey);
+        }
+        if (pageSerial == null || pageSerial.snapshotVersion != snapshotVersion) {
+            return null;
         }
+        return pageSerial.serial;
+    }
 
-        Pair<List<String>, String> collection = new Pair<>(collectionList, serial);
-        return collection;
+    private void savePageSerial(String pageKey, String serial, long snapshotVersion) {
+        synchronized (pageSerials) {
+            pageSerials.put(pageKey, new PageSerial(serial, snapshotVersion));
+        }
+    }
+
+    /**
+     * Serial of a collection page and the snapshot version it was computed
+     * at.
+     */
+    private static class PageSerial {
+
+        private final String serial;
+
+        private final long snapshotVersion;
+
+        PageSerial(final String serial, final long snapshotVersion) {
+            this.serial = serial;
+            this.snapshotVersion = snapshotVersion;
+        }
     }
 
     /**
@@ -603,10 +1048,43 @@ public class CoreImpl implements core, DBus.Properties {
     @Override
     public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> Update(String location,
             Map<String, Variant> attributes) {
+        final String owner = getEntityOwner(location);
+        OwnerExecutor executor = ConfigurationManager.getOwnerExecutor(owner);
+        final Entity entity = executor.read(new Callable<Entity>() {
+            @Override
+            public Entity call() {
+                return findEntityToUpdate(owner, location);
+            }
+        });
+        // The connectors are called off the owner's writer, the attributes
+        // are set on the writer between the retrieve and the update.
+        if (!retrieveCache.isFresh(entity.getId())) {
+            try {
+                connectors.retrieve(owner, entity);
+            } catch (Timeout ex) {
+                LOGGER.warn(ex.getMessage() + ", the last known state is updated");
+            }
+        }
+        executor.write(new Callable<Void>() {
+            @Override
+            public Void call() {
+                update(owner, entity, attributes);
+                return null;
+            }
+        });
+        try {
+            connectors.update(owner, entity);
+        } finally {
+            retrieveCache.invalidate(entity.getId());
+        }
+        return getProjection(owner, entity.getId()).getQuintuple();
+    }
 
-        String owner = ConfigurationManager.DEFAULT_OWNER;
-        String group = ConfigurationManager.DEFAULT_OWNER;
-
+    /**
+     * Find the entity to update, on its exact location or as the only entity
+     * under this location.
+     */
+    private Entity findEntityToUpdate(String owner, String location) {
         if (location != null && !location.isEmpty()) {
             // Check if location is set as root "/uuid".
             if (location.startsWith("/")) {
@@ -618,38 +1096,62 @@ public class CoreImpl implements core, DBus.Properties {
         }
 
         LOGGER.info("Update invoked");
-        Map<String, String> attr = Utils.convertVariantMap(attributes);
-
         List<Entity> entities = null;
-        Entity entity = null;
-        // Find the entity
-        entities = ConfigurationManager.findAllEntitiesLikePartialId(owner, location);
-
-        if (entities != null && entities.size() == 1) {
-            entity = entities.get(0);
+        Entity entity;
+        entity = ConfigurationManager.findEntity(owner, location);
+        if (entity == null) {
+            entities = ConfigurationManager.findAllEntitiesLikePartialId(owner, location);
+            if (entities.size() == 1) {
+                entity = entities.get(0);
+            }
         }
         if (entity == null) {
             LOGGER.error("entity : " + location + " has not been found for update, cant update.");
             throw new RuntimeException("entity : " + location + " has not been found for update, cant update.");
-        } else {
-            LOGGER.info("entity found : " + location + " updating...");
-            entity.occiRetrieve();
-
-            // update attributes .
-            entity = ConfigurationManager.updateAttributesToEntity(entity, attr);
-            ConfigurationManager.updateVersion(owner, location);
-            entity.occiUpdate();
-
         }
-        Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> sept = Get(location);
-        Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> q = new Quintuple<>(sept.a, sept.b, sept.c, sept.d, sept.g);
-        return q;
+        return entity;
+    }
 
+    /**
+     * Set the attributes of an entity, on the owner's writer.
+     */
+    private void update(String owner, Entity entity, Map<String, Variant> attributes) {
+        if (ConfigurationManager.findEntity(owner, entity.getId()) != entity) {
+            throw new NotFound("Entity " + entity.getId() + " was deleted before its update");
+        }
+        LOGGER.info("entity found : " + entity.getId() + " updating...");
+        Map<String, String> attr = Utils.convertVariantMap(attributes);
+        ConfigurationManager.updateAttributesToEntity(entity, attr);
+        ConfigurationManager.updateVersion(owner, entity.getId());
+        retrieveCache.invalidate(entity.getId());
+        ConfigurationManager.updateEntityIndexes(owner, entity);
     }
 
+    /**
+     * Queue an action of an entity, the action is run in the background after
+     * the pending actions of this entity (see ActionEngine).
+     *
+     * @param location entity location.
+     * @param action action kind id.
+     * @param attributes action parameters.
+     * @return the entity as before the action, its erocci.action.*
+     * attributes give the job of the action. The job status is then polled
+     * with Get.
+     */
     @Override
     public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> Action(String location,
             String action, Map<String, Variant> attributes) {
+        final String owner = getEntityOwner(location);
+        return ConfigurationManager.getOwnerExecutor(owner).read(new Callable<Quintuple<String, List<String>, Map<String, Variant>, List<String>, String>>() {
+            @Override
+            public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> call() {
+                return action(owner, location, action, attributes);
+            }
+        });
+    }
+
+    private Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> action(final String owner, String location,
+            String action, Map<String, Variant> attributes) {
 
         LOGGER.info("Action method invoked : location " + location + " >-- action: " + action + " --< attributes=" + Utils.convertVariantMap(attributes));
 
@@ -667,93 +1169,69 @@ public class CoreImpl implements core, DBus.Properties {
             LOGGER.warn("Entity location is not set !");
             throw new RuntimeException("Entity location is not set !");
         }
-        String owner = ConfigurationManager.DEFAULT_OWNER;
 
         Map<String, String> actionAttributes = Utils.convertVariantMap(attributes);
 
-        Entity entity = ConfigurationManager.findEntity(owner, location);
-        if (entity != null) {
-            String entityKind = entity.getKind().getScheme() + entity.getKind().getTerm();
-            Extension ext = ConfigurationManager.getExtensionForKind(owner, entityKind);
-
-            Action actionKind = ConfigurationManager.getActionKindFromExtension(ext, action);
-            if (actionKind == null) {
-                LOGGER.error("Action : " + action + " doesnt exist on extension : " + ext.getName());
-                throw new RuntimeException("Action : " + action + " doesnt exist on extension : " + ext.getName());
-            }
-
-            String[] actionParameters = Utils.getActionParametersArray(actionAttributes);
-            try {
-                if (actionParameters == null) {
-                    OcciHelper.executeAction(entity, actionKind.getTerm());
-                } else {
-                    OcciHelper.executeAction(entity, actionKind.getTerm(), actionParameters);
-                }
-            } catch (InvocationTargetException ex) {
-                LOGGER.error("Action failed to execute : " + ex.getMessage());
-            }
-
-        } else {
+        final Entity entity = ConfigurationManager.findEntity(owner, location);
+        if (entity == null) {
             LOGGER.error("Entity doesnt exist : " + location);
             throw new RuntimeException("Entity doesnt exist : " + location);
         }
+        String entityKind = entity.getKind().getScheme() + entity.getKind().getTerm();
+        Extension ext = ConfigurationManager.getExtensionForKind(owner, entityKind);
 
-        // Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> sept = Get(location);
-        // Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> q = new Quintuple<>(sept.a, sept.b, sept.c, sept.d, sept.g);
-        // sept = new Septuple<>(kind,
-        //            mixinsToReturn, attributes, links, owner, group, serial);
-        String kind = entity.getKind().getScheme() + entity.getKind().getTerm();
-        List<String> mixins = new ArrayList<>();
-
-        List<Mixin> mixinsEnt = entity.getMixins();
-        for (Mixin mixin : mixinsEnt) {
-            mixins.add(mixin.getScheme() + mixin.getTerm());
-        }
-        Map<String, String> attrs = ConfigurationManager.getEntityAttributesMap(entity.getAttributes());
-        String identifierUUID = Utils.getUUIDFromId(location, attrs);
-        attrs.put("occi.core.id", identifierUUID);
-
-        String src = null;
-        String target = null;
-        List<String> links = new ArrayList<>();
-        if (entity instanceof Resource) {
-
-            Resource resource = (Resource) entity;
-            List<Link> linksRes = resource.getLinks();
-            for (Link link : linksRes) {
-                if (link.getId().startsWith("/")) {
-                    links.add(link.getId());
-                } else {
-                    links.add("/" + link.getId());
-                }
+        final Action actionKind = ConfigurationManager.getActionKindFromExtension(ext, action);
+        if (actionKind == null) {
+            LOGGER.error("Action : " + action + " doesnt exist on extension : " + ext.getName());
+            throw new RuntimeException("Action : " + action + " doesnt exist on extension : " + ext.getName());
+        }
 
+        final String[] actionParameters = Utils.getActionParametersArray(actionAttributes);
+        retrieveCache.invalidate(entity.getId());
+        actionEngine.submit(entity.getId(), actionKind.getScheme() + actionKind.getTerm(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                executeAction(owner, entity, actionKind.getTerm(), actionParameters);
+                return null;
             }
-        } else if (entity instanceof Link) {
+        });
 
-            Link link = (Link) entity;
-            if (link.getSource() != null) {
-                src = link.getSource().getId();
-            }
-            if (link.getTarget() != null) {
-                target = link.getTarget().getId();
-            }
+        return getProjection(owner, entity.getId()).getQuintuple();
+    }
 
-            if (src != null) {
-                links.add("/" + src);
-                attrs.put("occi.core.source", "/" + src);
-            }
-            if (target != null) {
-                links.add("/" + target);
-                attrs.put("occi.core.target", "/" + target);
-            }
+    /**
+     * Run an action from an action worker on a copy of the entity, without
+     * the owner lock: the actions of different entities run in parallel, also
+     * on one owner. The changes of the copy are then applied on the owner's
+     * writer, as any other modification, which indexes and publishes the
+     * entity (see ConnectorExecutor).
+     */
+    private void executeAction(final String owner, final Entity entity, final String actionTerm,
+            final String[] actionParameters) {
+        if (findEntity(owner, entity.getId()) != entity) {
+            throw new NotFound("Entity " + entity.getId() + " was deleted before its action " + actionTerm);
+        }
+        try {
+            connectors.action(owner, entity, new ConnectorExecutor.ConnectorCall<Void>() {
+                @Override
+                public Void call(final Entity copy) {
+                    try {
+                        if (actionParameters == null) {
+                            OcciHelper.executeAction(copy, actionTerm);
+                        } else {
+                            OcciHelper.executeAction(copy, actionTerm, actionParameters);
+                        }
+                    } catch (InvocationTargetException ex) {
+                        Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+                        LOGGER.error("Action failed to execute : " + cause.getMessage());
+                        throw new RuntimeException("Action failed to execute : " + cause.getMessage(), cause);
+                    }
+                    return null;
+                }
+            });
+        } finally {
+            retrieveCache.invalidate(entity.getId());
         }
-
-        Map<String, Variant> attributesEnt = Utils.convertStringMapToVariant(attrs);
-
-        String serial = ConfigurationManager.getEtagNumber(owner, entity.getId()).toString();
-
-        Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> q = new Quintuple<>(kind, mixins, attributesEnt, links, serial);
-        return q;
     }
 
     /**
@@ -774,12 +1252,98 @@ public class CoreImpl implements core, DBus.Properties {
             LOGGER.warn("Entity location is not set !");
             throw new RuntimeException("Entity location is not set !");
         }
-        List<Entity> entities = ConfigurationManager.findAllEntitiesLikePartialId(ConfigurationManager.DEFAULT_OWNER, location);
+        final String entityLocation = location;
+        final String owner = ConfigurationManager.findOwnerOfEntity(entityLocation);
+        if (owner != null) {
+            // The connectors are called off the owner's writer, then the
+            // entities are removed on the writer.
+            OwnerExecutor executor = ConfigurationManager.getOwnerExecutor(owner);
+            List<Entity> entities = executor.read(new Callable<List<Entity>>() {
+                @Override
+                public List<Entity> call() {
+                    return ConfigurationManager.findAllEntitiesLikePartialId(owner, entityLocation);
+                }
+            });
+            deleteConnectors(owner, entities);
+            executor.write(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    delete(owner, entityLocation);
+                    return null;
+                }
+            });
+            return;
+        }
+        // Kind id, mixin id or collection path: on all owners. The connectors
+        // apply their changes on the owner's writer, they are called before
+        // taking the store write lock.
+        final String defaultOwner = ConfigurationManager.DEFAULT_OWNER;
+        deleteConnectors(defaultOwner, ConfigurationManager.getOwnerExecutor(defaultOwner).read(new Callable<List<Entity>>() {
+            @Override
+            public List<Entity> call() {
+                return ConfigurationManager.findAllEntitiesLikePartialId(defaultOwner, entityLocation);
+            }
+        }));
+        Lock lock = ConfigurationManager.getWriteLock();
+        lock.lock();
+        try {
+            delete(null, entityLocation);
+        } finally {
+            ConfigurationManager.publishAllEntityViews();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Call the connectors of the entities to delete.
+     *
+     * @param owner
+     * @param entities
+     */
+    private void deleteConnectors(String owner, List<Entity> entities) {
         for (Entity entity : entities) {
             LOGGER.info("Deleting entity : " + entity.getId());
-            entity.occiDelete();
+            connectors.delete(owner, entity);
+        }
+    }
+
+    /**
+     * Remove the entities from the configuration, once their connectors are
+     * called.
+     *
+     * @param owner owner of the entity, null to delete on all owners.
+     * @param location
+     */
+    private void delete(String owner, String location) {
+        String entitiesOwner = owner == null ? ConfigurationManager.DEFAULT_OWNER : owner;
+        List<Entity> entities = ConfigurationManager.findAllEntitiesLikePartialId(entitiesOwner, location);
+        for (Entity entity : entities) {
+            actionEngine.forget(entity.getId());
+            retrieveCache.invalidate(entity.getId());
+            refresher.forget(entity.getId());
+            projections.invalidate(entity.getId());
+        }
+        if (owner == null) {
+            ConfigurationManager.removeOrDissociate(location);
+        } else {
+            ConfigurationManager.removeOrDissociateFromConfiguration(owner, location);
+        }
+        // Pinned collection results may list the deleted entities.
+        ConfigurationManager.unpinCollectionCursors();
+    }
+
+    /**
+     * @param location entity location, with or without leading slash.
+     * @return the owner of the entity, the default owner if the entity is
+     * not found.
+     */
+    private String getEntityOwner(final String location) {
+        String id = location;
+        if (id != null && id.startsWith("/")) {
+            id = id.substring(1);
         }
-        ConfigurationManager.removeOrDissociate(location);
+        String owner = ConfigurationManager.findOwnerOfEntity(id);
+        return owner == null ? ConfigurationManager.DEFAULT_OWNER : owner;
     }
 
     /**
@@ -0,0 +1,395 @@
+/**
+ * Copyright (c) 2015-2017 Inria - Linagora
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.UInt32;
+import org.freedesktop.dbus.Variant;
+import org.ow2.erocci.backend.BackendOptions;
+import org.ow2.erocci.backend.Pair;
+import org.ow2.erocci.backend.Quintuple;
+import org.ow2.erocci.backend.Septuple;
+import org.ow2.erocci.backend.Sextuple;
+import org.ow2.erocci.backend.Struct1;
+import org.ow2.erocci.backend.Struct2;
+import org.ow2.erocci.backend.core;
+import org.ow2.erocci.backend.impl.AdmissionControl.MethodClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the D-Bus method calls of CoreImpl on a dispatch executor: a bounded
+ * pool of platform threads with a bounded queue, or a virtual thread per
+ * call (java 21 and later). A slow call (a connector retrieve in Get) only
+ * holds its own thread, the other calls keep running on the store.
+ *
+ * Calls are first admitted by AdmissionControl: a call which cannot start
+ * soon enough is rejected with an Unavailable error.
+ *
+ * The D-Bus workers only hand the calls over and wait for their result, the
+ * connection should have as many workers as calls in flight (see
+ * getMaxCallsInFlight()).
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class DispatchingCore implements core, DBus.Properties {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DispatchingCore.class);
+
+    public static final int DEFAULT_THREADS = 16;
+
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+
+    /**
+     * Idle dispatch threads above the core size are stopped after this delay.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final CoreImpl delegate;
+
+    private final ExecutorService executor;
+
+    private final int maxCallsInFlight;
+
+    private final AdmissionControl admission;
+
+    /**
+     * Dispatcher configured with the backend options (read from java system
+     * properties when started before Init).
+     *
+     * @param delegate
+     */
+    public DispatchingCore(final CoreImpl delegate) {
+        this(delegate, BackendOptions.getInt(BackendOptions.DISPATCH_THREADS, DEFAULT_THREADS),
+                BackendOptions.getInt(BackendOptions.DISPATCH_QUEUE_SIZE, DEFAULT_QUEUE_SIZE),
+                BackendOptions.getBoolean(BackendOptions.DISPATCH_VIRTUAL_THREADS, false));
+    }
+
+    /**
+     * @param delegate
+     * @param threads number of dispatch threads, with virtual threads the
+     * maximum number of concurrent calls.
+     * @param queueSize number of calls waiting for a dispatch thread.
+     * @param virtualThreads true to run each call on a virtual thread, platform
+     * threads are used if the jvm has no virtual threads.
+     */
+    public DispatchingCore(final CoreImpl delegate, final int threads, final int queueSize,
+            final boolean virtualThreads) {
+        this.delegate = delegate;
+        this.admission = new AdmissionControl();
+        int poolSize = Math.max(1, threads);
+        int queueCapacity = Math.max(1, queueSize);
+        ExecutorService virtualExecutor = virtualThreads ? createVirtualThreadExecutor() : null;
+        if (virtualExecutor != null) {
+            this.executor = virtualExecutor;
+            LOGGER.info("D-Bus calls dispatched on virtual threads, " + poolSize + " calls in flight");
+        } else {
+            this.executor = createPlatformThreadExecutor(poolSize, queueCapacity);
+            LOGGER.info("D-Bus calls dispatched on " + poolSize + " threads, queue of " + queueCapacity + " calls");
+        }
+        this.maxCallsInFlight = virtualExecutor != null ? poolSize : poolSize + queueCapacity;
+    }
+
+    /**
+     * @return the number of calls the dispatcher runs or queues at the same
+     * time.
+     */
+    public int getMaxCallsInFlight() {
+        return maxCallsInFlight;
+    }
+
+    private static ExecutorService createPlatformThreadExecutor(final int poolSize, final int queueCapacity) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(runnable, "erocci-dispatch-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() is looked up by reflection,
+     * the backend is built for java 8.
+     *
+     * @return a virtual thread per call executor, null if the jvm has no
+     * virtual threads.
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            LOGGER.warn("Virtual threads are not available on this jvm (java 21 or later), using platform threads");
+            return null;
+        }
+    }
+
+    /**
+     * Run a call on the dispatch executor and wait for its result, exceptions
+     * of the call (D-Bus errors) are thrown back to the D-Bus worker.
+     *
+     * @param methodClass class of the method for the admission control, null
+     * for a call always admitted (Init, Terminate).
+     * @param method method name.
+     * @param call
+     * @return the call result.
+     * @throws Unavailable if the call is not admitted.
+     */
+    private <T> T dispatch(final MethodClass methodClass, final String method, final Callable<T> call) {
+        Future<T> future;
+        if (methodClass == null) {
+            future = executor.submit(call);
+        } else {
+            admission.acquire(methodClass, method);
+            try {
+                future = executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        try {
+                            return call.call();
+                        } finally {
+                            admission.release(methodClass);
+                        }
+                    }
+                });
+            } catch (RuntimeException ex) {
+                admission.release(methodClass);
+                throw ex;
+            }
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a D-Bus call", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    @Override
+    public <A> A Get(String interfaceName, String property) {
+        return delegate.Get(interfaceName, property);
+    }
+
+    @Override
+    public Map<String, Variant> GetAll(String interface_name) {
+        return delegate.GetAll(interface_name);
+    }
+
+    @Override
+    public <A> void Set(String arg0, String arg1, A arg2) {
+        delegate.Set(arg0, arg1, arg2);
+    }
+
+    @Override
+    public boolean isRemote() {
+        return delegate.isRemote();
+    }
+
+    @Override
+    public void Init(final Map<String, Variant> opts) {
+        dispatch(null, "Init", new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.Init(opts);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void Terminate() {
+        dispatch(null, "Terminate", new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.Terminate();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<Struct1> Models() {
+        return dispatch(MethodClass.READ, "Models", new Callable<List<Struct1>>() {
+            @Override
+            public List<Struct1> call() {
+                return delegate.Models();
+            }
+        });
+    }
+
+    @Override
+    public Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> Get(
+            final String location) {
+        return dispatch(MethodClass.READ, "Get", new Callable<Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String>>() {
+            @Override
+            public Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> call() {
+                return delegate.Get(location);
+            }
+        });
+    }
+
+    @Override
+    public Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> GetIfModified(
+            final String location, final String serial) {
+        return dispatch(MethodClass.READ, "GetIfModified", new Callable<Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String>>() {
+            @Override
+            public Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> call() {
+                return delegate.GetIfModified(location, serial);
+            }
+        });
+    }
+
+    @Override
+    public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> Create1(final String location,
+            final String kind, final List<String> mixins, final Map<String, Variant> attributes, final String owner,
+            final String group) {
+        return dispatch(MethodClass.WRITE, "Create1", new Callable<Quintuple<String, List<String>, Map<String, Variant>, List<String>, String>>() {
+            @Override
+            public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> call() {
+                return delegate.Create1(location, kind, mixins, attributes, owner, group);
+            }
+        });
+    }
+
+    @Override
+    public Sextuple<String, String, List<String>, Map<String, Variant>, List<String>, String> Create2(
+            final String kind, final List<String> mixins, final Map<String, Variant> attributes, final String owner,
+            final String group) {
+        return dispatch(MethodClass.WRITE, "Create2", new Callable<Sextuple<String, String, List<String>, Map<String, Variant>, List<String>, String>>() {
+            @Override
+            public Sextuple<String, String, List<String>, Map<String, Variant>, List<String>, String> call() {
+                return delegate.Create2(kind, mixins, attributes, owner, group);
+            }
+        });
+    }
+
+    @Override
+    public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> Update(final String location,
+            final Map<String, Variant> attributes) {
+        return dispatch(MethodClass.WRITE, "Update", new Callable<Quintuple<String, List<String>, Map<String, Variant>, List<String>, String>>() {
+            @Override
+            public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> call() {
+                return delegate.Update(location, attributes);
+            }
+        });
+    }
+
+    @Override
+    public void Link(final String location, final byte type, final String link) {
+        dispatch(MethodClass.WRITE, "Link", new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.Link(location, type, link);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> Action(final String location,
+            final String action, final Map<String, Variant> attributes) {
+        return dispatch(MethodClass.ACTION, "Action", new Callable<Quintuple<String, List<String>, Map<String, Variant>, List<String>, String>>() {
+            @Override
+            public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> call() {
+                return delegate.Action(location, action, attributes);
+            }
+        });
+    }
+
+    @Override
+    public void Delete(final String location) {
+        dispatch(MethodClass.WRITE, "Delete", new Callable<Void>() {
+            @Override
+            public Void call() {
+                delegate.Delete(location);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> Mixin(final String location,
+            final String mixin, final Map<String, Variant> attributes) {
+        return dispatch(MethodClass.WRITE, "Mixin", new Callable<Quintuple<String, List<String>, Map<String, Variant>, List<String>, String>>() {
+            @Override
+            public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> call() {
+                return delegate.Mixin(location, mixin, attributes);
+            }
+        });
+    }
+
+    @Override
+    public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> Unmixin(
+            final String location, final String mixin) {
+        return dispatch(MethodClass.WRITE, "Unmixin", new Callable<Quintuple<String, List<String>, Map<String, Variant>, List<String>, String>>() {
+            @Override
+            public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> call() {
+                return delegate.Unmixin(location, mixin);
+            }
+        });
+    }
+
+    @Override
+    public Pair<List<String>, String> Collection(final String id, final List<Struct2> filter, final UInt32 start,
+            final int number) {
+        return dispatch(MethodClass.READ, "Collection", new Callable<Pair<List<String>, String>>() {
+            @Override
+            public Pair<List<String>, String> call() {
+                return delegate.Collection(id, filter, start, number);
+            }
+        });
+    }
+
+    @Override
+    public Pair<List<String>, String> CollectionIfModified(final String id, final List<Struct2> filter,
+            final UInt32 start, final int number, final String serial) {
+        return dispatch(MethodClass.READ, "CollectionIfModified", new Callable<Pair<List<String>, String>>() {
+            @Override
+            public Pair<List<String>, String> call() {
+                return delegate.CollectionIfModified(id, filter, start, number, serial);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.freedesktop.dbus.Variant;
+import org.ow2.erocci.backend.Quintuple;
+import org.ow2.erocci.backend.Septuple;
+import org.ow2.erocci.model.ConfigurationManager;
+import org.ow2.erocci.model.EntityView;
+
+/**
+ * D-Bus structures returned by Get and Action, built once per published
+ * entity view. A view is replaced each time its entity changes (new entity
+ * version or new snapshot version), and the projection of an entity is
+ * rebuilt when its view or its last action job status has changed. An
+ * unchanged entity is thus served without copying or converting anything.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class EntityProjections {
+
+    /**
+     * Last projection by entity id.
+     */
+    private final ConcurrentMap<String, Projection> projections = new ConcurrentHashMap<>();
+
+    /**
+     * @param owner entity owner.
+     * @param view last published view of the entity.
+     * @param job last action job of the entity, null if none.
+     * @return the projection of this view and job status.
+     */
+    public Projection get(final String owner, final EntityView view, final ActionEngine.Job job) {
+        String jobStatus = job == null ? null : job.getStatus();
+        Projection projection = projections.get(view.getId());
+        if (projection != null && projection.isOf(owner, view, job, jobStatus)) {
+            return projection;
+        }
+        projection = new Projection(owner, view, job, jobStatus);
+        projections.put(view.getId(), projection);
+        return projection;
+    }
+
+    /**
+     * Forget the projection of a deleted entity.
+     *
+     * @param id entity id.
+     */
+    public void invalidate(final String id) {
+        projections.remove(id);
+    }
+
+    public void clear() {
+        projections.clear();
+    }
+
+    /**
+     * Get and Action structures of an entity view, not to be modified.
+     */
+    public static class Projection {
+
+        private final String owner;
+
+        private final EntityView view;
+
+        private final ActionEngine.Job job;
+
+        private final String jobStatus;
+
+        private final Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> septuple;
+
+        private final Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> quintuple;
+
+        Projection(final String owner, final EntityView view, final ActionEngine.Job job, final String jobStatus) {
+            this.owner = owner;
+            this.view = view;
+            this.job = job;
+            this.jobStatus = jobStatus;
+
+            Map<String, String> attrs = new HashMap<>(view.getAttributes());
+            long viewSerial = view.getSerial();
+            if (job != null) {
+                Map<String, String> jobAttributes = job.getAttributes(jobStatus);
+                attrs.putAll(jobAttributes);
+                viewSerial = Utils.createSerial(viewSerial, jobAttributes.hashCode());
+            }
+            Map<String, Variant> attributes = Collections.unmodifiableMap(Utils.convertStringMapToVariant(attrs));
+            String serial = String.valueOf(viewSerial);
+            this.septuple = new Septuple<>(view.getKind(), view.getMixins(), attributes, view.getLinks(), owner,
+                    ConfigurationManager.DEFAULT_OWNER, serial);
+            this.quintuple = new Quintuple<>(view.getKind(), view.getMixins(), attributes, view.getLinks(), serial);
+        }
+
+        boolean isOf(final String owner, final EntityView view, final ActionEngine.Job job, final String jobStatus) {
+            return this.view == view && this.job == job && this.owner.equals(owner)
+                    && (jobStatus == null ? this.jobStatus == null : jobStatus.equals(this.jobStatus));
+        }
+
+        /**
+         * @return the structure returned by Get.
+         */
+        public Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> getSeptuple() {
+            return septuple;
+        }
+
+        /**
+         * @return the structure returned by Action.
+         */
+        public Quintuple<String, List<String>, Map<String, Variant>, List<String>, String> getQuintuple() {
+            return quintuple;
+        }
+    }
+
+}
@@ -0,0 +1,406 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.occiware.clouddesigner.occi.Entity;
+import org.ow2.erocci.backend.BackendOptions;
+import org.ow2.erocci.backend.Timeout;
+import org.ow2.erocci.model.ConfigurationManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes the entities from their connector in the background, so that Get
+ * serves the entities from memory. Each round walks the entities of all
+ * owners by kind and retrieves them in parallel batches, at most
+ * erocci.refresh.rate retrieves per second for a kind. A retrieve runs on a
+ * copy of its entity without the owner lock, only its changes are applied on
+ * the owner's writer (see ConnectorExecutor), so the retrieves of one owner
+ * run in parallel too. The entities read recently come first, then the
+ * entities refreshed the longest ago; the entities beyond the budget of a
+ * round (rate x interval) wait for the next rounds. Rounds are separated by the refresh interval with a random jitter,
+ * so that the connectors are not called in lockstep.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class EntityRefresher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityRefresher.class);
+
+    public static final int DEFAULT_INTERVAL_MILLIS = 0;
+
+    public static final int DEFAULT_BATCH_SIZE = 8;
+
+    public static final int DEFAULT_RATE = 20;
+
+    public static final int DEFAULT_JITTER_PERCENT = 20;
+
+    public static final int DEFAULT_HOT_MILLIS = 60000;
+
+    private final ConnectorExecutor connectors;
+
+    private final RetrieveCache retrieveCache;
+
+    private final long intervalMillis;
+
+    private final int batchSize;
+
+    private final int jitterPercent;
+
+    private final long hotNanos;
+
+    /**
+     * Schedules the rounds, null when refreshing is disabled.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Retrieves the entities of a batch in parallel.
+     */
+    private final ExecutorService batchWorkers;
+
+    /**
+     * Last Get (System.nanoTime()) by entity id.
+     */
+    private final ConcurrentMap<String, Long> lastReads = new ConcurrentHashMap<>();
+
+    /**
+     * Last refresh (System.nanoTime()) by entity id.
+     */
+    private final ConcurrentMap<String, Long> lastRefreshes = new ConcurrentHashMap<>();
+
+    /**
+     * Settings read from the backend options (java system properties, as
+     * the refresher is created before Init). The rates by kind are read on
+     * each round.
+     *
+     * @param connectors runs the connector retrieves.
+     * @param retrieveCache marks the refreshed entities as fresh for Update.
+     */
+    public EntityRefresher(final ConnectorExecutor connectors, final RetrieveCache retrieveCache) {
+        this.connectors = connectors;
+        this.retrieveCache = retrieveCache;
+        this.intervalMillis = BackendOptions.getInt(BackendOptions.REFRESH_INTERVAL, DEFAULT_INTERVAL_MILLIS);
+        this.batchSize = Math.max(1, BackendOptions.getInt(BackendOptions.REFRESH_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        this.jitterPercent = Math.min(100, Math.max(0, BackendOptions.getInt(BackendOptions.REFRESH_JITTER,
+                DEFAULT_JITTER_PERCENT)));
+        this.hotNanos = TimeUnit.MILLISECONDS.toNanos(BackendOptions.getInt(BackendOptions.REFRESH_HOT_MILLIS,
+                DEFAULT_HOT_MILLIS));
+        if (intervalMillis > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(newThreadFactory("erocci-refresher"));
+            this.batchWorkers = Executors.newFixedThreadPool(batchSize, newThreadFactory("erocci-refresh-"));
+        } else {
+            this.scheduler = null;
+            this.batchWorkers = null;
+        }
+    }
+
+    /**
+     * @return true if the entities are refreshed in the background, Get then
+     * does not call their connector.
+     */
+    public boolean isEnabled() {
+        return scheduler != null;
+    }
+
+    /**
+     * Schedule the first round, if refreshing is enabled.
+     */
+    public void start() {
+        if (isEnabled()) {
+            LOGGER.info("Entities refreshed every " + intervalMillis + " ms (+/- " + jitterPercent + "%), by batches of "
+                    + batchSize);
+            scheduleRound();
+        }
+    }
+
+    /**
+     * Record a Get of an entity, it is refreshed before the others.
+     *
+     * @param id entity id.
+     */
+    public void read(final String id) {
+        if (isEnabled()) {
+            lastReads.put(id, System.nanoTime());
+        }
+    }
+
+    /**
+     * Forget a deleted entity.
+     *
+     * @param id entity id.
+     */
+    public void forget(final String id) {
+        lastReads.remove(id);
+        lastRefreshes.remove(id);
+    }
+
+    public void clear() {
+        lastReads.clear();
+        lastRefreshes.clear();
+    }
+
+    private void scheduleRound() {
+        long jitter = intervalMillis * jitterPercent / 100;
+        long delay = intervalMillis;
+        if (jitter > 0) {
+            delay += ThreadLocalRandom.current().nextLong(-jitter, jitter + 1);
+        }
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refreshRound();
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Entity refresh round failed : " + ex.getMessage());
+                } finally {
+                    scheduleRound();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refresh the entities by kind, in priority order, paced by the rate of
+     * their kind.
+     */
+    private void refreshRound() {
+        final long now = System.nanoTime();
+        Map<String, List<Target>> targetsByKind = findTargets();
+
+        RefreshSchedule<Target> schedule = new RefreshSchedule<>(batchSize);
+        for (Map.Entry<String, List<Target>> entry : targetsByKind.entrySet()) {
+            String kindTerm = entry.getKey();
+            double rate = getRate(kindTerm);
+            if (rate <= 0) {
+                continue;
+            }
+            List<Target> targets = entry.getValue();
+            Collections.sort(targets, getPriorityOrder(now, hotNanos));
+            int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, rate * intervalMillis / 1000));
+            schedule.add(kindTerm, rate, targets.subList(0, Math.min(budget, targets.size())));
+        }
+
+        while (!schedule.isEmpty()) {
+            List<Target> batch = schedule.nextBatch(System.nanoTime());
+            if (batch.isEmpty()) {
+                sleep(schedule.getWaitNanos(System.nanoTime()));
+            } else {
+                runBatch(batch);
+            }
+        }
+    }
+
+    /**
+     * @return the entities of all owners by kind term, the ids no longer on
+     * a configuration are forgotten.
+     */
+    private Map<String, List<Target>> findTargets() {
+        Map<String, List<Target>> targetsByKind = new LinkedHashMap<>();
+        Set<String> ids = new HashSet<>();
+        for (final String owner : ConfigurationManager.getOwners()) {
+            List<Entity> entities = ConfigurationManager.getOwnerExecutor(owner).read(new Callable<List<Entity>>() {
+                @Override
+                public List<Entity> call() {
+                    return ConfigurationManager.findAllEntitiesOwner(owner);
+                }
+            });
+            for (Entity entity : entities) {
+                String kindTerm = entity.getKind() == null ? "" : entity.getKind().getTerm();
+                List<Target> targets = targetsByKind.get(kindTerm);
+                if (targets == null) {
+                    targets = new ArrayList<>();
+                    targetsByKind.put(kindTerm, targets);
+                }
+                targets.add(new Target(owner, entity, lastReads.get(entity.getId()),
+                        lastRefreshes.get(entity.getId())));
+                ids.add(entity.getId());
+            }
+        }
+        lastReads.keySet().retainAll(ids);
+        lastRefreshes.keySet().retainAll(ids);
+        return targetsByKind;
+    }
+
+    /**
+     * Entities read less than hotNanos ago first, the most recently read
+     * first, then the entities refreshed the longest ago (never refreshed
+     * first).
+     *
+     * @param now start of the round (System.nanoTime()).
+     * @param hotNanos erocci.refresh.hotMillis, in nanoseconds.
+     * @return the refresh order of the entities of a kind.
+     */
+    public static Comparator<Target> getPriorityOrder(final long now, final long hotNanos) {
+        return new Comparator<Target>() {
+            @Override
+            public int compare(final Target t1, final Target t2) {
+                Long read1 = t1.lastRead;
+                Long read2 = t2.lastRead;
+                boolean hot1 = read1 != null && now - read1 < hotNanos;
+                boolean hot2 = read2 != null && now - read2 < hotNanos;
+                if (hot1 != hot2) {
+                    return hot1 ? -1 : 1;
+                }
+                if (hot1) {
+                    return Long.compare(read2 - now, read1 - now);
+                }
+                Long refresh1 = t1.lastRefresh;
+                Long refresh2 = t2.lastRefresh;
+                if (refresh1 == null || refresh2 == null) {
+                    return refresh1 == null ? (refresh2 == null ? 0 : -1) : 1;
+                }
+                return Long.compare(refresh1 - now, refresh2 - now);
+            }
+        };
+    }
+
+    /**
+     * Retrieve the entities of a batch in parallel and wait for them.
+     */
+    private void runBatch(final List<Target> batch) {
+        List<Future<Void>> futures = new ArrayList<>(batch.size());
+        for (final Target target : batch) {
+            futures.add(batchWorkers.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    refresh(target.owner, target.entity);
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException ex) {
+                LOGGER.error("Entity refresh failed : " + ex.getCause().getMessage());
+            }
+        }
+    }
+
+    /**
+     * Retrieve an entity as Get does: the connector retrieves a copy of the
+     * entity off the owner's writer, then its changes are applied, indexed
+     * and published on the writer. A late connector call is applied when it
+     * ends (see ConnectorExecutor).
+     */
+    private void refresh(final String owner, final Entity entity) {
+        try {
+            boolean found = ConfigurationManager.getOwnerExecutor(owner).read(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return ConfigurationManager.findEntity(owner, entity.getId()) == entity;
+                }
+            });
+            if (!found) {
+                // Deleted since the round started.
+                return;
+            }
+            connectors.retrieve(owner, entity);
+        } catch (Timeout ex) {
+            LOGGER.warn(ex.getMessage() + ", entity not refreshed");
+            return;
+        } catch (RuntimeException ex) {
+            LOGGER.error("Cannot refresh entity " + entity.getId() + " : " + ex.getMessage());
+            return;
+        }
+        retrieveCache.retrieved(entity.getId(), entity.getKind() == null ? null : entity.getKind().getTerm());
+        lastRefreshes.put(entity.getId(), System.nanoTime());
+    }
+
+    /**
+     * @return erocci.refresh.rate.[kind term] if set, else
+     * erocci.refresh.rate, in retrieves per second.
+     */
+    private static double getRate(final String kindTerm) {
+        int rate = BackendOptions.getInt(BackendOptions.REFRESH_RATE, DEFAULT_RATE);
+        return BackendOptions.getInt(BackendOptions.REFRESH_RATE + "." + kindTerm, rate);
+    }
+
+    private static void sleep(final long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the refresh rate", ex);
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, name.endsWith("-") ? name + threadNumber.incrementAndGet() : name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * An entity to refresh, its owner and its last read and refresh times
+     * when the round started (null if none).
+     */
+    public static class Target {
+
+        private final String owner;
+
+        private final Entity entity;
+
+        private final Long lastRead;
+
+        private final Long lastRefresh;
+
+        /**
+         * @param owner
+         * @param entity
+         * @param lastRead last Get (System.nanoTime()), null if none.
+         * @param lastRefresh last refresh (System.nanoTime()), null if none.
+         */
+        public Target(final String owner, final Entity entity, final Long lastRead, final Long lastRefresh) {
+            this.owner = owner;
+            this.entity = entity;
+            this.lastRead = lastRead;
+            this.lastRefresh = lastRefresh;
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches of a background refresh round (see EntityRefresher): the entities
+ * of each kind are taken in their queue order, a kind gives its next entities
+ * once the previous ones are paced at the rate of the kind. A batch takes the
+ * entities of the kinds which are not waiting, up to the batch size.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class RefreshSchedule<T> {
+
+    private final int batchSize;
+
+    private final Map<String, Deque<T>> queues = new LinkedHashMap<>();
+
+    /**
+     * Retrieves per second by kind term.
+     */
+    private final Map<String, Double> rates = new LinkedHashMap<>();
+
+    /**
+     * Next batch start (System.nanoTime()) by kind term.
+     */
+    private final Map<String, Long> nextStarts = new LinkedHashMap<>();
+
+    /**
+     * @param batchSize maximum number of entities of a batch.
+     */
+    public RefreshSchedule(final int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @param kindTerm
+     * @param rate retrieves per second of this kind, greater than 0.
+     * @param targets entities of this kind, in refresh order.
+     */
+    public void add(final String kindTerm, final double rate, final List<T> targets) {
+        if (!targets.isEmpty()) {
+            queues.put(kindTerm, new ArrayDeque<>(targets));
+            rates.put(kindTerm, rate);
+        }
+    }
+
+    /**
+     * @return true when all the entities have been given to a batch.
+     */
+    public boolean isEmpty() {
+        return queues.isEmpty();
+    }
+
+    /**
+     * @param time current time (System.nanoTime()).
+     * @return the entities to refresh now, empty if all the kinds wait for
+     * their rate (see getWaitNanos).
+     */
+    public List<T> nextBatch(final long time) {
+        List<T> batch = new ArrayList<>(batchSize);
+        Iterator<Map.Entry<String, Deque<T>>> it = queues.entrySet().iterator();
+        while (it.hasNext() && batch.size() < batchSize) {
+            Map.Entry<String, Deque<T>> entry = it.next();
+            String kindTerm = entry.getKey();
+            Long nextStart = nextStarts.get(kindTerm);
+            if (nextStart != null && nextStart - time > 0) {
+                continue;
+            }
+            Deque<T> queue = entry.getValue();
+            int count = 0;
+            while (!queue.isEmpty() && batch.size() < batchSize) {
+                batch.add(queue.poll());
+                count++;
+            }
+            long start = nextStart == null ? time : Math.max(nextStart, time);
+            nextStarts.put(kindTerm, start + (long) (count * TimeUnit.SECONDS.toNanos(1) / rates.get(kindTerm)));
+            if (queue.isEmpty()) {
+                it.remove();
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @param time current time (System.nanoTime()).
+     * @return the time in nanoseconds until a kind can give its next
+     * entities, 0 if one can now.
+     */
+    public long getWaitNanos(final long time) {
+        long wait = Long.MAX_VALUE;
+        for (String kindTerm : queues.keySet()) {
+            Long nextStart = nextStarts.get(kindTerm);
+            if (nextStart == null || nextStart - time <= 0) {
+                return 0;
+            }
+            wait = Math.min(wait, nextStart - time);
+        }
+        return queues.isEmpty() ? 0 : wait;
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ow2.erocci.backend.BackendOptions;
+
+/**
+ * Remembers when the entities were last retrieved from their connector. An
+ * entity retrieved less than the retrieve TTL of its kind ago is fresh, Get
+ * and Update then use its current state without calling the connector. The
+ * entities changed by Update, Action, Mixin, Unmixin or Delete are
+ * invalidated. The least recently used entities are evicted beyond the
+ * cache size.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class RetrieveCache {
+
+    public static final int DEFAULT_TTL_MILLIS = 1000;
+
+    public static final int DEFAULT_SIZE = 10000;
+
+    /**
+     * Expiry time (System.nanoTime()) of the retrieved entities by id, least
+     * recently used first.
+     */
+    private final Map<String, Long> expiries;
+
+    /**
+     * @param size maximum number of entities.
+     */
+    public RetrieveCache(final int size) {
+        final int maxSize = Math.max(1, size);
+        this.expiries = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param id entity id.
+     * @return true if the entity has been retrieved less than its TTL ago.
+     */
+    public boolean isFresh(final String id) {
+        Long expiry;
+        synchronized (expiries) {
+            expiry = expiries.get(id);
+        }
+        return expiry != null && System.nanoTime() - expiry < 0;
+    }
+
+    /**
+     * Record a successful retrieve of an entity.
+     *
+     * @param id entity id.
+     * @param kindTerm term of the entity kind, selects the TTL.
+     */
+    public void retrieved(final String id, final String kindTerm) {
+        long ttl = getTtlMillis(kindTerm);
+        if (ttl <= 0) {
+            return;
+        }
+        long expiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttl);
+        synchronized (expiries) {
+            expiries.put(id, expiry);
+        }
+    }
+
+    /**
+     * The next Get or Update of this entity calls its connector.
+     *
+     * @param id entity id.
+     */
+    public void invalidate(final String id) {
+        synchronized (expiries) {
+            expiries.remove(id);
+        }
+    }
+
+    public void clear() {
+        synchronized (expiries) {
+            expiries.clear();
+        }
+    }
+
+    /**
+     * @param kindTerm
+     * @return erocci.retrieve.ttl.[kind term] if set, else erocci.retrieve.ttl.
+     */
+    private static long getTtlMillis(final String kindTerm) {
+        int ttl = BackendOptions.getInt(BackendOptions.RETRIEVE_TTL, DEFAULT_TTL_MILLIS);
+        if (kindTerm == null) {
+            return ttl;
+        }
+        return BackendOptions.getInt(BackendOptions.RETRIEVE_TTL + "." + kindTerm, ttl);
+    }
+
+}
@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.emf.common.util.EList;
 import org.freedesktop.dbus.UInt16;
 import org.freedesktop.dbus.UInt32;
@@ -584,10 +585,56 @@ public class Utils {
     }
     
     
-    private static int uniqueInt = 1;
+    /**
+     * Number of serials reserved at once by a thread.
+     */
+    private static final int SERIAL_RANGE_SIZE = 1024;
+
+    /**
+     * Number of the next range to reserve.
+     */
+    private static final AtomicLong nextSerialRange = new AtomicLong();
+
+    /**
+     * Serial range of the current thread : next serial, end of range
+     * (exclusive).
+     */
+    private static final ThreadLocal<int[]> serialRange = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[2];
+        }
+    };
 
-    public static synchronized int getUniqueInt() {
-        return uniqueInt++;
+    /**
+     * Unique positive serial number. Each thread takes its serials from its
+     * own range, only the reservation of a new range is shared, so serials are
+     * unique but not ordered between threads.
+     *
+     * @return a serial number.
+     */
+    public static int getUniqueInt() {
+        int[] range = serialRange.get();
+        if (range[0] >= range[1]) {
+            // Serials restart from 1 after Integer.MAX_VALUE.
+            long rangeNumber = nextSerialRange.getAndIncrement();
+            int start = 1 + (int) ((rangeNumber * SERIAL_RANGE_SIZE) % (Integer.MAX_VALUE - SERIAL_RANGE_SIZE));
+            range[0] = start;
+            range[1] = start + SERIAL_RANGE_SIZE;
+        }
+        return range[0]++;
+    }
+
+    /**
+     * Stable serial number derived from a previous serial (or a version) and
+     * a content hash, the same content always gives the same serial.
+     *
+     * @param seed previous serial or version.
+     * @param hash content hash.
+     * @return an unsigned 32 bits serial.
+     */
+    public static long createSerial(final long seed, final int hash) {
+        return (31 * seed + hash) & 0xFFFFFFFFL;
     }
 
 	
@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of attribute values: attribute name, then attribute value,
+ * then the entities having this value. Only the configured attribute names
+ * are indexed, attribute names are case insensitive as on collection
+ * filters. Entities are kept as bitmaps of their ordinals, so that several
+ * values can be intersected without walking the entities.
+ *
+ * @author Christophe Gourdin - Inria
+ * @param <E> type of the indexed entities.
+ */
+public class AttributeValueIndex<E> {
+
+    /**
+     * Indexed attribute names, lower case.
+     */
+    private final Set<String> indexedNames = new HashSet<>();
+
+    /**
+     * Key: attribute name (lower case), value: entities by attribute value.
+     */
+    private final Map<String, Map<String, EntityBitmap>> entitiesByValue = new HashMap<>();
+
+    /**
+     * Key: attribute name (lower case), value: entities with a value for this
+     * attribute.
+     */
+    private final Map<String, EntityBitmap> entitiesByName = new HashMap<>();
+
+    /**
+     * Entity ordinals, shared with the other owner's indexes.
+     */
+    private final EntityOrdinals<E> ordinals;
+
+    /**
+     * Indexed values of each entity, key: attribute name (lower case).
+     */
+    private final Map<E, Map<String, String>> valuesByEntity = new HashMap<>();
+
+    /**
+     * Build an index on these attribute names.
+     *
+     * @param attributeNames
+     * @param ordinals entity ordinals, released by the caller after the
+     * entities are removed from this index.
+     */
+    public AttributeValueIndex(final Collection<String> attributeNames, final EntityOrdinals<E> ordinals) {
+        this.ordinals = ordinals;
+        for (String name : attributeNames) {
+            indexedNames.add(name.toLowerCase());
+        }
+    }
+
+    /**
+     * @param attributeName
+     * @return true if this attribute is indexed.
+     */
+    public boolean isIndexed(final String attributeName) {
+        return attributeName != null && indexedNames.contains(attributeName.toLowerCase());
+    }
+
+    /**
+     * @return true if no attributes are indexed.
+     */
+    public boolean isEmpty() {
+        return indexedNames.isEmpty();
+    }
+
+    /**
+     * Reference the current attribute values of an entity, replacing the
+     * previously referenced values.
+     *
+     * @param entity
+     * @param attributes (key: attribute name, value: attribute value).
+     */
+    public void update(final E entity, final Map<String, String> attributes) {
+        if (indexedNames.isEmpty()) {
+            return;
+        }
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            String name = entry.getKey() == null ? null : entry.getKey().toLowerCase();
+            if (name != null && entry.getValue() != null && indexedNames.contains(name)) {
+                values.put(name, entry.getValue());
+            }
+        }
+        Map<String, String> previousValues = valuesByEntity.get(entity);
+        if (values.equals(previousValues)) {
+            return;
+        }
+        remove(entity);
+        int ordinal = ordinals.acquire(entity);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            Map<String, EntityBitmap> entities = entitiesByValue.get(entry.getKey());
+            if (entities == null) {
+                entities = new HashMap<>();
+                entitiesByValue.put(entry.getKey(), entities);
+            }
+            EntityBitmap valueEntities = entities.get(entry.getValue());
+            if (valueEntities == null) {
+                valueEntities = new EntityBitmap();
+                entities.put(entry.getValue(), valueEntities);
+            }
+            valueEntities.add(ordinal);
+            EntityBitmap nameEntities = entitiesByName.get(entry.getKey());
+            if (nameEntities == null) {
+                nameEntities = new EntityBitmap();
+                entitiesByName.put(entry.getKey(), nameEntities);
+            }
+            nameEntities.add(ordinal);
+        }
+        valuesByEntity.put(entity, values);
+    }
+
+    /**
+     * Unreference an entity.
+     *
+     * @param entity
+     */
+    public void remove(final E entity) {
+        Map<String, String> values = valuesByEntity.remove(entity);
+        if (values == null) {
+            return;
+        }
+        int ordinal = ordinals.getOrdinal(entity);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            EntityBitmap nameEntities = entitiesByName.get(entry.getKey());
+            if (nameEntities != null) {
+                nameEntities.remove(ordinal);
+                if (nameEntities.isEmpty()) {
+                    entitiesByName.remove(entry.getKey());
+                }
+            }
+            Map<String, EntityBitmap> entities = entitiesByValue.get(entry.getKey());
+            if (entities == null) {
+                continue;
+            }
+            EntityBitmap valueEntities = entities.get(entry.getValue());
+            if (valueEntities != null) {
+                valueEntities.remove(ordinal);
+                if (valueEntities.isEmpty()) {
+                    entities.remove(entry.getValue());
+                }
+            }
+            if (entities.isEmpty()) {
+                entitiesByValue.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * @param attributeName
+     * @param value
+     * @return entities with this attribute value, never null.
+     */
+    public Set<E> getEntities(final String attributeName, final String value) {
+        return ordinals.asSet(getBitmap(attributeName, value));
+    }
+
+    /**
+     * @param attributeName
+     * @return entities with a value for this attribute, whatever the value,
+     * never null.
+     */
+    public Set<E> getEntitiesWithAttribute(final String attributeName) {
+        return ordinals.asSet(getBitmapWithAttribute(attributeName));
+    }
+
+    /**
+     * @param attributeName
+     * @param value
+     * @return ordinals of the entities with this attribute value, null if
+     * none. The bitmap must not be modified.
+     */
+    public EntityBitmap getBitmap(final String attributeName, final String value) {
+        Map<String, EntityBitmap> entities = attributeName == null ? null : entitiesByValue.get(attributeName.toLowerCase());
+        if (entities == null || value == null) {
+            return null;
+        }
+        return entities.get(value);
+    }
+
+    /**
+     * @param attributeName
+     * @return ordinals of the entities with a value for this attribute, null
+     * if none. The bitmap must not be modified.
+     */
+    public EntityBitmap getBitmapWithAttribute(final String attributeName) {
+        return attributeName == null ? null : entitiesByName.get(attributeName.toLowerCase());
+    }
+
+    /**
+     * Remove all references.
+     */
+    public void clear() {
+        entitiesByValue.clear();
+        entitiesByName.clear();
+        valuesByEntity.clear();
+    }
+
+}
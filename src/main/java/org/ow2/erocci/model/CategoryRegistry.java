@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.occiware.clouddesigner.occi.Action;
+import org.occiware.clouddesigner.occi.Extension;
+import org.occiware.clouddesigner.occi.Kind;
+import org.occiware.clouddesigner.occi.Mixin;
+import org.occiware.clouddesigner.occi.OCCIRegistry;
+import org.occiware.clouddesigner.occi.util.OcciHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Kinds, mixins and actions of the extension models by category id (scheme +
+ * term), with the extension defining them. Built once from the extensions
+ * registered on OCCIRegistry, so that category resolution doesnt walk the
+ * extension models on each request.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class CategoryRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CategoryRegistry.class);
+
+    private static final CategoryRegistry INSTANCE = new CategoryRegistry();
+
+    private final Map<String, Kind> kinds = new ConcurrentHashMap<>();
+    private final Map<String, Mixin> mixins = new ConcurrentHashMap<>();
+    private final Map<String, Action> actions = new ConcurrentHashMap<>();
+
+    /**
+     * Extension defining a category, key: kind, mixin or action id.
+     */
+    private final Map<String, Extension> extensionsByCategory = new ConcurrentHashMap<>();
+
+    /**
+     * Loaded extensions by scheme.
+     */
+    private final Map<String, Extension> extensionsByScheme = new ConcurrentHashMap<>();
+
+    /**
+     * Extension objects already indexed.
+     */
+    private final Set<Extension> registeredExtensions = Collections.newSetFromMap(new IdentityHashMap<Extension, Boolean>());
+
+    private volatile boolean registryLoaded = false;
+
+    private CategoryRegistry() {
+    }
+
+    public static CategoryRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Load and index all extensions registered on OCCIRegistry, this is done
+     * once.
+     */
+    public void loadRegisteredExtensions() {
+        if (registryLoaded) {
+            return;
+        }
+        synchronized (this) {
+            if (registryLoaded) {
+                return;
+            }
+            // Copy, the registry collection must not be modified.
+            Collection<String> extReg = new ArrayList<>(OCCIRegistry.getInstance().getRegisteredExtensions());
+            for (String extScheme : extReg) {
+                loadExtension(extScheme);
+            }
+            registryLoaded = true;
+        }
+    }
+
+    /**
+     * Get a registered extension, load and index it if this is not already
+     * done.
+     *
+     * @param extScheme
+     * @return the extension, null if it cant be loaded.
+     */
+    public Extension loadExtension(final String extScheme) {
+        Extension ext = extensionsByScheme.get(extScheme);
+        if (ext != null) {
+            return ext;
+        }
+        synchronized (this) {
+            ext = extensionsByScheme.get(extScheme);
+            if (ext == null) {
+                ext = OcciHelper.loadExtension(extScheme);
+                if (ext != null) {
+                    extensionsByScheme.put(extScheme, ext);
+                    registerExtension(ext);
+                }
+            }
+        }
+        return ext;
+    }
+
+    /**
+     * Index the categories of an extension, if a category is already
+     * referenced by another extension, the first one is kept.
+     *
+     * @param ext
+     */
+    public void registerExtension(final Extension ext) {
+        if (ext == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!registeredExtensions.add(ext)) {
+                return;
+            }
+            for (Kind kind : ext.getKinds()) {
+                register(kinds, kind.getScheme() + kind.getTerm(), kind, ext);
+                for (Action action : kind.getActions()) {
+                    register(actions, action.getScheme() + action.getTerm(), action, ext);
+                }
+            }
+            for (Mixin mixin : ext.getMixins()) {
+                register(mixins, mixin.getScheme() + mixin.getTerm(), mixin, ext);
+                for (Action action : mixin.getActions()) {
+                    register(actions, action.getScheme() + action.getTerm(), action, ext);
+                }
+            }
+            LOGGER.info("Extension categories registered : " + ext.getName());
+        }
+    }
+
+    /**
+     * Index the categories of extensions not already registered.
+     *
+     * @param exts
+     */
+    public void registerExtensions(final Collection<Extension> exts) {
+        for (Extension ext : exts) {
+            registerExtension(ext);
+        }
+    }
+
+    /**
+     * @param kindId (scheme + term)
+     * @return the kind, null if not found on extensions.
+     */
+    public Kind getKind(final String kindId) {
+        return kindId == null ? null : kinds.get(kindId);
+    }
+
+    /**
+     * @param mixinId (scheme + term)
+     * @return the mixin, null if not found on extensions.
+     */
+    public Mixin getMixin(final String mixinId) {
+        return mixinId == null ? null : mixins.get(mixinId);
+    }
+
+    /**
+     * @param actionId (scheme + term)
+     * @return the action, null if not found on extensions.
+     */
+    public Action getAction(final String actionId) {
+        return actionId == null ? null : actions.get(actionId);
+    }
+
+    /**
+     * @param categoryId (kind, mixin or action scheme + term)
+     * @return the extension defining this category, null if not found.
+     */
+    public Extension getExtension(final String categoryId) {
+        return categoryId == null ? null : extensionsByCategory.get(categoryId);
+    }
+
+    private <C> void register(final Map<String, C> categories, final String categoryId, final C category, final Extension ext) {
+        if (!categories.containsKey(categoryId)) {
+            categories.put(categoryId, category);
+            extensionsByCategory.put(categoryId, ext);
+        }
+    }
+
+}
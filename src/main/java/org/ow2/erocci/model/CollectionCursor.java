@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.List;
+
+import org.ow2.erocci.backend.impl.CollectionFilter;
+
+/**
+ * Position reached by a collection query: the id of the last returned entity
+ * and the index of the next record. A query for the next page resumes after
+ * this id instead of skipping the previous records. Collections are ordered
+ * by entity id so the position stays valid when entities are added or
+ * removed.
+ *
+ * A cursor may also pin the whole result of the query as computed for its
+ * first page: the next pages are then read from this result, whatever the
+ * changes made on the configuration since. A follow-up page is matched by its
+ * query and its start index only (start of the previous page plus its
+ * number), so a pinned result is served for a bounded time and a bounded
+ * number of view publications, and unpinned when an entity is deleted. A
+ * pinned result only holds entity locations, it is not a versioned snapshot
+ * of the configuration.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class CollectionCursor {
+
+    /**
+     * Collection id and filters of the query.
+     */
+    private final String queryKey;
+
+    /**
+     * Index of the next record (starts at 1).
+     */
+    private final int nextIndex;
+
+    /**
+     * Id of the last returned entity.
+     */
+    private final String lastEntityId;
+
+    /**
+     * Locations of the pinned result, null if the result is not pinned.
+     */
+    private final List<String> pinnedLocations;
+
+    /**
+     * Index of the first pinned location.
+     */
+    private final int pinnedStartIndex;
+
+    /**
+     * Snapshot version of the views of all owners when the result was pinned.
+     */
+    private final long snapshotVersion;
+
+    /**
+     * Time in milliseconds when the result was pinned.
+     */
+    private final long pinnedAt;
+
+    public CollectionCursor(final String queryKey, final int nextIndex, final String lastEntityId) {
+        this(queryKey, nextIndex, lastEntityId, null, 0, 0, 0);
+    }
+
+    /**
+     * Cursor on a pinned result.
+     *
+     * @param queryKey
+     * @param nextIndex
+     * @param lastEntityId
+     * @param pinnedLocations unmodifiable locations of the result, shared by
+     * the cursors of the query.
+     * @param pinnedStartIndex index of the first pinned location.
+     * @param snapshotVersion (see ConfigurationManager.getSnapshotVersion())
+     * @param pinnedAt time in milliseconds when the result was pinned.
+     */
+    public CollectionCursor(final String queryKey, final int nextIndex, final String lastEntityId,
+            final List<String> pinnedLocations, final int pinnedStartIndex, final long snapshotVersion,
+            final long pinnedAt) {
+        this.queryKey = queryKey;
+        this.nextIndex = nextIndex;
+        this.lastEntityId = lastEntityId;
+        this.pinnedLocations = pinnedLocations;
+        this.pinnedStartIndex = pinnedStartIndex;
+        this.snapshotVersion = snapshotVersion;
+        this.pinnedAt = pinnedAt;
+    }
+
+    /**
+     * @param now current time in milliseconds.
+     * @param currentSnapshotVersion current snapshot version of the views of
+     * all owners.
+     * @param ttl time in milliseconds a pinned result is served.
+     * @param maxLag number of view publications a pinned result is served
+     * after.
+     * @return true if the result is pinned and may still be served.
+     */
+    public boolean isPinnedValid(final long now, final long currentSnapshotVersion, final long ttl, final long maxLag) {
+        if (pinnedLocations == null || now - pinnedAt > ttl) {
+            return false;
+        }
+        long lag = currentSnapshotVersion - snapshotVersion;
+        return lag >= 0 && lag <= maxLag;
+    }
+
+    /**
+     * @return this position without the pinned result.
+     */
+    public CollectionCursor unpin() {
+        return new CollectionCursor(queryKey, nextIndex, lastEntityId);
+    }
+
+    /**
+     * Build the key identifying a collection query, whatever the page. A
+     * collection lists the entities of all owners.
+     *
+     * @param id collection id (category id or path).
+     * @param filters
+     * @return a query key.
+     */
+    public static String getQueryKey(final String id, final List<CollectionFilter> filters) {
+        StringBuilder key = new StringBuilder();
+        key.append(id);
+        for (CollectionFilter filter : filters) {
+            key.append('|').append(filter.getOperator())
+                    .append(':').append(filter.getAttributeFilter())
+                    .append('=').append(filter.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return key used to find this cursor: query key and next index.
+     */
+    public String getCursorKey() {
+        return getCursorKey(queryKey, nextIndex);
+    }
+
+    /**
+     * @param queryKey
+     * @param startIndex
+     * @return key of the cursor for a query starting at this index.
+     */
+    public static String getCursorKey(final String queryKey, final int startIndex) {
+        return queryKey + '#' + startIndex;
+    }
+
+    public String getQueryKey() {
+        return queryKey;
+    }
+
+    public int getNextIndex() {
+        return nextIndex;
+    }
+
+    public String getLastEntityId() {
+        return lastEntityId;
+    }
+
+    public boolean isPinned() {
+        return pinnedLocations != null;
+    }
+
+    public List<String> getPinnedLocations() {
+        return pinnedLocations;
+    }
+
+    public int getPinnedStartIndex() {
+        return pinnedStartIndex;
+    }
+
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+
+    public long getPinnedAt() {
+        return pinnedAt;
+    }
+
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.occiware.clouddesigner.occi.Entity;
+import org.ow2.erocci.backend.impl.CollectionFilter;
+import org.ow2.erocci.backend.impl.CollectionFilterPredicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluation plan of a collection query. The access paths of the query (the
+ * collection itself, kind and mixins pseudo filters, indexed attribute
+ * filters) are compared by the number of entities they would read to fill
+ * the requested page: the cheapest one drives the iteration, the others are
+ * membership checks, and the filters
+ * not resolved by an index are checked on entity attributes. Access paths
+ * kept as bitmaps (categories, attribute values) are first intersected into
+ * one access path.
+ *
+ * Pseudo filters: an EQUAL filter on "kind" or "mixins" with a category id
+ * (scheme + term) selects the entities of this category.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class CollectionQueryPlan {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CollectionQueryPlan.class);
+
+    /**
+     * Weight of the sort needed by an unsorted driving access path, its cost
+     * is size * (1 + log2(sorted entities) / SORT_COST_DIVISOR).
+     */
+    private static final double SORT_COST_DIVISOR = 4.0;
+
+    private final CollectionSource driver;
+
+    /**
+     * Membership checks, most selective first.
+     */
+    private final List<CollectionSource> checks;
+
+    private final CollectionFilterPredicate predicate;
+
+    private final int residualFilterCount;
+
+    private CollectionQueryPlan(final CollectionSource driver, final List<CollectionSource> checks,
+            final List<CollectionFilter> residualFilters) {
+        this.driver = driver;
+        this.checks = checks;
+        this.predicate = new CollectionFilterPredicate(residualFilters);
+        this.residualFilterCount = residualFilters.size();
+    }
+
+    /**
+     * Build the plan of a collection query reading all its entities.
+     *
+     * @param index owner's index.
+     * @param collection entities of the collection (path or category).
+     * @param filters
+     * @return a query plan.
+     */
+    public static CollectionQueryPlan create(final ConfigurationIndex index, final CollectionSource collection,
+            final List<CollectionFilter> filters) {
+        return create(index, collection, filters, -1);
+    }
+
+    /**
+     * Build the plan of a collection query.
+     *
+     * @param index owner's index.
+     * @param collection entities of the collection (path or category).
+     * @param filters
+     * @param wanted number of matching entities to read (skipped ones
+     * included), -1 for all.
+     * @return a query plan.
+     */
+    public static CollectionQueryPlan create(final ConfigurationIndex index, final CollectionSource collection,
+            final List<CollectionFilter> filters, final int wanted) {
+        // Exact access paths, each returned entity is on all of them.
+        List<CollectionSource> accessPaths = new ArrayList<>();
+        accessPaths.add(collection);
+        // LIKE access paths are supersets, only used to drive.
+        List<CollectionSource> likePaths = new ArrayList<>();
+        List<CollectionFilter> residualFilters = new ArrayList<>();
+
+        for (CollectionFilter filter : filters) {
+            String attributeName = filter.getAttributeFilter();
+            int operator = filter.getOperator();
+            if (operator == CollectionFilter.OPERATOR_EQUAL && filter.getValue() != null
+                    && (OcciConstants.ATTRIBUTE_KIND.equalsIgnoreCase(attributeName)
+                    || OcciConstants.ATTRIBUTE_MIXINS.equalsIgnoreCase(attributeName))) {
+                accessPaths.add(index.getCategorySource(filter.getValue()));
+                continue;
+            }
+            if (operator == CollectionFilter.OPERATOR_EQUAL && index.isAttributeIndexed(attributeName)) {
+                accessPaths.add(index.getAttributeValueSource(attributeName, filter.getValue()));
+                continue;
+            }
+            if (filter.isNumericOperator() && filter.getValue() != null && index.isAttributeNumericIndexed(attributeName)) {
+                accessPaths.add(index.getNumericRangeSource(attributeName, filter.getMinValue(), filter.isMinInclusive(),
+                        filter.getMaxValue(), filter.isMaxInclusive()));
+                continue;
+            }
+            if (operator == CollectionFilter.OPERATOR_LIKE && index.isAttributeLikeIndexed(attributeName)) {
+                CollectionSource likePath = index.getLikeSource(attributeName, filter.getValue());
+                if (likePath != null) {
+                    likePaths.add(likePath);
+                }
+            }
+            residualFilters.add(filter);
+        }
+        intersectBitmaps(index, accessPaths);
+
+        // Every result entity is on all exact access paths.
+        int resultEstimate = Integer.MAX_VALUE;
+        for (CollectionSource accessPath : accessPaths) {
+            resultEstimate = Math.min(resultEstimate, accessPath.size());
+        }
+
+        CollectionSource driver = null;
+        double driverCost = 0;
+        List<CollectionSource> candidates = new ArrayList<>(accessPaths);
+        candidates.addAll(likePaths);
+        for (CollectionSource accessPath : candidates) {
+            double cost = getCost(accessPath, wanted, resultEstimate);
+            if (driver == null || cost < driverCost) {
+                driver = accessPath;
+                driverCost = cost;
+            }
+        }
+
+        List<CollectionSource> checks = new ArrayList<>(accessPaths);
+        checks.remove(driver);
+        // The most selective checks reject entities first.
+        Collections.sort(checks, new Comparator<CollectionSource>() {
+            @Override
+            public int compare(final CollectionSource check1, final CollectionSource check2) {
+                return Integer.compare(check1.size(), check2.size());
+            }
+        });
+
+        CollectionQueryPlan plan = new CollectionQueryPlan(driver, checks, residualFilters);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Collection plan : " + plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Replace the access paths having a bitmap by their intersection.
+     *
+     * @param index
+     * @param accessPaths exact access paths.
+     */
+    private static void intersectBitmaps(final ConfigurationIndex index, final List<CollectionSource> accessPaths) {
+        List<CollectionSource> bitmapPaths = new ArrayList<>();
+        for (CollectionSource accessPath : accessPaths) {
+            if (accessPath.getBitmap() != null) {
+                bitmapPaths.add(accessPath);
+            }
+        }
+        if (bitmapPaths.size() < 2) {
+            return;
+        }
+        // Smallest first, the intersection only shrinks.
+        Collections.sort(bitmapPaths, new Comparator<CollectionSource>() {
+            @Override
+            public int compare(final CollectionSource path1, final CollectionSource path2) {
+                return Integer.compare(path1.size(), path2.size());
+            }
+        });
+        EntityBitmap bitmap = null;
+        StringBuilder description = new StringBuilder("and(");
+        for (CollectionSource bitmapPath : bitmapPaths) {
+            bitmap = bitmap == null ? bitmapPath.getBitmap() : bitmap.and(bitmapPath.getBitmap());
+            description.append(bitmapPath).append(bitmapPath == bitmapPaths.get(bitmapPaths.size() - 1) ? ")" : ", ");
+        }
+        accessPaths.removeAll(bitmapPaths);
+        accessPaths.add(index.getBitmapSource(description.toString(), bitmap));
+    }
+
+    /**
+     * Run the plan.
+     *
+     * @param startIndex index of the first record (starts at 1).
+     * @param number maximal number of entities, -1 for infinite.
+     * @param afterId resume after this entity id, null to start from the
+     * first entity.
+     * @return entities ordered by entity id.
+     */
+    public List<Entity> execute(final int startIndex, final int number, final String afterId) {
+        List<Entity> entities = new ArrayList<>(number > 0 ? number : 10);
+        Iterator<Entity> it = driver.iterator(afterId);
+        int toSkip = startIndex > 1 ? startIndex - 1 : 0;
+        while (it.hasNext() && (number < 0 || entities.size() < number)) {
+            Entity entity = it.next();
+            if (!isOnChecks(entity) || !predicate.matches(entity)) {
+                continue;
+            }
+            if (toSkip > 0) {
+                toSkip--;
+                continue;
+            }
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    private boolean isOnChecks(final Entity entity) {
+        for (CollectionSource check : checks) {
+            if (!check.contains(entity)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A sorted access path stops once the wanted entities are found, about
+     * wanted x size / resultEstimate entities are read. An unsorted access
+     * path reads all its entities and sorts the wanted ones.
+     *
+     * @param accessPath
+     * @param wanted number of matching entities to read, -1 for all.
+     * @param resultEstimate upper bound of the result size.
+     * @return the estimated cost of driving the query with this path.
+     */
+    private static double getCost(final CollectionSource accessPath, final int wanted, final int resultEstimate) {
+        int size = accessPath.size();
+        if (accessPath.isSorted() || size <= 1) {
+            if (wanted < 0 || resultEstimate <= 0) {
+                return size;
+            }
+            return Math.min(size, Math.ceil((double) wanted * size / resultEstimate));
+        }
+        int sorted = wanted < 0 ? size : Math.max(2, Math.min(size, wanted));
+        return size * (1 + (Math.log(sorted) / Math.log(2)) / SORT_COST_DIVISOR);
+    }
+
+    /**
+     * @return the access path driving the iteration.
+     */
+    public CollectionSource getDriver() {
+        return driver;
+    }
+
+    @Override
+    public String toString() {
+        return "driver=" + driver + ", checks=" + checks + ", filters checked on attributes=" + residualFilterCount;
+    }
+
+}
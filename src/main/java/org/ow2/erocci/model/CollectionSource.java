@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.Iterator;
+
+import org.occiware.clouddesigner.occi.Entity;
+
+/**
+ * Entities of a collection or of an index access path (a location and the
+ * entities under it, the entities of a category, the entities with an
+ * attribute value...), as given by an owner's index. toString describes the
+ * access path for query plan logs.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public interface CollectionSource {
+
+    /**
+     * Iterate over the entities of the collection, ordered by entity id. The
+     * index must not be modified while iterating.
+     *
+     * @param afterId resume after this entity id, null to start from the
+     * first entity.
+     * @return an iterator of entities.
+     */
+    Iterator<Entity> iterator(String afterId);
+
+    /**
+     * @param entity
+     * @return true if the entity is part of the collection.
+     */
+    boolean contains(Entity entity);
+
+    /**
+     * @return the number of entities of the collection, an upper bound for
+     * sources which are not exact.
+     */
+    int size();
+
+    /**
+     * @return true if the entities are kept ordered by id, false if the
+     * iterator must sort them first.
+     */
+    boolean isSorted();
+
+    /**
+     * @return ordinals of the entities on the owner's index, null if the
+     * source has no bitmap. The bitmap must not be modified.
+     */
+    EntityBitmap getBitmap();
+
+}
@@ -0,0 +1,1039 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.occiware.clouddesigner.occi.Action;
+import org.occiware.clouddesigner.occi.AttributeState;
+import org.occiware.clouddesigner.occi.Entity;
+import org.occiware.clouddesigner.occi.Kind;
+import org.occiware.clouddesigner.occi.Link;
+import org.occiware.clouddesigner.occi.Mixin;
+import org.occiware.clouddesigner.occi.Resource;
+
+/**
+ * Lookup structures maintained alongside an owner's OCCI configuration, so
+ * that point queries don't have to walk the resources and their links.
+ *
+ * Every mutation of the configuration done by ConfigurationManager must be
+ * reflected here.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class ConfigurationIndex {
+
+    /**
+     * Entities (resources and links) by entity id, concurrent so that the
+     * owner of an entity may be found without the owner's lock.
+     */
+    private final Map<String, Entity> entitiesById = new ConcurrentHashMap<>();
+
+    /**
+     * Entities by location path segments, for relative path collections.
+     */
+    private final EntityPathTrie<Entity> entitiesByPath = new EntityPathTrie<>();
+
+    /**
+     * Dense ordinals of the referenced entities, bit positions of the
+     * category and attribute value bitmaps.
+     */
+    private final EntityOrdinals<Entity> ordinals = new EntityOrdinals<>();
+
+    /**
+     * Entities by kind id (scheme + term). Category members are keyed by
+     * entity id, ordered by location, and kept as a bitmap of ordinals.
+     */
+    private final Map<String, CategoryMembers> entitiesByKind = new HashMap<>();
+
+    /**
+     * Entities by mixin id (scheme + term).
+     */
+    private final Map<String, CategoryMembers> entitiesByMixin = new HashMap<>();
+
+    /**
+     * Entities by action id (scheme + term), actions are found on the entity
+     * kind and on its mixins.
+     */
+    private final Map<String, CategoryMembers> entitiesByAction = new HashMap<>();
+
+    /**
+     * Category ids under which an entity is currently referenced, used to
+     * unreference it without recomputing the ids from the model.
+     */
+    private final Map<Entity, EntityCategories> categoriesByEntity = new HashMap<>();
+
+    /**
+     * Links by source resource.
+     */
+    private final Map<Resource, Set<Link>> outgoingLinks = new HashMap<>();
+
+    /**
+     * Links by target resource, the OCCI model has no reference from a
+     * resource to the links targeting it.
+     */
+    private final Map<Resource, Set<Link>> incomingLinks = new HashMap<>();
+
+    /**
+     * Endpoints under which a link is currently referenced, used to
+     * unreference it after its source or target has changed.
+     */
+    private final Map<Link, LinkEndpoints> endpointsByLink = new HashMap<>();
+
+    /**
+     * Inverted index of the configured attributes values, empty if no
+     * attributes are configured.
+     */
+    private AttributeValueIndex<Entity> attributeValues;
+
+    /**
+     * Trigram index of the configured attributes values, used by LIKE
+     * filters, empty if no attributes are configured.
+     */
+    private TrigramIndex<Entity> attributeGrams = new TrigramIndex<>(Collections.<String>emptyList(), 0, 0);
+
+    /**
+     * Sorted index of the configured numeric attributes values, used by
+     * numeric range filters, empty if no attributes are configured.
+     */
+    private NumericAttributeIndex<Entity> numericValues = new NumericAttributeIndex<>(Collections.<String>emptyList());
+
+    /**
+     * Ids of the entities added, removed or changed since the last call to
+     * drainChangedIds(), their views are then published again.
+     */
+    private final Set<String> changedIds = new LinkedHashSet<>();
+
+    /**
+     * Build an index without attribute value index.
+     */
+    public ConfigurationIndex() {
+        this(Collections.<String>emptyList());
+    }
+
+    /**
+     * Build an index with an inverted value index on these attributes.
+     *
+     * @param indexedAttributes attribute names.
+     */
+    public ConfigurationIndex(final Collection<String> indexedAttributes) {
+        this.attributeValues = new AttributeValueIndex<>(indexedAttributes, ordinals);
+    }
+
+    /**
+     * Reference an entity (resource or link) on this index.
+     *
+     * @param entity
+     */
+    public void addEntity(final Entity entity) {
+        if (entity == null || entity.getId() == null) {
+            return;
+        }
+        Entity previous = entitiesById.put(entity.getId(), entity);
+        if (previous != null && previous != entity) {
+            unindexCategories(previous);
+            unindexEndpoints(previous);
+            attributeValues.remove(previous);
+            attributeGrams.remove(previous);
+            numericValues.remove(previous);
+            ordinals.release(previous);
+        }
+        ordinals.acquire(entity);
+        entitiesByPath.put(entity.getId(), entity);
+        changedIds.add(entity.getId());
+        // The entity may already be referenced (link update).
+        unindexCategories(entity);
+        indexCategories(entity);
+        unindexEndpoints(entity);
+        indexEndpoints(entity);
+        updateAttributeReferences(entity);
+    }
+
+    /**
+     * Remove an entity from this index, do nothing if the id is referenced by
+     * another entity object.
+     *
+     * @param entity
+     */
+    public void removeEntity(final Entity entity) {
+        if (entity == null || entity.getId() == null) {
+            return;
+        }
+        if (entitiesById.get(entity.getId()) == entity) {
+            entitiesById.remove(entity.getId());
+            entitiesByPath.remove(entity.getId());
+            unindexCategories(entity);
+            unindexEndpoints(entity);
+            attributeValues.remove(entity);
+            attributeGrams.remove(entity);
+            numericValues.remove(entity);
+            ordinals.release(entity);
+            changedIds.add(entity.getId());
+        }
+    }
+
+    /**
+     * Update the endpoint references of a link after its source or target
+     * has changed. Do nothing if the link is not referenced on this index.
+     *
+     * @param link
+     */
+    public void updateEndpoints(final Link link) {
+        if (!contains(link)) {
+            return;
+        }
+        unindexEndpoints(link);
+        indexEndpoints(link);
+    }
+
+    /**
+     * @param resource
+     * @return links with this resource as source, never null.
+     */
+    public Collection<Link> getOutgoingLinks(final Resource resource) {
+        return getLinks(outgoingLinks, resource);
+    }
+
+    /**
+     * @param resource
+     * @return links with this resource as target, never null.
+     */
+    public Collection<Link> getIncomingLinks(final Resource resource) {
+        return getLinks(incomingLinks, resource);
+    }
+
+    /**
+     * Update the attribute value references of an entity after its
+     * attributes have changed. Do nothing if the entity is not referenced on
+     * this index.
+     *
+     * @param entity
+     */
+    public void updateAttributes(final Entity entity) {
+        if (!contains(entity)) {
+            return;
+        }
+        changedIds.add(entity.getId());
+        updateAttributeReferences(entity);
+    }
+
+    /**
+     * Replace the attributes with an inverted value index, the index is
+     * rebuilt from referenced entities.
+     *
+     * @param indexedAttributes attribute names.
+     */
+    public void setIndexedAttributes(final Collection<String> indexedAttributes) {
+        attributeValues = new AttributeValueIndex<>(indexedAttributes, ordinals);
+        if (attributeValues.isEmpty()) {
+            return;
+        }
+        for (Entity entity : entitiesById.values()) {
+            attributeValues.update(entity, getAttributesMap(entity));
+        }
+    }
+
+    /**
+     * Replace the attributes with a trigram index, the index is rebuilt from
+     * referenced entities.
+     *
+     * @param indexedAttributes attribute names.
+     * @param maxValueLength longer values are not split in trigrams.
+     * @param maxPostings maximum number of trigram references.
+     */
+    public void setLikeIndexedAttributes(final Collection<String> indexedAttributes, final int maxValueLength, final long maxPostings) {
+        attributeGrams = new TrigramIndex<>(indexedAttributes, maxValueLength, maxPostings);
+        if (attributeGrams.isEmpty()) {
+            return;
+        }
+        for (Entity entity : entitiesById.values()) {
+            attributeGrams.update(entity, getAttributesMap(entity));
+        }
+    }
+
+    /**
+     * @param attributeName
+     * @return true if this attribute has a trigram index.
+     */
+    public boolean isAttributeLikeIndexed(final String attributeName) {
+        return attributeGrams.isIndexed(attributeName);
+    }
+
+    /**
+     * Get the entities which may have a value containing a pattern, values
+     * must be checked by the caller.
+     *
+     * @param attributeName an attribute name with a trigram index.
+     * @param pattern
+     * @return candidate entities, null if the pattern is too short to use the
+     * index.
+     */
+    public Set<Entity> getLikeCandidates(final String attributeName, final String pattern) {
+        return attributeGrams.getCandidates(attributeName, pattern);
+    }
+
+    /**
+     * Replace the attributes with a sorted numeric index, the index is
+     * rebuilt from referenced entities.
+     *
+     * @param indexedAttributes attribute names.
+     */
+    public void setNumericIndexedAttributes(final Collection<String> indexedAttributes) {
+        numericValues = new NumericAttributeIndex<>(indexedAttributes);
+        if (numericValues.isEmpty()) {
+            return;
+        }
+        for (Entity entity : entitiesById.values()) {
+            numericValues.update(entity, getAttributesMap(entity));
+        }
+    }
+
+    /**
+     * @param attributeName
+     * @return true if this attribute has a sorted numeric index.
+     */
+    public boolean isAttributeNumericIndexed(final String attributeName) {
+        return numericValues.isIndexed(attributeName);
+    }
+
+    /**
+     * Get the entities with a numeric value in a range.
+     *
+     * @param attributeName an attribute name with a numeric index.
+     * @param min lower bound, null if none.
+     * @param minInclusive
+     * @param max upper bound, null if none.
+     * @param maxInclusive
+     * @return entities in this range, never null.
+     */
+    public Set<Entity> getEntitiesInRange(final String attributeName, final Double min, final boolean minInclusive,
+            final Double max, final boolean maxInclusive) {
+        return numericValues.getEntities(attributeName, min, minInclusive, max, maxInclusive);
+    }
+
+    /**
+     * @param attributeName
+     * @return true if this attribute has an inverted value index.
+     */
+    public boolean isAttributeIndexed(final String attributeName) {
+        return attributeValues.isIndexed(attributeName);
+    }
+
+    /**
+     * @param attributeName an indexed attribute name.
+     * @param value
+     * @return entities with this attribute value, never null.
+     */
+    public Set<Entity> getEntitiesForAttributeValue(final String attributeName, final String value) {
+        return attributeValues.getEntities(attributeName, value);
+    }
+
+    /**
+     * @param attributeName an indexed attribute name.
+     * @return entities with a value set for this attribute, never null.
+     */
+    public Set<Entity> getEntitiesWithAttribute(final String attributeName) {
+        return attributeValues.getEntitiesWithAttribute(attributeName);
+    }
+
+    /**
+     * Update the category references of an entity after its mixins have
+     * changed. Do nothing if the entity is not referenced on this index.
+     *
+     * @param entity
+     */
+    public void updateCategories(final Entity entity) {
+        if (!contains(entity)) {
+            return;
+        }
+        changedIds.add(entity.getId());
+        unindexCategories(entity);
+        indexCategories(entity);
+    }
+
+    /**
+     * @param id
+     * @return the entity with this id, null if none.
+     */
+    public Entity getEntity(final String id) {
+        if (id == null) {
+            return null;
+        }
+        return entitiesById.get(id);
+    }
+
+    /**
+     * @param id
+     * @return the resource with this id, null if none or if id is a link.
+     */
+    public Resource getResource(final String id) {
+        Entity entity = getEntity(id);
+        if (entity instanceof Resource) {
+            return (Resource) entity;
+        }
+        return null;
+    }
+
+    /**
+     * @param id
+     * @return the link with this id, null if none or if id is a resource.
+     */
+    public Link getLink(final String id) {
+        Entity entity = getEntity(id);
+        if (entity instanceof Link) {
+            return (Link) entity;
+        }
+        return null;
+    }
+
+    /**
+     * Get the entity on a location and all entities under it, whole path
+     * segments are compared so "compute/vm1" doesnt match "compute/vm10".
+     *
+     * @param path (like "compute/vm1" or "/compute/", empty or "/" for all
+     * entities).
+     * @return entities ordered by location, empty if none.
+     */
+    public List<Entity> getEntitiesUnderPath(final String path) {
+        return entitiesByPath.collect(path);
+    }
+
+    /**
+     * Iterate over the entities under a location, ordered by location. The
+     * index must not be modified while iterating.
+     *
+     * @param path (like "compute/vm1" or "/compute/", empty or "/" for all
+     * entities).
+     * @param afterId resume after this entity id, null to start from the
+     * first entity.
+     * @return an iterator of entities.
+     */
+    public Iterator<Entity> iterateUnderPath(final String path, final String afterId) {
+        return entitiesByPath.iterator(path, afterId);
+    }
+
+    /**
+     * Iterate over the entities of a kind, a mixin or an action, ordered by
+     * location. The index must not be modified while iterating.
+     *
+     * @param categoryId (scheme + term)
+     * @param afterId resume after this entity id, null to start from the
+     * first entity.
+     * @return an iterator of entities.
+     */
+    public Iterator<Entity> iterateCategory(final String categoryId, final String afterId) {
+        List<NavigableMap<String, Entity>> memberMaps = new ArrayList<>();
+        for (Map<String, CategoryMembers> members : getCategoryMaps()) {
+            CategoryMembers categoryMembers = categoryId == null ? null : members.get(categoryId);
+            if (categoryMembers != null) {
+                NavigableMap<String, Entity> entities = categoryMembers.entities;
+                memberMaps.add(afterId == null ? entities : entities.tailMap(afterId, false));
+            }
+        }
+        if (memberMaps.isEmpty()) {
+            return Collections.<Entity>emptyList().iterator();
+        }
+        if (memberMaps.size() == 1) {
+            return Collections.unmodifiableCollection(memberMaps.get(0).values()).iterator();
+        }
+        // Same id used by several category types, merge them.
+        NavigableMap<String, Entity> merged = new TreeMap<>(EntityPathTrie.LOCATION_ORDER);
+        for (NavigableMap<String, Entity> entities : memberMaps) {
+            merged.putAll(entities);
+        }
+        return merged.values().iterator();
+    }
+
+    /**
+     * @param path (like "compute/vm1" or "/compute/", empty or "/" for all
+     * entities).
+     * @return the entities on this location and under it.
+     */
+    public CollectionSource getPathSource(final String path) {
+        return new IndexSource("path(" + path + ")", true) {
+            @Override
+            public Iterator<Entity> iterator(final String afterId) {
+                return iterateUnderPath(path, afterId);
+            }
+
+            @Override
+            public boolean contains(final Entity entity) {
+                return ConfigurationIndex.this.contains(entity) && EntityPathTrie.isUnder(entity.getId(), path);
+            }
+
+            @Override
+            public int size() {
+                return entitiesByPath.count(path);
+            }
+        };
+    }
+
+    /**
+     * @param categoryId kind, mixin or action id (scheme + term).
+     * @return the entities of this category.
+     */
+    public CollectionSource getCategorySource(final String categoryId) {
+        return new IndexSource("category(" + categoryId + ")", true) {
+            @Override
+            public Iterator<Entity> iterator(final String afterId) {
+                return iterateCategory(categoryId, afterId);
+            }
+
+            @Override
+            public boolean contains(final Entity entity) {
+                EntityCategories categories = entity == null ? null : categoriesByEntity.get(entity);
+                return categories != null && categoryId != null && (categoryId.equals(categories.kindId)
+                        || categories.mixinIds.contains(categoryId) || categories.actionIds.contains(categoryId));
+            }
+
+            @Override
+            public int size() {
+                // An entity may be on several category types with this id.
+                return getCategoryBitmap(categoryId).getCardinality();
+            }
+
+            @Override
+            public EntityBitmap getBitmap() {
+                return getCategoryBitmap(categoryId);
+            }
+        };
+    }
+
+    /**
+     * @param categoryId kind, mixin or action id (scheme + term).
+     * @return ordinals of the entities of this category, never null. The
+     * bitmap must not be modified.
+     */
+    public EntityBitmap getCategoryBitmap(final String categoryId) {
+        EntityBitmap bitmap = null;
+        for (Map<String, CategoryMembers> members : getCategoryMaps()) {
+            CategoryMembers categoryMembers = categoryId == null ? null : members.get(categoryId);
+            if (categoryMembers != null) {
+                // Same id used by several category types, merge them.
+                bitmap = bitmap == null ? categoryMembers.bitmap : bitmap.or(categoryMembers.bitmap);
+            }
+        }
+        return bitmap == null ? new EntityBitmap() : bitmap;
+    }
+
+    /**
+     * @param attributeName an attribute with an inverted value index.
+     * @param value null for any value.
+     * @return the entities with this attribute value.
+     */
+    public CollectionSource getAttributeValueSource(final String attributeName, final String value) {
+        EntityBitmap valueBitmap = value == null ? attributeValues.getBitmapWithAttribute(attributeName)
+                : attributeValues.getBitmap(attributeName, value);
+        return getBitmapSource("value(" + attributeName + "=" + value + ")",
+                valueBitmap == null ? new EntityBitmap() : valueBitmap);
+    }
+
+    /**
+     * @param description access path description, for plan logs.
+     * @param bitmap entity ordinals, not modified afterwards.
+     * @return the entities of a bitmap.
+     */
+    public CollectionSource getBitmapSource(final String description, final EntityBitmap bitmap) {
+        final Set<Entity> entities = ordinals.asSet(bitmap);
+        return new IndexSource(description, false) {
+            @Override
+            public Iterator<Entity> iterator(final String afterId) {
+                return iterateOrdered(entities, afterId);
+            }
+
+            @Override
+            public boolean contains(final Entity entity) {
+                return entities.contains(entity);
+            }
+
+            @Override
+            public int size() {
+                return bitmap.getCardinality();
+            }
+
+            @Override
+            public EntityBitmap getBitmap() {
+                return bitmap;
+            }
+        };
+    }
+
+    /**
+     * @param attributeName an attribute with a sorted numeric index.
+     * @param min lower bound, null if none.
+     * @param minInclusive
+     * @param max upper bound, null if none.
+     * @param maxInclusive
+     * @return the entities with a value in this range.
+     */
+    public CollectionSource getNumericRangeSource(final String attributeName, final Double min, final boolean minInclusive,
+            final Double max, final boolean maxInclusive) {
+        String description = "range(" + attributeName + (minInclusive ? " [" : " ]") + min + ".." + max + (maxInclusive ? "])" : "[)");
+        return new IndexSource(description, false) {
+            @Override
+            public Iterator<Entity> iterator(final String afterId) {
+                return iterateOrdered(numericValues.getEntities(attributeName, min, minInclusive, max, maxInclusive), afterId);
+            }
+
+            @Override
+            public boolean contains(final Entity entity) {
+                return numericValues.isInRange(entity, attributeName, min, minInclusive, max, maxInclusive);
+            }
+
+            @Override
+            public int size() {
+                return numericValues.count(attributeName, min, minInclusive, max, maxInclusive);
+            }
+        };
+    }
+
+    /**
+     * The trigram candidates are a superset of the entities with a value
+     * containing the pattern, values must be checked by the caller.
+     *
+     * @param attributeName an attribute with a trigram index.
+     * @param pattern
+     * @return the LIKE candidates, null if the pattern is too short to use
+     * the index.
+     */
+    public CollectionSource getLikeSource(final String attributeName, final String pattern) {
+        final int estimate = attributeGrams.estimateCandidates(attributeName, pattern);
+        if (estimate < 0) {
+            return null;
+        }
+        return new IndexSource("like(" + attributeName + "~" + pattern + ")", false) {
+            private Set<Entity> candidates;
+
+            private Set<Entity> getCandidates() {
+                if (candidates == null) {
+                    candidates = getLikeCandidates(attributeName, pattern);
+                }
+                return candidates;
+            }
+
+            @Override
+            public Iterator<Entity> iterator(final String afterId) {
+                return iterateOrdered(getCandidates(), afterId);
+            }
+
+            @Override
+            public boolean contains(final Entity entity) {
+                return getCandidates().contains(entity);
+            }
+
+            @Override
+            public int size() {
+                return candidates == null ? estimate : candidates.size();
+            }
+        };
+    }
+
+    /**
+     * The entities are sorted by chunks: a chunk is the smallest entities
+     * after the previous chunk, selected in one pass with a bounded heap.
+     * A page reading a few entities thus costs one pass over the entities,
+     * not a sort of all of them; chunks double in size so that a full
+     * iteration stays in O(n log n).
+     *
+     * @param entities
+     * @param afterId
+     * @return an iterator on entities ordered by entity id, starting after
+     * afterId if set.
+     */
+    public static Iterator<Entity> iterateOrdered(final Collection<Entity> entities, final String afterId) {
+        return new OrderedIterator(entities, afterId);
+    }
+
+    /**
+     * @param kindId (scheme + term)
+     * @return entities of this kind, never null.
+     */
+    public Collection<Entity> getEntitiesForKind(final String kindId) {
+        return getMembers(entitiesByKind, kindId);
+    }
+
+    /**
+     * @param mixinId (scheme + term)
+     * @return entities associated with this mixin, never null.
+     */
+    public Collection<Entity> getEntitiesForMixin(final String mixinId) {
+        return getMembers(entitiesByMixin, mixinId);
+    }
+
+    /**
+     * @param actionId (scheme + term)
+     * @return entities on which this action is available, never null.
+     */
+    public Collection<Entity> getEntitiesForAction(final String actionId) {
+        return getMembers(entitiesByAction, actionId);
+    }
+
+    /**
+     * @param entity
+     * @return true if this entity object is referenced on this index.
+     */
+    public boolean contains(final Entity entity) {
+        return entity != null && entity.getId() != null && entitiesById.get(entity.getId()) == entity;
+    }
+
+    /**
+     * @return number of referenced entities.
+     */
+    public int size() {
+        return entitiesById.size();
+    }
+
+    /**
+     * @return the ids of the entities added, removed or changed since the
+     * previous call, in change order.
+     */
+    public List<String> drainChangedIds() {
+        List<String> ids = new ArrayList<>(changedIds);
+        changedIds.clear();
+        return ids;
+    }
+
+    /**
+     * Remove all references.
+     */
+    public void clear() {
+        changedIds.addAll(entitiesById.keySet());
+        entitiesById.clear();
+        ordinals.clear();
+        entitiesByPath.clear();
+        entitiesByKind.clear();
+        entitiesByMixin.clear();
+        entitiesByAction.clear();
+        categoriesByEntity.clear();
+        outgoingLinks.clear();
+        incomingLinks.clear();
+        endpointsByLink.clear();
+        attributeValues.clear();
+        attributeGrams.clear();
+        numericValues.clear();
+    }
+
+    private void updateAttributeReferences(final Entity entity) {
+        if (attributeValues.isEmpty() && attributeGrams.isEmpty() && numericValues.isEmpty()) {
+            return;
+        }
+        Map<String, String> attributes = getAttributesMap(entity);
+        attributeValues.update(entity, attributes);
+        attributeGrams.update(entity, attributes);
+        numericValues.update(entity, attributes);
+    }
+
+    private static Map<String, String> getAttributesMap(final Entity entity) {
+        Map<String, String> attributes = new HashMap<>();
+        for (AttributeState attr : entity.getAttributes()) {
+            attributes.put(attr.getName(), attr.getValue());
+        }
+        return attributes;
+    }
+
+    private void indexCategories(final Entity entity) {
+        EntityCategories categories = new EntityCategories();
+        Kind kind = entity.getKind();
+        if (kind != null) {
+            categories.kindId = kind.getScheme() + kind.getTerm();
+            addMember(entitiesByKind, categories.kindId, entity);
+            for (Action action : kind.getActions()) {
+                categories.actionIds.add(action.getScheme() + action.getTerm());
+            }
+        }
+        for (Mixin mixin : entity.getMixins()) {
+            categories.mixinIds.add(mixin.getScheme() + mixin.getTerm());
+            for (Action action : mixin.getActions()) {
+                categories.actionIds.add(action.getScheme() + action.getTerm());
+            }
+        }
+        for (String mixinId : categories.mixinIds) {
+            addMember(entitiesByMixin, mixinId, entity);
+        }
+        for (String actionId : categories.actionIds) {
+            addMember(entitiesByAction, actionId, entity);
+        }
+        categoriesByEntity.put(entity, categories);
+    }
+
+    private void unindexCategories(final Entity entity) {
+        EntityCategories categories = categoriesByEntity.remove(entity);
+        if (categories == null) {
+            return;
+        }
+        if (categories.kindId != null) {
+            removeMember(entitiesByKind, categories.kindId, entity);
+        }
+        for (String mixinId : categories.mixinIds) {
+            removeMember(entitiesByMixin, mixinId, entity);
+        }
+        for (String actionId : categories.actionIds) {
+            removeMember(entitiesByAction, actionId, entity);
+        }
+    }
+
+    private void indexEndpoints(final Entity entity) {
+        if (!(entity instanceof Link)) {
+            return;
+        }
+        Link link = (Link) entity;
+        LinkEndpoints endpoints = new LinkEndpoints();
+        endpoints.source = link.getSource();
+        endpoints.target = link.getTarget();
+        if (endpoints.source != null) {
+            addLink(outgoingLinks, endpoints.source, link);
+            changedIds.add(endpoints.source.getId());
+        }
+        if (endpoints.target != null) {
+            addLink(incomingLinks, endpoints.target, link);
+            changedIds.add(endpoints.target.getId());
+        }
+        endpointsByLink.put(link, endpoints);
+    }
+
+    private void unindexEndpoints(final Entity entity) {
+        if (!(entity instanceof Link)) {
+            return;
+        }
+        LinkEndpoints endpoints = endpointsByLink.remove(entity);
+        if (endpoints == null) {
+            return;
+        }
+        if (endpoints.source != null) {
+            removeLink(outgoingLinks, endpoints.source, (Link) entity);
+            changedIds.add(endpoints.source.getId());
+        }
+        if (endpoints.target != null) {
+            removeLink(incomingLinks, endpoints.target, (Link) entity);
+            changedIds.add(endpoints.target.getId());
+        }
+    }
+
+    private static void addLink(final Map<Resource, Set<Link>> adjacency, final Resource resource, final Link link) {
+        Set<Link> links = adjacency.get(resource);
+        if (links == null) {
+            links = new LinkedHashSet<>();
+            adjacency.put(resource, links);
+        }
+        links.add(link);
+    }
+
+    private static void removeLink(final Map<Resource, Set<Link>> adjacency, final Resource resource, final Link link) {
+        Set<Link> links = adjacency.get(resource);
+        if (links != null) {
+            links.remove(link);
+            if (links.isEmpty()) {
+                adjacency.remove(resource);
+            }
+        }
+    }
+
+    private static Collection<Link> getLinks(final Map<Resource, Set<Link>> adjacency, final Resource resource) {
+        Set<Link> links = resource == null ? null : adjacency.get(resource);
+        if (links == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(links);
+    }
+
+    private void addMember(final Map<String, CategoryMembers> members, final String categoryId, final Entity entity) {
+        CategoryMembers categoryMembers = members.get(categoryId);
+        if (categoryMembers == null) {
+            categoryMembers = new CategoryMembers();
+            members.put(categoryId, categoryMembers);
+        }
+        categoryMembers.entities.put(entity.getId(), entity);
+        categoryMembers.bitmap.add(ordinals.getOrdinal(entity));
+    }
+
+    private void removeMember(final Map<String, CategoryMembers> members, final String categoryId, final Entity entity) {
+        CategoryMembers categoryMembers = members.get(categoryId);
+        if (categoryMembers != null) {
+            if (categoryMembers.entities.remove(entity.getId(), entity)) {
+                categoryMembers.bitmap.remove(ordinals.getOrdinal(entity));
+            }
+            if (categoryMembers.entities.isEmpty()) {
+                members.remove(categoryId);
+            }
+        }
+    }
+
+    private static Collection<Entity> getMembers(final Map<String, CategoryMembers> members, final String categoryId) {
+        CategoryMembers categoryMembers = categoryId == null ? null : members.get(categoryId);
+        if (categoryMembers == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableCollection(categoryMembers.entities.values());
+    }
+
+    private List<Map<String, CategoryMembers>> getCategoryMaps() {
+        return Arrays.asList(entitiesByKind, entitiesByMixin, entitiesByAction);
+    }
+
+    /**
+     * Entities of a category, by id and as a bitmap of ordinals.
+     */
+    private static class CategoryMembers {
+
+        private final NavigableMap<String, Entity> entities = new TreeMap<>(EntityPathTrie.LOCATION_ORDER);
+        private final EntityBitmap bitmap = new EntityBitmap();
+    }
+
+    /**
+     * Category ids of an indexed entity.
+     */
+    private static class EntityCategories {
+
+        private String kindId;
+        private final Set<String> mixinIds = new LinkedHashSet<>();
+        private final Set<String> actionIds = new LinkedHashSet<>();
+    }
+
+    /**
+     * Source and target of an indexed link.
+     */
+    private static class LinkEndpoints {
+
+        private Resource source;
+        private Resource target;
+    }
+
+    /**
+     * Iterator on unordered entities by id order, see iterateOrdered.
+     */
+    private static class OrderedIterator implements Iterator<Entity> {
+
+        private static final int FIRST_CHUNK_SIZE = 64;
+
+        private static final Comparator<Entity> ID_ORDER = new Comparator<Entity>() {
+            @Override
+            public int compare(final Entity entity1, final Entity entity2) {
+                return EntityPathTrie.LOCATION_ORDER.compare(entity1.getId(), entity2.getId());
+            }
+        };
+
+        private final Collection<Entity> entities;
+
+        /**
+         * Last id of the previous chunk.
+         */
+        private String lastId;
+
+        private int chunkSize = FIRST_CHUNK_SIZE;
+
+        private Iterator<Entity> chunk = Collections.<Entity>emptyList().iterator();
+
+        private boolean lastChunk;
+
+        OrderedIterator(final Collection<Entity> entities, final String afterId) {
+            this.entities = entities;
+            this.lastId = afterId;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!chunk.hasNext() && !lastChunk) {
+                nextChunk();
+            }
+            return chunk.hasNext();
+        }
+
+        @Override
+        public Entity next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return chunk.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void nextChunk() {
+            // Largest selected entity on top.
+            PriorityQueue<Entity> smallest = new PriorityQueue<>(Math.min(chunkSize, entities.size()) + 1,
+                    Collections.reverseOrder(ID_ORDER));
+            int remaining = 0;
+            for (Entity entity : entities) {
+                if (lastId != null && EntityPathTrie.LOCATION_ORDER.compare(entity.getId(), lastId) <= 0) {
+                    continue;
+                }
+                remaining++;
+                if (smallest.size() < chunkSize) {
+                    smallest.add(entity);
+                } else if (ID_ORDER.compare(entity, smallest.peek()) < 0) {
+                    smallest.poll();
+                    smallest.add(entity);
+                }
+            }
+            lastChunk = remaining <= chunkSize;
+            List<Entity> sorted = new ArrayList<>(smallest);
+            Collections.sort(sorted, ID_ORDER);
+            if (!sorted.isEmpty()) {
+                lastId = sorted.get(sorted.size() - 1).getId();
+            }
+            chunk = sorted.iterator();
+            chunkSize = chunkSize <= Integer.MAX_VALUE / 2 ? chunkSize * 2 : Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * An index access path.
+     */
+    private abstract static class IndexSource implements CollectionSource {
+
+        private final String description;
+        private final boolean sorted;
+
+        private IndexSource(final String description, final boolean sorted) {
+            this.description = description;
+            this.sorted = sorted;
+        }
+
+        @Override
+        public boolean isSorted() {
+            return sorted;
+        }
+
+        @Override
+        public EntityBitmap getBitmap() {
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return description + " size=" + size();
+        }
+    }
+
+}
@@ -23,10 +23,16 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.ecore.EAttribute;
@@ -50,6 +56,7 @@ import org.occiware.clouddesigner.occi.util.Occi2Ecore;
 import org.occiware.clouddesigner.occi.util.OcciHelper;
 import org.occiware.mart.MART;
 import org.ow2.erocci.backend.BackendDBusService;
+import org.ow2.erocci.backend.BackendOptions;
 import org.ow2.erocci.backend.impl.CollectionFilter;
 import org.ow2.erocci.backend.impl.Utils;
 import org.slf4j.Logger;
@@ -72,7 +79,31 @@ public class ConfigurationManager {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationManager.class);
 
-    private static List<String> erocciSchemas = new LinkedList<>();
+    private static List<String> erocciSchemas = new CopyOnWriteArrayList<>();
+
+    /**
+     * Concurrency contract of the store: the EMF model objects (configurations,
+     * entities and their lists) and the owner's indexes are not thread safe.
+     * Operations on one owner are run by its OwnerExecutor: mutations on the
+     * owner's writer thread, reads on the caller thread with the owner's read
+     * lock, both holding the read lock of this store lock. Operations on all
+     * owners hold the write lock of this store lock. The lock must be held
+     * across all the manager calls of an operation, the backend takes it on
+     * each D-Bus call. The registries (configuration and index by owner,
+     * versions, user mixin locations) are concurrent maps and may be used
+     * without the lock.
+     */
+    private static final ReadWriteLock storeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Writer and lock of each owner.
+     */
+    private static final ConcurrentHashMap<String, OwnerExecutor> ownerExecutors = new ConcurrentHashMap<>();
+
+    /**
+     * Serializes the configuration creation of an owner found missing.
+     */
+    private static final Object creationLock = new Object();
 
     /**
      * Used for now when no owner defined (on dbus methods find for example or
@@ -81,18 +112,24 @@ public class ConfigurationManager {
      */
     public static final String DEFAULT_OWNER = "anonymous";
 
+    /**
+     * Default bounds of the LIKE trigram index, by owner.
+     */
+    private static final int DEFAULT_LIKE_MAX_VALUE_LENGTH = 256;
+    private static final int DEFAULT_LIKE_MAX_POSTINGS = 1000000;
+
     /**
      * This map reference all occi configurations by users. The first ref string
      * is the user uuid. To be updated for multiusers and multiconfigs.
      */
-    protected static Map<String, Configuration> configurations = new HashMap<>();
+    protected static Map<String, Configuration> configurations = new ConcurrentHashMap<>();
 
     /**
      * References location for a user mixin. this is used by find method to find
      * the collection of user mixin. Key : Mixin sheme + term, must be unique
      * Value : Location with form of : http://localhost:8080/mymixincollection/
      */
-    protected static Map<String, String> userMixinLocationMap = new HashMap<>();
+    protected static Map<String, String> userMixinLocationMap = new ConcurrentHashMap<>();
 
     /**
      * Obtain the factory to create OCCI objects.
@@ -100,10 +137,95 @@ public class ConfigurationManager {
     protected static OCCIFactory occiFactory = OCCIFactory.eINSTANCE;
 
     /**
-     * Used only to create an eTag when object are updated. Key : owner+objectId
-     * Value : version number. First version is 1.
+     * Used only to create an eTag when object are updated. Key : owner, Value
+     * : versions of the owner's entities.
+     */
+    private static Map<String, EntityVersions> versionsByOwner = new ConcurrentHashMap<>();
+
+    /**
+     * Published entity views by owner, read without lock by Get.
+     */
+    private static Map<String, EntityViews> entityViewsByOwner = new ConcurrentHashMap<>();
+
+    /**
+     * Lookup indexes by owner, kept in sync with the owner's configuration.
+     */
+    private static Map<String, ConfigurationIndex> configurationIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of collection cursors kept.
+     */
+    private static final int MAX_COLLECTION_CURSORS = 1024;
+
+    /**
+     * Collection cursors by query key and next index, least recently used
+     * cursors are dropped first.
+     */
+    private static final Map<String, CollectionCursor> collectionCursors = new LinkedHashMap<String, CollectionCursor>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CollectionCursor> eldest) {
+            return size() > MAX_COLLECTION_CURSORS;
+        }
+    };
+
+    /**
+     * @return the lock held by the operations on one owner, do not hold it
+     * while waiting for an owner's writer.
      */
-    private static Map<String, Integer> versionObjectMap = new HashMap<>();
+    public static Lock getReadLock() {
+        return storeLock.readLock();
+    }
+
+    /**
+     * @return the lock to hold while reading or modifying the configurations
+     * of all owners.
+     */
+    public static Lock getWriteLock() {
+        return storeLock.writeLock();
+    }
+
+    /**
+     * @param owner
+     * @return the executor running the operations on this owner's
+     * configuration.
+     */
+    public static OwnerExecutor getOwnerExecutor(final String owner) {
+        OwnerExecutor executor = ownerExecutors.get(owner);
+        if (executor == null) {
+            executor = new OwnerExecutor(owner);
+            OwnerExecutor previous = ownerExecutors.putIfAbsent(owner, executor);
+            if (previous != null) {
+                executor.shutdown();
+                executor = previous;
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Find the owner of an entity, may be used without lock.
+     *
+     * @param id entity id.
+     * @return the owner of the configuration with this entity, null if none.
+     */
+    public static String findOwnerOfEntity(final String id) {
+        if (id == null) {
+            return null;
+        }
+        for (Map.Entry<String, ConfigurationIndex> entry : configurationIndexes.entrySet()) {
+            if (entry.getValue().getEntity(id) != null) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the owners with a configuration, may be used without lock.
+     */
+    public static List<String> getOwners() {
+        return new ArrayList<>(configurations.keySet());
+    }
 
     /**
      * Get a configuration from the configuration's map.
@@ -112,11 +234,16 @@ public class ConfigurationManager {
      * @return a configuration object for an owner.
      */
     public static Configuration getConfigurationForOwner(final String owner) {
-        if (configurations.get(owner) == null) {
-            createConfiguration(owner);
+        Configuration configuration = configurations.get(owner);
+        if (configuration == null) {
+            synchronized (creationLock) {
+                configuration = configurations.get(owner);
+                if (configuration == null) {
+                    configuration = createConfiguration(owner);
+                }
+            }
         }
-
-        return configurations.get(owner);
+        return configuration;
     }
 
     /**
@@ -131,7 +258,12 @@ public class ConfigurationManager {
         // Create an empty OCCI configuration.
         Configuration configuration = occiFactory.createConfiguration();
 
-        // Update reference configuration map.
+        // Update reference configuration map, the index is published first
+        // so that a configuration found always has its index.
+        ConfigurationIndex index = new ConfigurationIndex(BackendOptions.getList(BackendOptions.INDEXED_ATTRIBUTES));
+        index.setNumericIndexedAttributes(BackendOptions.getList(BackendOptions.NUMERIC_INDEXED_ATTRIBUTES));
+        applyLikeIndexOptions(index);
+        configurationIndexes.put(owner, index);
         configurations.put(owner, configuration);
 
         LOGGER.info("Configuration for user " + owner + " created");
@@ -146,6 +278,73 @@ public class ConfigurationManager {
      */
     public static void removeConfiguration(final String owner) {
         configurations.remove(owner);
+        configurationIndexes.remove(owner);
+    }
+
+    /**
+     * Apply the index options (indexed attributes) to all owner's indexes,
+     * used when the backend options are loaded after configurations creation.
+     */
+    public static void applyIndexOptions() {
+        List<String> indexedAttributes = BackendOptions.getList(BackendOptions.INDEXED_ATTRIBUTES);
+        for (ConfigurationIndex index : configurationIndexes.values()) {
+            index.setIndexedAttributes(indexedAttributes);
+            index.setNumericIndexedAttributes(BackendOptions.getList(BackendOptions.NUMERIC_INDEXED_ATTRIBUTES));
+            applyLikeIndexOptions(index);
+        }
+        LOGGER.info("Indexed attributes : " + indexedAttributes);
+        LOGGER.info("LIKE indexed attributes : " + BackendOptions.getList(BackendOptions.LIKE_INDEXED_ATTRIBUTES));
+        LOGGER.info("Numeric indexed attributes : " + BackendOptions.getList(BackendOptions.NUMERIC_INDEXED_ATTRIBUTES));
+    }
+
+    private static void applyLikeIndexOptions(final ConfigurationIndex index) {
+        index.setLikeIndexedAttributes(BackendOptions.getList(BackendOptions.LIKE_INDEXED_ATTRIBUTES),
+                BackendOptions.getInt(BackendOptions.LIKE_MAX_VALUE_LENGTH, DEFAULT_LIKE_MAX_VALUE_LENGTH),
+                BackendOptions.getInt(BackendOptions.LIKE_MAX_POSTINGS, DEFAULT_LIKE_MAX_POSTINGS));
+    }
+
+    /**
+     * Update the indexed attribute values of an entity, to call when entity
+     * attributes has been changed outside of this manager (connector
+     * retrieve, actions...).
+     *
+     * @param owner
+     * @param entity
+     */
+    public static void updateEntityIndexes(final String owner, final Entity entity) {
+        getIndexForOwner(owner).updateAttributes(entity);
+    }
+
+    /**
+     * Find the index referencing this entity object.
+     *
+     * @param entity
+     * @return the index of the entity owner, null if the entity is not on a
+     * configuration.
+     */
+    private static ConfigurationIndex findIndexForEntity(final Entity entity) {
+        for (ConfigurationIndex index : configurationIndexes.values()) {
+            if (index.contains(entity)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the lookup index of an owner's configuration.
+     *
+     * @param owner
+     * @return the index of the owner's configuration, created with the
+     * configuration if needed.
+     */
+    public static ConfigurationIndex getIndexForOwner(final String owner) {
+        ConfigurationIndex index = configurationIndexes.get(owner);
+        if (index == null) {
+            getConfigurationForOwner(owner);
+            index = configurationIndexes.get(owner);
+        }
+        return index;
     }
 
     /**
@@ -226,6 +425,7 @@ public class ConfigurationManager {
 //        	resources.add(resource);
 //        	
             configuration.getResources().add(resource);
+            getIndexForOwner(owner).addEntity(resource);
             LOGGER.info("Added Resource " + resource.getId() + " to configuration object.");
         }
         updateVersion(owner, id);
@@ -333,16 +533,17 @@ public class ConfigurationManager {
             
         }
 
+        // Assign link to resource source, the link is added to the source
+        // links (opposite reference).
         link.setSource(resourceSrc);
         link.setTarget(resourceDest);
 
-        // Assign link to resource source.
-        resourceSrc.getLinks().add(link);
+        getIndexForOwner(owner).addEntity(link);
 
         updateVersion(owner, id);
 
         if (overwrite) {
-            LOGGER.info("Link " + id + " updated ! Version: " + versionObjectMap.get(owner + id));
+            LOGGER.info("Link " + id + " updated ! Version: " + getVersion(owner, id));
         } else {
             LOGGER.info("link " + id + " added to configuration !");
         }
@@ -426,6 +627,7 @@ public class ConfigurationManager {
         if (attributes == null || attributes.isEmpty()) {
             // TODO : Check if concrete object attributes are deleted, or update MART with a remove attributes method.
             entity.getAttributes().clear();
+            updateAttributesIndex(entity);
             return entity;
         }
         String attrName;
@@ -462,12 +664,26 @@ public class ConfigurationManager {
             }
         }
         
+        updateAttributesIndex(entity);
         // Check attributes.
         LOGGER.info("Entity :--> ");
         Utils.printEntity(entity);
         
         return entity;
     }
+
+    /**
+     * Update the indexed attribute values of an entity, if the entity is
+     * referenced on a configuration.
+     *
+     * @param entity
+     */
+    private static void updateAttributesIndex(final Entity entity) {
+        ConfigurationIndex index = findIndexForEntity(entity);
+        if (index != null) {
+            index.updateAttributes(entity);
+        }
+    }
     /**
 	 * Add all attributes not already present.
      * @param entity
@@ -628,23 +844,25 @@ public class ConfigurationManager {
      */
     public static void removeResource(final String owner, final Resource resource) {
         Configuration config = getConfigurationForOwner(owner);
+        ConfigurationIndex index = getIndexForOwner(owner);
 
-        Iterator<Link> it = resource.getLinks().iterator();
-        while (it.hasNext()) {
-            Link link = it.next();
+        // Links targeting this resource are removed from their source.
+        List<Link> incomingLinks = new ArrayList<>(index.getIncomingLinks(resource));
+        for (Link link : incomingLinks) {
             Resource src = link.getSource();
-            if (!src.equals(resource)) {
+            if (src != null && src != resource) {
                 src.getLinks().remove(link);
             }
-            Resource target = link.getTarget();
-            if (!target.equals(resource)) {
-                target.getLinks().remove(link);
-            }
+            index.removeEntity(link);
+        }
+        for (Link link : resource.getLinks()) {
+            index.removeEntity(link);
         }
 
         resource.getLinks().clear(); // Remove all links on that resource.
         // Remove resource from configuration object.
         config.getResources().remove(resource);
+        index.removeEntity(resource);
 
     }
 
@@ -655,10 +873,59 @@ public class ConfigurationManager {
      * @param link
      */
     public static void removeLink(final String owner, final Link link) {
+        // Target links are the links from the target, it doesnt contain this
+        // link.
         Resource resourceSrc = link.getSource();
-        Resource resourceTarget = link.getTarget();
-        resourceSrc.getLinks().remove(link);
-        resourceTarget.getLinks().remove(link);
+        if (resourceSrc != null) {
+            resourceSrc.getLinks().remove(link);
+        }
+        getIndexForOwner(owner).removeEntity(link);
+    }
+
+    /**
+     * Set the source of a link, the link is moved to the source links.
+     *
+     * @param owner
+     * @param link
+     * @param source
+     */
+    public static void setLinkSource(final String owner, final Link link, final Resource source) {
+        link.setSource(source);
+        getIndexForOwner(owner).updateEndpoints(link);
+    }
+
+    /**
+     * Set the target of a link.
+     *
+     * @param owner
+     * @param link
+     * @param target
+     */
+    public static void setLinkTarget(final String owner, final Link link, final Resource target) {
+        link.setTarget(target);
+        getIndexForOwner(owner).updateEndpoints(link);
+    }
+
+    /**
+     * Find the links with this resource as source.
+     *
+     * @param owner
+     * @param resource
+     * @return a list of links, empty if none.
+     */
+    public static List<Link> findOutgoingLinks(final String owner, final Resource resource) {
+        return new ArrayList<>(getIndexForOwner(owner).getOutgoingLinks(resource));
+    }
+
+    /**
+     * Find the links with this resource as target.
+     *
+     * @param owner
+     * @param resource
+     * @return a list of links, empty if none.
+     */
+    public static List<Link> findIncomingLinks(final String owner, final Resource resource) {
+        return new ArrayList<>(getIndexForOwner(owner).getIncomingLinks(resource));
     }
 
     /**
@@ -695,8 +962,10 @@ public class ConfigurationManager {
             return;
         }
         List<Entity> entities = findAllEntitiesForMixin(owner, mixin.getScheme() + mixin.getTerm());
+        ConfigurationIndex index = getIndexForOwner(owner);
         for (Entity entity : entities) {
             entity.getMixins().remove(mixin);
+            index.updateCategories(entity);
             updateVersion(owner, entity.getId());
         }
         entities.clear();
@@ -730,6 +999,7 @@ public class ConfigurationManager {
     	// Remove the mixin.
     	if (myMixin != null) {
     		entity.getMixins().remove(myMixin);
+    		getIndexForOwner(owner).updateCategories(entity);
     		updateVersion(owner, entity.getId());
     		result = true;
     	}
@@ -744,17 +1014,7 @@ public class ConfigurationManager {
      * @return an OCCI resource.
      */
     public static Resource findResource(final String owner, final String id) {
-        Resource resFound = null;
-        Configuration configuration = getConfigurationForOwner(owner);
-
-        for (Resource resource : configuration.getResources()) {
-            if (resource.getId().equals(id)) {
-                resFound = resource;
-                // Resource found.
-                break;
-            }
-        }
-        return resFound;
+        return getIndexForOwner(owner).getResource(id);
     }
 
     /**
@@ -765,27 +1025,7 @@ public class ConfigurationManager {
      * @return
      */
     public static Link findLink(final String owner, final String id) {
-        Configuration configuration = getConfigurationForOwner(owner);
-
-        Link link = null;
-        EList<Link> links;
-        for (Resource resource : configuration.getResources()) {
-            links = resource.getLinks();
-            if (!links.isEmpty()) {
-                for (Link lnk : links) {
-                    if (lnk.getId().equals(id)) {
-                        link = lnk;
-                        break;
-
-                    }
-                }
-                if (link != null) {
-                    break;
-                }
-            }
-
-        }
-        return link;
+        return getIndexForOwner(owner).getLink(id);
     }
 
     /**
@@ -803,17 +1043,7 @@ public class ConfigurationManager {
             return entity;
         }
 
-        Resource resource = findResource(owner, id);
-
-        Link link;
-        if (resource == null) {
-            link = findLink(owner, id);
-            if (link != null) {
-                entity = link;
-            }
-        } else {
-            entity = resource;
-        }
+        entity = getIndexForOwner(owner).getEntity(id);
         return entity;
     }
 
@@ -885,30 +1115,11 @@ public class ConfigurationManager {
      * @return
      */
     public static Kind findKindFromEntities(final String owner, final String id) {
-        Configuration configuration = getConfigurationForOwner(owner);
         Kind kind = null;
-        EList<Link> links;
-
-        EList<Resource> resources = configuration.getResources();
-        for (Resource resource : resources) {
-            if ((resource.getKind().getScheme() + resource.getKind().getTerm()).equals(id)) {
-                kind = resource.getKind();
-            } else {
-                // On check les links de la resource.
-                links = resource.getLinks();
-                for (Link link : links) {
-                    if ((link.getKind().getScheme() + link.getKind().getTerm()).equals(id)) {
-                        kind = link.getKind();
-                        break;
-                    }
-                }
-            }
-            if (kind != null) {
-                break;
-            }
-
+        for (Entity entity : getIndexForOwner(owner).getEntitiesForKind(id)) {
+            kind = entity.getKind();
+            break;
         }
-
         return kind;
 
     }
@@ -922,49 +1133,18 @@ public class ConfigurationManager {
      */
     public static Kind findKindFromExtension(final String owner, final String kindId) {
         Configuration config = getConfigurationForOwner(owner);
-        Kind kindToReturn = null;
-        EList<Kind> kinds;
-        List<String> extUsed = new ArrayList<>();
-        EList<Extension> exts = config.getUse();
-        for (Extension ext : exts) {
-            extUsed.add(ext.getScheme());
-            kinds = ext.getKinds();
-            for (Kind kind : kinds) {
-                if (((kind.getScheme() + kind.getTerm()).equals(kindId))) {
-                    kindToReturn = kind;
-                    break;
-                }
-            }
-
-            if (kindToReturn != null) {
-                break;
-            }
-
-        }
+        CategoryRegistry registry = getCategoryRegistry(config);
+        Kind kindToReturn = registry.getKind(kindId);
 
-        if (kindToReturn == null) {
-
-            // Search kind in unreferenced extensions, if found reference the
-            // new extension to this configuration.
-            Collection<String> extReg = OCCIRegistry.getInstance().getRegisteredExtensions();
-
-            extReg.removeAll(extUsed);
-            Extension ext;
-            for (String extScheme : extReg) {
-                // ext = OcciHelper.loadExtension(OCCIRegistry.getInstance().getExtensionURI(extScheme));
-                ext = OcciHelper.loadExtension(extScheme);
-                kinds = ext.getKinds();
-                for (Kind kind : kinds) {
-                    if (((kind.getScheme() + kind.getTerm()).equals(kindId))) {
-                        kindToReturn = kind;
-                        config.getUse().add(ext);
-                        LOGGER.info("New extension: " + ext.getName() + " --< added to configuration owner: " + owner);
-                        break;
-                    }
-                }
-                if (kindToReturn != null) {
-                    break;
-                }
+        if (kindToReturn != null) {
+            // Reference the extension of this kind to this configuration if
+            // not already done.
+            Extension ext = registry.getExtension(kindId);
+            if (!config.getUse().contains(ext)) {
+                // Registered once, when the configuration starts using it.
+                registry.registerExtension(ext);
+                config.getUse().add(ext);
+                LOGGER.info("New extension: " + ext.getName() + " --< added to configuration owner: " + owner);
             }
         }
 
@@ -1017,22 +1197,30 @@ public class ConfigurationManager {
      * @return a list of entities (key: owner, value : List of entities).
      */
     public static List<Entity> findAllEntitiesForCategoryId(final String owner, final String categoryId, final int startIndex, final int number, final List<CollectionFilter> filters) {
-        List<Entity> entities = new LinkedList<>();
-        
+        return findAllEntitiesForCategoryId(owner, categoryId, startIndex, number, filters, null);
+    }
+
+    /**
+     * Find entities for a categoryId (kind or Mixin or actions), ordered by
+     * entity id.
+     *
+     * @param owner
+     * @param categoryId
+     * @param startIndex (ignored if afterId is set).
+     * @param number (number max of entities to return).
+     * @param filters (List of entity attribute to filter).
+     * @param afterId resume after this entity id (collection cursor), null
+     * to start from startIndex.
+     * @return a list of entities.
+     */
+    public static List<Entity> findAllEntitiesForCategoryId(final String owner, final String categoryId, final int startIndex, final int number, final List<CollectionFilter> filters, final String afterId) {
         if (configurations.isEmpty() || owner == null || owner.isEmpty()) {
-            return entities;
+            return new ArrayList<>();
         }
-        // Load all entities for the category..
-        entities.addAll(findAllEntitiesForKind(owner, categoryId));
-        entities.addAll(findAllEntitiesForMixin(owner, categoryId));
-        entities.addAll(findAllEntitiesForAction(owner, categoryId));
-        
-        // TODO : Order list by entityId, if entities not empty.
-        
-        
-        entities = filterEntities(startIndex, number, filters, entities);
-        
-        return entities;
+        // Load all entities for the category, ordered by entity id.
+        CollectionSource source = getIndexForOwner(owner).getCategorySource(categoryId);
+
+        return filterEntities(owner, afterId == null ? startIndex : 1, number, filters, source, afterId);
     }
 
     /**
@@ -1162,12 +1350,14 @@ public class ConfigurationManager {
         Configuration configuration = getConfigurationForOwner(owner);
         EList<Resource> resources = configuration.getResources();
         EList<Link> links;
+        // Links already added, instead of a lookup on the whole result list.
+        Set<Link> addedLinks = new HashSet<>();
         for (Resource resource : resources) {
             entities.add(resource);
             links = resource.getLinks();
             if (!links.isEmpty()) {
                 for (Link link : links) {
-                    if (!entities.contains(link)) {
+                    if (addedLinks.add(link)) {
                         entities.add(link);
                     }
                 }
@@ -1186,14 +1376,24 @@ public class ConfigurationManager {
      * @return a filtered list of entities.
      */
     public static List<Entity> findAllEntitiesOwner(final String owner, final int startIndex, final int number, List<CollectionFilter> filters) {
-        List<Entity> entities = new ArrayList<>();
-        List<String> usedKinds = getAllUsedKind();
-        for (String kind : usedKinds) {
-            entities.addAll(findAllEntitiesForCategoryId(owner, kind, startIndex, number, filters));
-        }
-        return entities;
+        return findAllEntitiesOwner(owner, startIndex, number, filters, null);
+    }
+
+    /**
+     * Find all entities referenced for an owner, ordered by entity id.
+     *
+     * @param owner
+     * @param startIndex (ignored if afterId is set).
+     * @param number
+     * @param filters
+     * @param afterId resume after this entity id (collection cursor), null
+     * to start from startIndex.
+     * @return a filtered list of entities.
+     */
+    public static List<Entity> findAllEntitiesOwner(final String owner, final int startIndex, final int number, List<CollectionFilter> filters, final String afterId) {
+        CollectionSource source = getIndexForOwner(owner).getPathSource("");
+        return filterEntities(owner, afterId == null ? startIndex : 1, number, filters, source, afterId);
     }
-    
 
     /**
      * Search for an action with entityId and a full category scheme.
@@ -1259,19 +1459,7 @@ public class ConfigurationManager {
      * @return
      */
     public static List<Entity> findAllEntitiesForKind(final String owner, final String categoryId) {
-        List<Entity> entities = new ArrayList<>();
-        for (Resource res : getConfigurationForOwner(owner).getResources()) {
-            if ((res.getKind().getScheme() + res.getKind().getTerm()).equals(categoryId)) {
-                entities.add(res);
-            }
-            for (Link link : res.getLinks()) {
-                if ((link.getKind().getScheme() + link.getKind().getTerm()).equals(categoryId)) {
-                    entities.add(link);
-                }
-            }
-
-        }
-        return entities;
+        return new ArrayList<>(getIndexForOwner(owner).getEntitiesForKind(categoryId));
 
     }
 
@@ -1284,24 +1472,7 @@ public class ConfigurationManager {
      * @return
      */
     public static List<Entity> findAllEntitiesForMixin(final String owner, final String categoryId) {
-        List<Entity> entities = new ArrayList<>();
-        for (Resource res : getConfigurationForOwner(owner).getResources()) {
-            for (Mixin mix : res.getMixins()) {
-                if ((mix.getScheme() + mix.getTerm()).equals(categoryId)) {
-                    entities.add(res);
-                }
-            }
-            for (Link link : res.getLinks()) {
-                for (Mixin mix : link.getMixins()) {
-                    if ((mix.getScheme() + mix.getTerm()).equals(categoryId)) {
-                        entities.add(link);
-                    }
-                }
-
-            }
-
-        }
-        return entities;
+        return new ArrayList<>(getIndexForOwner(owner).getEntitiesForMixin(categoryId));
     }
 
     /**
@@ -1313,76 +1484,23 @@ public class ConfigurationManager {
      * @return
      */
     public static List<Entity> findAllEntitiesForAction(final String owner, final String categoryId) {
-        List<Entity> entities = new ArrayList<>();
-        for (Resource res : getConfigurationForOwner(owner).getResources()) {
-
-            for (Action act : res.getKind().getActions()) {
-                if ((act.getScheme() + act.getTerm()).equals(categoryId)) {
-                    entities.add(res);
-                }
-
-            }
-            // Search in mixins.
-            for (Mixin mixin : res.getMixins()) {
-                for (Action act : mixin.getActions()) {
-
-                    if ((act.getScheme() + act.getTerm()).equals(categoryId)) {
-                        entities.add(res);
-                    }
-                }
-            }
-
-            for (Link link : res.getLinks()) {
-                for (Action act : link.getKind().getActions()) {
-                    if ((act.getScheme() + act.getTerm()).equals(categoryId)) {
-                        entities.add(link);
-                    }
-                }
-                for (Mixin mixin : link.getMixins()) {
-                    for (Action act : mixin.getActions()) {
-
-                        if ((act.getScheme() + act.getTerm()).equals(categoryId)) {
-                            entities.add(link);
-                        }
-                    }
-                }
-            }
-
-        }
-        return entities;
+        return new ArrayList<>(getIndexForOwner(owner).getEntitiesForAction(categoryId));
     }
 
     /**
-     * Return all entity based on a partial Id (like request).
+     * Return all entities located on a relative path or under it. Path
+     * segments are compared as a whole, "compute/vm1" doesnt match
+     * "compute/vm10".
      *
      * @param owner
-     * @param partialId
-     * @return
+     * @param partialId (like "compute/vm1" or "compute/")
+     * @return entities ordered by location.
      */
     public static List<Entity> findAllEntitiesLikePartialId(final String owner, final String partialId) {
-        List<Entity> entities = new ArrayList<>();
-
-        Configuration configuration = getConfigurationForOwner(owner);
-
         if (partialId == null) {
-            return entities;
-        }
-
-        List<Resource> resources = configuration.getResources();
-        for (Resource resource : resources) {
-            if (resource.getId().contains(partialId)) {
-                entities.add(resource);
-            }
-            if (!resource.getLinks().isEmpty()) {
-                for (Link link : resource.getLinks()) {
-                    if (link.getId().contains(partialId)) {
-                        entities.add(link);
-                    }
-                }
-            }
+            return new ArrayList<>();
         }
-
-        return entities;
+        return getIndexForOwner(owner).getEntitiesUnderPath(partialId);
     }
     
     /**
@@ -1395,20 +1513,82 @@ public class ConfigurationManager {
      * @return 
      */
     public static List<Entity> findAllEntitiesOwnerForRelativePath(final String owner, final String relativePath, final int startIndex, final int number,final List<CollectionFilter> filters) {
-        List<Entity> entities;
-        entities = findAllEntitiesLikePartialId(owner, relativePath);
-        entities = filterEntities(startIndex, number, filters, entities);
-        
-        return entities;
+        return findAllEntitiesOwnerForRelativePath(owner, relativePath, startIndex, number, filters, null);
+    }
+
+    /**
+     * Find all entities for a relative path and filters if any, ordered by
+     * entity id.
+     *
+     * @param owner
+     * @param relativePath
+     * @param startIndex (ignored if afterId is set).
+     * @param number
+     * @param filters
+     * @param afterId resume after this entity id (collection cursor), null
+     * to start from startIndex.
+     * @return a filtered list of entities.
+     */
+    public static List<Entity> findAllEntitiesOwnerForRelativePath(final String owner, final String relativePath, final int startIndex, final int number, final List<CollectionFilter> filters, final String afterId) {
+        if (relativePath == null) {
+            return new ArrayList<>();
+        }
+        CollectionSource source = getIndexForOwner(owner).getPathSource(relativePath);
+        return filterEntities(owner, afterId == null ? startIndex : 1, number, filters, source, afterId);
+    }
+
+    /**
+     * Find the cursor left by a previous page of a collection query.
+     *
+     * @param queryKey (see CollectionCursor.getQueryKey)
+     * @param startIndex index of the requested first record.
+     * @return the cursor, null if the previous page is unknown.
+     */
+    public static CollectionCursor findCollectionCursor(final String queryKey, final int startIndex) {
+        if (startIndex <= 1) {
+            return null;
+        }
+        synchronized (collectionCursors) {
+            return collectionCursors.get(CollectionCursor.getCursorKey(queryKey, startIndex));
+        }
+    }
+
+    /**
+     * Keep the position reached by a collection query, for the next page.
+     *
+     * @param cursor
+     */
+    public static void saveCollectionCursor(final CollectionCursor cursor) {
+        synchronized (collectionCursors) {
+            collectionCursors.put(cursor.getCursorKey(), cursor);
+        }
+    }
+
+    /**
+     * Drop the results pinned by the collection cursors, the follow-up pages
+     * are then queried on the current configuration.
+     */
+    public static void unpinCollectionCursors() {
+        synchronized (collectionCursors) {
+            for (Map.Entry<String, CollectionCursor> entry : collectionCursors.entrySet()) {
+                if (entry.getValue().isPinned()) {
+                    entry.setValue(entry.getValue().unpin());
+                }
+            }
+        }
     }
-    
 
     /**
      * Destroy all configurations for all owners.
      */
     public static void resetAll() {
         configurations.clear();
-        versionObjectMap.clear();
+        configurationIndexes.clear();
+        versionsByOwner.clear();
+        entityViewsByOwner.clear();
+        synchronized (collectionCursors) {
+            collectionCursors.clear();
+        }
     }
 
     /**
@@ -1463,6 +1643,7 @@ public class ConfigurationManager {
                 
             }
         }
+        getIndexForOwner(owner).updateCategories(entity);
         return result;
     }
 
@@ -1473,14 +1654,95 @@ public class ConfigurationManager {
      * @param id
      */
     public static void updateVersion(final String owner, final String id) {
-        String key = owner + id;
-        Integer version = versionObjectMap.get(key);
-        if (version == null) {
-            version = 1;
+        getVersions(owner).increment(id);
+    }
+
+    /**
+     * @param owner
+     * @param id
+     * @return the version of an object, 1 if never updated.
+     */
+    public static int getVersion(final String owner, final String id) {
+        return getVersions(owner).get(id);
+    }
+
+    /**
+     * Publish the views of the entities changed on an owner's configuration,
+     * to call by the owner's writer (see OwnerExecutor) or with the store
+     * write lock.
+     *
+     * @param owner
+     */
+    public static void publishEntityViews(final String owner) {
+        ConfigurationIndex index = configurationIndexes.get(owner);
+        if (index != null) {
+            getEntityViews(owner).publish(index, getVersions(owner));
         }
-        version++;
-        versionObjectMap.put(key, version);
+    }
 
+    /**
+     * Publish the views of the entities changed on all owners, to call with
+     * the store write lock.
+     */
+    public static void publishAllEntityViews() {
+        for (String owner : configurationIndexes.keySet()) {
+            publishEntityViews(owner);
+        }
+    }
+
+    /**
+     * Get the published view of an entity, without lock.
+     *
+     * @param owner
+     * @param id
+     * @return the last published view of the entity, null if none.
+     */
+    public static EntityView getEntityView(final String owner, final String id) {
+        return getEntityViews(owner).get(id);
+    }
+
+    /**
+     * @param owner
+     * @return the version of the last views published for this owner.
+     */
+    public static long getSnapshotVersion(final String owner) {
+        return getEntityViews(owner).getSnapshotVersion();
+    }
+
+    /**
+     * @return the sum of the snapshot versions of all owners, it grows each
+     * time views are published for an owner.
+     */
+    public static long getSnapshotVersion() {
+        long version = 0;
+        for (String owner : getOwners()) {
+            version += getSnapshotVersion(owner);
+        }
+        return version;
+    }
+
+    private static EntityViews getEntityViews(final String owner) {
+        EntityViews views = entityViewsByOwner.get(owner);
+        if (views == null) {
+            views = new EntityViews();
+            EntityViews previous = entityViewsByOwner.putIfAbsent(owner, views);
+            if (previous != null) {
+                views = previous;
+            }
+        }
+        return views;
+    }
+
+    private static EntityVersions getVersions(final String owner) {
+        EntityVersions versions = versionsByOwner.get(owner);
+        if (versions == null) {
+            versions = new EntityVersions();
+            EntityVersions previous = versionsByOwner.putIfAbsent(owner, versions);
+            if (previous != null) {
+                versions = previous;
+            }
+        }
+        return versions;
     }
 
     /**
@@ -1491,41 +1753,15 @@ public class ConfigurationManager {
      * @return a mixin found or null if not found
      */
     public static Mixin findMixinOnEntities(final String owner, final String mixinId) {
-        Configuration configuration = getConfigurationForOwner(owner);
         Mixin mixinToReturn = null;
-        boolean mixinOk;
-
-        for (Resource res : configuration.getResources()) {
-            mixinOk = false;
-            for (Mixin mixin : res.getMixins()) {
+        for (Entity entity : getIndexForOwner(owner).getEntitiesForMixin(mixinId)) {
+            for (Mixin mixin : entity.getMixins()) {
                 if ((mixin.getScheme() + mixin.getTerm()).equals(mixinId)) {
                     mixinToReturn = mixin;
-                    mixinOk = true;
                     break;
                 }
             }
-
-            if (mixinOk) {
-                break;
-            } else {
-                // Recherche dans les links.
-                for (Link link : res.getLinks()) {
-                    for (Mixin mixin : link.getMixins()) {
-                        if ((mixin.getScheme() + mixin.getTerm()).equals(mixinId)) {
-                            mixinToReturn = mixin;
-                            mixinOk = true;
-                            break;
-                        }
-                    }
-                    if (mixinOk) {
-                        break;
-                    }
-                }
-            }
-            if (mixinOk) {
-                break;
-            }
-
+            break;
         }
 
         return mixinToReturn;
@@ -1540,18 +1776,11 @@ public class ConfigurationManager {
      */
     public static Mixin findMixinOnExtension(final String owner, final String mixinId) {
         Configuration config = getConfigurationForOwner(owner);
-        Mixin mixinToReturn = null;
-        for (Extension ext : config.getUse()) {
-            for (Mixin mixin : ext.getMixins()) {
-                if ((mixin.getScheme() + mixin.getTerm()).equals(mixinId)) {
-                    mixinToReturn = mixin;
-                    break;
-                }
-
-            }
-            if (mixinToReturn != null) {
-                break;
-            }
+        CategoryRegistry registry = getCategoryRegistry(config);
+        Mixin mixinToReturn = registry.getMixin(mixinId);
+        if (mixinToReturn != null && !config.getUse().contains(registry.getExtension(mixinId))) {
+            // Mixin is defined on an extension not used by this configuration.
+            mixinToReturn = null;
         }
 
         return mixinToReturn;
@@ -1605,6 +1834,7 @@ public class ConfigurationManager {
 
             if (entity != null && !entity.getMixins().contains(mixin)) {
                 entity.getMixins().add(mixin);
+                getIndexForOwner(owner).updateCategories(entity);
 
                 updateVersion(owner, entityId);
             }
@@ -1630,6 +1860,7 @@ public class ConfigurationManager {
                 if (!found) {
                     // Remove reference mixin of the entity.
                     entityMixin.getMixins().remove(mixin);
+                    getIndexForOwner(owner).updateCategories(entityMixin);
 
                     // Remove the entity from mixin.
                     // it.remove();
@@ -1749,21 +1980,20 @@ public class ConfigurationManager {
     }
 
     /**
-     * Generate eTag number from version map.
+     * Generate eTag number from the published view of the entity, derived
+     * from its version and its content. Views are published when a mutation
+     * ends, a mutation must publish the views of the owner before.
      *
      * @param owner
      * @param id
      * @return
      */
     public static UInt32 getEtagNumber(final String owner, final String id) {
-//        Integer version = versionObjectMap.get(owner + id);
-//        if (version == null) {
-//            version = 1;
-//        }
-        
-        UInt32 serial = new UInt32(Utils.getUniqueInt());
-        return serial;
-        //  return Utils.createEtagNumber(id, owner, version);
+        EntityView view = getEntityView(owner, id);
+        if (view == null) {
+            return Utils.createEtagNumber(id, owner, getVersion(owner, id));
+        }
+        return new UInt32(view.getSerial());
     }
 
     /**
@@ -1776,29 +2006,9 @@ public class ConfigurationManager {
      */
     public static Extension getExtensionForAction(String owner, String action_id) {
         Configuration config = getConfigurationForOwner(owner);
-        EList<Extension> exts = config.getUse();
-        Extension extRet = null;
-        // Ext kinds.
-        EList<Kind> kinds;
-        EList<Action> actionKinds;
-        for (Extension ext : exts) {
-            kinds = ext.getKinds();
-            for (Kind kind : kinds) {
-                actionKinds = kind.getActions();
-                for (Action action : actionKinds) {
-                    if ((action.getScheme() + action.getTerm()).equals(action_id)) {
-                        extRet = ext;
-                        break;
-                    }
-                }
-                if (extRet != null) {
-                    break;
-                }
-
-            }
-            if (extRet != null) {
-                break;
-            }
+        Extension extRet = getCategoryRegistry(config).getExtension(action_id);
+        if (extRet != null && !config.getUse().contains(extRet)) {
+            extRet = null;
         }
 
         return extRet;
@@ -1811,20 +2021,14 @@ public class ConfigurationManager {
      * @return Action, may return null if not found on extension.
      */
     public static Action getActionKindFromExtension(final Extension ext, final String actionId) {
-        EList<Kind> kinds = ext.getKinds();
-        EList<Action> actionKinds;
+        if (ext == null) {
+            return null;
+        }
+        // The extensions used by a configuration are registered when added.
+        CategoryRegistry registry = CategoryRegistry.getInstance();
         Action actionKind = null;
-        for (Kind kind : kinds) {
-            actionKinds = kind.getActions();
-            for (Action action : actionKinds) {
-                if ((action.getScheme() + action.getTerm()).equals(actionId)) {
-                    actionKind = action;
-                    break;
-                }
-            }
-            if (actionKind != null) {
-                break;
-            }
+        if (registry.getExtension(actionId) == ext) {
+            actionKind = registry.getAction(actionId);
         }
 
         return actionKind;
@@ -1838,26 +2042,29 @@ public class ConfigurationManager {
      * @return
      */
     public static Extension getExtensionForKind(String owner, String kind) {
-        Extension extRet = null;
         Configuration configuration = getConfigurationForOwner(owner);
-        EList<Extension> exts = configuration.getUse();
-        EList<Kind> kinds;
-        for (Extension ext : exts) {
-            kinds = ext.getKinds();
-            for (Kind kindObj : kinds) {
-                if ((kindObj.getScheme() + kindObj.getTerm()).equals(kind)) {
-                    extRet = ext;
-                    break;
-                }
-            }
-            if (extRet != null) {
-                break;
-            }
+        Extension extRet = getCategoryRegistry(configuration).getExtension(kind);
+        if (extRet != null && !configuration.getUse().contains(extRet)) {
+            extRet = null;
         }
 
         return extRet;
     }
 
+    /**
+     * Get the category registry, with all registered extensions indexed. The
+     * extensions used by a configuration are registered when they are added
+     * to it, so lookups don't take the registry lock.
+     *
+     * @param config
+     * @return the category registry.
+     */
+    private static CategoryRegistry getCategoryRegistry(final Configuration config) {
+        CategoryRegistry registry = CategoryRegistry.getInstance();
+        registry.loadRegisteredExtensions();
+        return registry;
+    }
+
     /**
      * Find extension used with this entity.
      *
@@ -1869,26 +2076,19 @@ public class ConfigurationManager {
         // Search owner of the entity.
         Set<String> owners = configurations.keySet();
         Configuration configuration;
-        EList<Resource> resources;
         EList<Extension> exts;
         for (String owner : owners) {
+            if (getIndexForOwner(owner).getResource(entity.getId()) == null) {
+                continue;
+            }
+            // We found the configuration and owner of the entity.
+            // Now we get the extension from entity kind.
             configuration = getConfigurationForOwner(owner);
-
-            resources = configuration.getResources();
-            for (Resource resource : resources) {
-                if (resource.getId().equals(entity.getId())) {
-                    // We found the configuration and owner of the entity.
-                    // Now we get the extension from entity kind.
-                    Kind entityKind = entity.getKind();
-                    exts = configuration.getUse();
-                    for (Extension ext : exts) {
-                        if (ext.getKinds().contains(entityKind)) {
-                            extRet = ext;
-                            break;
-                        }
-                    }
-                }
-                if (extRet != null) {
+            Kind entityKind = entity.getKind();
+            exts = configuration.getUse();
+            for (Extension ext : exts) {
+                if (ext.getKinds().contains(entityKind)) {
+                    extRet = ext;
                     break;
                 }
             }
@@ -1922,7 +2122,7 @@ public class ConfigurationManager {
         for (String extScheme : extReg) {
             // Load the extension and register, include the core as well...
         	LOGGER.info("Loading model extension : " + extScheme);
-        	ext = OcciHelper.loadExtension(extScheme);
+        	ext = CategoryRegistry.getInstance().loadExtension(extScheme);
             if (ext.getName().equals("core") && extReg.size() > 1) {
                 // Erocci has already this extension scheme.
                 continue;
@@ -1968,6 +2168,7 @@ public class ConfigurationManager {
             }
             Configuration config = getConfigurationForOwner(DEFAULT_OWNER);
             LOGGER.info("Extension : " + extension.getName() + " added to user configuration.");
+            CategoryRegistry.getInstance().registerExtension(extension);
             config.getUse().add(extension);
 
         }
@@ -2019,92 +2220,23 @@ public class ConfigurationManager {
 	}
     
     /**
-     * Apply filter where possible.
+     * Apply filter where possible, the query is planned on the owner's
+     * indexes (see CollectionQueryPlan).
      * startIndex starts at 1
+     * @param owner
      * @param startIndex
      * @param number
      * @param filters
-     * @param sources
-     * @return a filtered list of entities.
+     * @param source entities of the collection.
+     * @param afterId resume after this entity id, null to start from the
+     * first entity.
+     * @return a filtered list of entities, ordered by entity id.
      */
-    private static List<Entity> filterEntities(final int startIndex, final int number, final List<CollectionFilter> filters, List<Entity> sources) {
-        List<Entity> entities = sources;
-        // Filter the lists if filter is set.
-        if (!filters.isEmpty() && !entities.isEmpty()) {
-            Iterator<Entity> it = entities.iterator();
-            boolean control = false;
-            String constraintValue;
-            while (it.hasNext()) {
-                Entity entity = it.next();
-                // Check if attribute and attribute value is in filter, if not remove this entity from the list to return.
-                List<AttributeState> attrs = entity.getAttributes();
-                for (AttributeState attr : attrs) {
-                    for (CollectionFilter filter : filters) {
-                        if (filter.getAttributeFilter().equalsIgnoreCase(attr.getName())) {
-                            // Check the constraint value.
-                            if (filter.getValue() == null) {
-                                // Null: all value is ok for this attribute.
-                                control = true;
-                                break;
-                            } else {
-                                constraintValue = filter.getValue();
-                            }
-                            // Check the constraint attribute Value filter.
-                            if (filter.getOperator() == CollectionFilter.OPERATOR_EQUAL && constraintValue.equals(attr.getValue())) {
-                                control = true;
-                                break;
-                            }
-                            if (filter.getOperator() == CollectionFilter.OPERATOR_LIKE && attr.getValue().contains(constraintValue)) {
-                                control = true;
-                                break;
-                            }
-                        } // end if attribute found from filter on entity.
-                        
-                    } // for each filters.
-                    if (control) {
-                        // attribute found and filter respected.
-                        break;
-                    }
-                } // end for each entity attributes.
-                if (!control) {
-                    it.remove(); // remove this entity from collection, the entity doesnt respect constraints attrib and value.
-                }
-            }
-            
-            
-        } // has filters and has entities.
-        
-        // Position the start index if > 0.
-	// JP: start index starts with 1
-        if (startIndex > 1 && !entities.isEmpty()) {
-            int currentIndex = 0;
-            Iterator<Entity> it = entities.iterator();
-            while (it.hasNext()) {
-                Entity entity = it.next();
-		LOGGER.info("currentIndex=" + currentIndex + ", startIndex=" + startIndex);
-                if (currentIndex < (startIndex-1)) {
-                    it.remove();
-                } 
-                currentIndex++;
-            }
-        }
-        
-        // Max count, -1 infinite.
-        if (number >= 0) {
-            int count = 0;
-            Iterator<Entity> it = entities.iterator();
-            while (it.hasNext()) {
-                Entity entity = it.next();
-                count++;
-                if (count <= number) {
-                    
-                } else {
-                    it.remove();
-                }
-            }
-        }
-        
-        return entities;
+    private static List<Entity> filterEntities(final String owner, final int startIndex, final int number, final List<CollectionFilter> filters,
+            final CollectionSource source, final String afterId) {
+        int wanted = number < 0 ? -1 : Math.max(0, startIndex - 1) + number;
+        CollectionQueryPlan plan = CollectionQueryPlan.create(getIndexForOwner(owner), source, filters, wanted);
+        return plan.execute(startIndex, number, afterId);
     }
 
     /**
@@ -2121,6 +2253,22 @@ public class ConfigurationManager {
 		return attr;
 	}
 
+	/**
+	 * Set the value of an attribute state of an entity, created if needed.
+	 *
+	 * @param entity
+	 * @param name
+	 * @param value
+	 */
+	static void setAttributeState(final Entity entity, final String name, final String value) {
+		AttributeState attrState = getAttributeStateObject(entity, name);
+		if (attrState == null) {
+			entity.getAttributes().add(createAttributeState(name, value));
+		} else {
+			attrState.setValue(value);
+		}
+	}
+
 	/**
 	 * Get an attribute state object for key parameter.
 	 * 
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.occiware.clouddesigner.occi.Entity;
+
+/**
+ * Copy of an entity given to a connector (retrieve, update, action...), so
+ * the connector runs without the owner lock and never changes the entity of
+ * the configuration. The changes the connector has made on the copy are then
+ * applied to the entity on the owner's writer: only the attributes changed on
+ * the copy are set, the attributes changed meanwhile by other operations are
+ * kept.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class DetachedEntity {
+
+    /**
+     * Copies the entities, EcoreUtil.copy by default.
+     */
+    public interface Copier {
+
+        Entity copy(Entity entity);
+
+    }
+
+    public static final Copier EMF_COPIER = new Copier() {
+        @Override
+        public Entity copy(final Entity entity) {
+            return EcoreUtil.copy(entity);
+        }
+    };
+
+    private final String owner;
+
+    private final Entity entity;
+
+    private final Entity copy;
+
+    /**
+     * Attribute states and Ecore attribute values of the copy when it was
+     * made.
+     */
+    private final Map<String, String> baseStates;
+
+    private final Map<EAttribute, Object> baseValues;
+
+    private DetachedEntity(final String owner, final Entity entity, final Entity copy) {
+        this.owner = owner;
+        this.entity = entity;
+        this.copy = copy;
+        this.baseStates = ConfigurationManager.getEntityAttributesMap(copy.getAttributes());
+        this.baseValues = getValues(copy);
+    }
+
+    /**
+     * Copy an entity with the owner's read lock, from any thread (the owner's
+     * writer included).
+     *
+     * @param owner entity owner.
+     * @param entity entity of the owner's configuration.
+     * @param copier
+     * @return the detached copy.
+     */
+    public static DetachedEntity detach(final String owner, final Entity entity, final Copier copier) {
+        return ConfigurationManager.getOwnerExecutor(owner).read(new Callable<DetachedEntity>() {
+            @Override
+            public DetachedEntity call() {
+                return new DetachedEntity(owner, entity, copier.copy(entity));
+            }
+        });
+    }
+
+    /**
+     * @return the copy to give to the connector.
+     */
+    public Entity getCopy() {
+        return copy;
+    }
+
+    public Entity getEntity() {
+        return entity;
+    }
+
+    /**
+     * Apply the changes of the copy to the entity on the owner's writer (run
+     * directly from the writer), then index and publish the entity. Nothing
+     * is applied if the entity has been removed from the configuration since
+     * the copy.
+     *
+     * @return false if the entity is no longer on the configuration.
+     */
+    public boolean apply() {
+        return ConfigurationManager.getOwnerExecutor(owner).write(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                if (ConfigurationManager.findEntity(owner, entity.getId()) != entity) {
+                    return false;
+                }
+                boolean changed = false;
+                Map<EAttribute, Object> values = getValues(copy);
+                for (Map.Entry<EAttribute, Object> value : values.entrySet()) {
+                    if (!Objects.equals(value.getValue(), baseValues.get(value.getKey()))) {
+                        entity.eSet(value.getKey(), value.getValue());
+                        changed = true;
+                    }
+                }
+                Map<String, String> states = ConfigurationManager.getEntityAttributesMap(copy.getAttributes());
+                for (Map.Entry<String, String> state : states.entrySet()) {
+                    if (!Objects.equals(state.getValue(), baseStates.get(state.getKey()))) {
+                        ConfigurationManager.setAttributeState(entity, state.getKey(), state.getValue());
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    ConfigurationManager.updateVersion(owner, entity.getId());
+                }
+                ConfigurationManager.updateEntityIndexes(owner, entity);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * @return the values of the changeable Ecore attributes of an entity,
+     * many-valued attributes are copied.
+     */
+    private static Map<EAttribute, Object> getValues(final Entity entity) {
+        Map<EAttribute, Object> values = new HashMap<>();
+        EClass eClass = entity.eClass();
+        if (eClass == null) {
+            return values;
+        }
+        for (EAttribute attribute : eClass.getEAllAttributes()) {
+            if (!attribute.isChangeable() || attribute.isDerived()) {
+                continue;
+            }
+            Object value = entity.eGet(attribute);
+            if (attribute.isMany() && value != null) {
+                value = new ArrayList<>((List<?>) value);
+            }
+            values.put(attribute, value);
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,556 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.Arrays;
+
+/**
+ * Compressed bitmap of entity ordinals (see EntityOrdinals). Ordinals are
+ * split in chunks of 65536 values, a chunk is kept as a sorted array of its
+ * values while it is sparse and as a bitset when it is dense, so a category
+ * or an attribute value with few entities costs a few bytes per entity
+ * whatever the size of the configuration. Intersections and unions of dense
+ * chunks are done 64 ordinals at a time.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class EntityBitmap {
+
+    /**
+     * Maximum number of values of an array chunk, a bitset chunk has the
+     * same size (1024 words).
+     */
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    private static final int BITSET_WORDS = 1024;
+
+    /**
+     * High 16 bits of the chunks ordinals, sorted.
+     */
+    private int[] keys = new int[4];
+
+    private Container[] containers = new Container[4];
+
+    private int containerCount;
+
+    /**
+     * @param ordinal
+     * @return true if the ordinal was not already set.
+     */
+    public boolean add(final int ordinal) {
+        checkOrdinal(ordinal);
+        int key = ordinal >>> 16;
+        int i = findContainer(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, key, new ArrayContainer());
+        }
+        Container container = containers[i];
+        int cardinality = container.cardinality();
+        containers[i] = container.add((char) ordinal);
+        return containers[i].cardinality() > cardinality;
+    }
+
+    /**
+     * @param ordinal
+     * @return true if the ordinal was set.
+     */
+    public boolean remove(final int ordinal) {
+        if (ordinal < 0) {
+            return false;
+        }
+        int i = findContainer(ordinal >>> 16);
+        if (i < 0) {
+            return false;
+        }
+        Container container = containers[i];
+        int cardinality = container.cardinality();
+        container = container.remove((char) ordinal);
+        if (container.cardinality() == 0) {
+            removeContainer(i);
+        } else {
+            containers[i] = container;
+        }
+        return container.cardinality() < cardinality;
+    }
+
+    /**
+     * @param ordinal
+     * @return true if the ordinal is set.
+     */
+    public boolean contains(final int ordinal) {
+        if (ordinal < 0) {
+            return false;
+        }
+        int i = findContainer(ordinal >>> 16);
+        return i >= 0 && containers[i].contains((char) ordinal);
+    }
+
+    /**
+     * @return number of ordinals set.
+     */
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < containerCount; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * @return true if no ordinal is set.
+     */
+    public boolean isEmpty() {
+        return containerCount == 0;
+    }
+
+    /**
+     * Walk the ordinals as with java.util.BitSet:
+     * for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1)).
+     *
+     * @param fromOrdinal
+     * @return the first ordinal set from this one (inclusive), -1 if none.
+     */
+    public int nextSetBit(final int fromOrdinal) {
+        int from = fromOrdinal < 0 ? 0 : fromOrdinal;
+        int i = findContainer(from >>> 16);
+        int low = from & 0xFFFF;
+        if (i < 0) {
+            i = -i - 1;
+            low = 0;
+        }
+        for (; i < containerCount; i++) {
+            int value = containers[i].next(low);
+            if (value >= 0) {
+                return (keys[i] << 16) | value;
+            }
+            low = 0;
+        }
+        return -1;
+    }
+
+    /**
+     * @param other
+     * @return a new bitmap with the ordinals set on both bitmaps.
+     */
+    public EntityBitmap and(final EntityBitmap other) {
+        EntityBitmap result = new EntityBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < containerCount && j < other.containerCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.appendContainer(keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other
+     * @return a new bitmap with the ordinals set on one of the bitmaps.
+     */
+    public EntityBitmap or(final EntityBitmap other) {
+        EntityBitmap result = new EntityBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < containerCount || j < other.containerCount) {
+            if (j >= other.containerCount || (i < containerCount && keys[i] < other.keys[j])) {
+                result.appendContainer(keys[i], containers[i].copy());
+                i++;
+            } else if (i >= containerCount || keys[i] > other.keys[j]) {
+                result.appendContainer(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.appendContainer(keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of this bitmap.
+     */
+    public EntityBitmap copy() {
+        EntityBitmap result = new EntityBitmap();
+        for (int i = 0; i < containerCount; i++) {
+            result.appendContainer(keys[i], containers[i].copy());
+        }
+        return result;
+    }
+
+    /**
+     * Remove all ordinals.
+     */
+    public void clear() {
+        keys = new int[4];
+        containers = new Container[4];
+        containerCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(i);
+        }
+        return builder.append('}').toString();
+    }
+
+    private static void checkOrdinal(final int ordinal) {
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("Negative ordinal : " + ordinal);
+        }
+    }
+
+    private int findContainer(final int key) {
+        return Arrays.binarySearch(keys, 0, containerCount, key);
+    }
+
+    private void insertContainer(final int index, final int key, final Container container) {
+        ensureCapacity(containerCount + 1);
+        System.arraycopy(keys, index, keys, index + 1, containerCount - index);
+        System.arraycopy(containers, index, containers, index + 1, containerCount - index);
+        keys[index] = key;
+        containers[index] = container;
+        containerCount++;
+    }
+
+    private void appendContainer(final int key, final Container container) {
+        ensureCapacity(containerCount + 1);
+        keys[containerCount] = key;
+        containers[containerCount] = container;
+        containerCount++;
+    }
+
+    private void removeContainer(final int index) {
+        System.arraycopy(keys, index + 1, keys, index, containerCount - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, containerCount - index - 1);
+        containerCount--;
+        containers[containerCount] = null;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > keys.length) {
+            int newCapacity = Math.max(capacity, keys.length * 2);
+            keys = Arrays.copyOf(keys, newCapacity);
+            containers = Arrays.copyOf(containers, newCapacity);
+        }
+    }
+
+    /**
+     * The low 16 bits of the ordinals of a chunk.
+     */
+    private abstract static class Container {
+
+        abstract int cardinality();
+
+        abstract boolean contains(char low);
+
+        /**
+         * @return this container or its replacement.
+         */
+        abstract Container add(char low);
+
+        /**
+         * @return this container or its replacement.
+         */
+        abstract Container remove(char low);
+
+        /**
+         * @return the first value from low (inclusive), -1 if none.
+         */
+        abstract int next(int low);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+    }
+
+    /**
+     * Sparse chunk: sorted values.
+     */
+    private static final class ArrayContainer extends Container {
+
+        private char[] values;
+        private int size;
+
+        private ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        private ArrayContainer(final char[] values, final int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        boolean contains(final char low) {
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        @Override
+        Container add(final char low) {
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0) {
+                return this;
+            }
+            if (size == ARRAY_MAX_SIZE) {
+                return toBitset().add(low);
+            }
+            index = -index - 1;
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX_SIZE, Math.max(4, size * 2)));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = low;
+            size++;
+            return this;
+        }
+
+        @Override
+        Container remove(final char low) {
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, size - index - 1);
+                size--;
+            }
+            return this;
+        }
+
+        @Override
+        int next(final int low) {
+            int index = Arrays.binarySearch(values, 0, size, (char) low);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index < size ? values[index] : -1;
+        }
+
+        @Override
+        Container and(final Container other) {
+            char[] result = new char[Math.min(size, other.cardinality())];
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < size && j < array.size) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container or(final Container other) {
+            if (!(other instanceof ArrayContainer)) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            char[] result = new char[size + array.size];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < size || j < array.size) {
+                if (j >= array.size || (i < size && values[i] < array.values[j])) {
+                    result[count++] = values[i++];
+                } else if (i >= size || values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            ArrayContainer union = new ArrayContainer(result, count);
+            return count > ARRAY_MAX_SIZE ? union.toBitset() : union;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(size, 1)), size);
+        }
+
+        private BitsetContainer toBitset() {
+            BitsetContainer bitset = new BitsetContainer();
+            for (int i = 0; i < size; i++) {
+                bitset.add(values[i]);
+            }
+            return bitset;
+        }
+    }
+
+    /**
+     * Dense chunk: one bit per value.
+     */
+    private static final class BitsetContainer extends Container {
+
+        private final long[] words;
+        private int cardinality;
+
+        private BitsetContainer() {
+            this(new long[BITSET_WORDS], 0);
+        }
+
+        private BitsetContainer(final long[] words, final int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(final char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(final char low) {
+            long word = words[low >>> 6];
+            long bit = 1L << low;
+            if ((word & bit) == 0) {
+                words[low >>> 6] = word | bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(final char low) {
+            long word = words[low >>> 6];
+            long bit = 1L << low;
+            if ((word & bit) != 0) {
+                words[low >>> 6] = word & ~bit;
+                cardinality--;
+            }
+            // Half the array limit, so that a chunk around the limit doesnt
+            // switch on each update.
+            return cardinality < ARRAY_MAX_SIZE / 2 ? toArray(words, cardinality) : this;
+        }
+
+        @Override
+        int next(final int low) {
+            int index = low >>> 6;
+            if (index >= BITSET_WORDS) {
+                return -1;
+            }
+            long word = words[index] & (-1L << low);
+            while (true) {
+                if (word != 0) {
+                    return (index << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++index == BITSET_WORDS) {
+                    return -1;
+                }
+                word = words[index];
+            }
+        }
+
+        @Override
+        Container and(final Container other) {
+            if (!(other instanceof BitsetContainer)) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitsetContainer) other).words;
+            long[] result = new long[BITSET_WORDS];
+            int count = 0;
+            for (int i = 0; i < BITSET_WORDS; i++) {
+                result[i] = words[i] & otherWords[i];
+                count += Long.bitCount(result[i]);
+            }
+            return count > ARRAY_MAX_SIZE ? new BitsetContainer(result, count) : toArray(result, count);
+        }
+
+        @Override
+        Container or(final Container other) {
+            long[] result = words.clone();
+            int count = 0;
+            if (other instanceof BitsetContainer) {
+                long[] otherWords = ((BitsetContainer) other).words;
+                for (int i = 0; i < BITSET_WORDS; i++) {
+                    result[i] |= otherWords[i];
+                    count += Long.bitCount(result[i]);
+                }
+            } else {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int i = 0; i < array.size; i++) {
+                    result[array.values[i] >>> 6] |= 1L << array.values[i];
+                }
+                for (long word : result) {
+                    count += Long.bitCount(word);
+                }
+            }
+            return new BitsetContainer(result, count);
+        }
+
+        @Override
+        Container copy() {
+            return new BitsetContainer(words.clone(), cardinality);
+        }
+
+        private static ArrayContainer toArray(final long[] words, final int cardinality) {
+            char[] values = new char[Math.max(cardinality, 1)];
+            int count = 0;
+            for (int i = 0; i < BITSET_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[count++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Dense integer ordinals of the entities of an owner's index, used as bit
+ * positions on EntityBitmap. Ordinals of removed entities are reused, so
+ * ordinals stay below the number of entities ever referenced at the same
+ * time.
+ *
+ * @author Christophe Gourdin - Inria
+ * @param <E> type of the indexed entities.
+ */
+public class EntityOrdinals<E> {
+
+    private final Map<E, Integer> ordinalsByEntity = new HashMap<>();
+
+    /**
+     * Entity of each ordinal, null for free ordinals.
+     */
+    private final List<E> entitiesByOrdinal = new ArrayList<>();
+
+    private final Deque<Integer> freeOrdinals = new ArrayDeque<>();
+
+    /**
+     * Give an ordinal to an entity, the entity keeps its ordinal until it is
+     * released.
+     *
+     * @param entity
+     * @return the entity ordinal.
+     */
+    public int acquire(final E entity) {
+        Integer ordinal = ordinalsByEntity.get(entity);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        if (freeOrdinals.isEmpty()) {
+            ordinal = entitiesByOrdinal.size();
+            entitiesByOrdinal.add(entity);
+        } else {
+            ordinal = freeOrdinals.pop();
+            entitiesByOrdinal.set(ordinal, entity);
+        }
+        ordinalsByEntity.put(entity, ordinal);
+        return ordinal;
+    }
+
+    /**
+     * Free the ordinal of an entity, the entity must have been removed from
+     * the bitmaps before.
+     *
+     * @param entity
+     */
+    public void release(final E entity) {
+        Integer ordinal = ordinalsByEntity.remove(entity);
+        if (ordinal != null) {
+            entitiesByOrdinal.set(ordinal, null);
+            freeOrdinals.push(ordinal);
+        }
+    }
+
+    /**
+     * @param entity
+     * @return the entity ordinal, -1 if none.
+     */
+    public int getOrdinal(final Object entity) {
+        Integer ordinal = ordinalsByEntity.get(entity);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * @param ordinal
+     * @return the entity with this ordinal, null if none.
+     */
+    public E getEntity(final int ordinal) {
+        if (ordinal < 0 || ordinal >= entitiesByOrdinal.size()) {
+            return null;
+        }
+        return entitiesByOrdinal.get(ordinal);
+    }
+
+    /**
+     * @param bitmap ordinals.
+     * @return an unmodifiable view of the entities of a bitmap, the bitmap
+     * must not be modified while iterating.
+     */
+    public Set<E> asSet(final EntityBitmap bitmap) {
+        if (bitmap == null) {
+            return Collections.emptySet();
+        }
+        return new AbstractSet<E>() {
+            @Override
+            public Iterator<E> iterator() {
+                return new Iterator<E>() {
+                    private int next = bitmap.nextSetBit(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next >= 0;
+                    }
+
+                    @Override
+                    public E next() {
+                        if (next < 0) {
+                            throw new NoSuchElementException();
+                        }
+                        E entity = getEntity(next);
+                        next = bitmap.nextSetBit(next + 1);
+                        return entity;
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(final Object entity) {
+                return bitmap.contains(getOrdinal(entity));
+            }
+
+            @Override
+            public int size() {
+                return bitmap.getCardinality();
+            }
+        };
+    }
+
+    /**
+     * Release all ordinals.
+     */
+    public void clear() {
+        ordinalsByEntity.clear();
+        entitiesByOrdinal.clear();
+        freeOrdinals.clear();
+    }
+
+}
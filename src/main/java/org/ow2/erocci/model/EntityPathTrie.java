@@ -0,0 +1,390 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * Trie of entity locations, one node per path segment. For example
+ * "compute/vm1" and "compute/vm10" are two distinct children of the node
+ * "compute", so a query on "compute/vm1" never matches "compute/vm10".
+ *
+ * Children are sorted by segment, values are returned ordered by location.
+ *
+ * @author Christophe Gourdin - Inria
+ * @param <E> type of the referenced values.
+ */
+public class EntityPathTrie<E> {
+
+    /**
+     * Order of the locations on this trie: segment by segment, a location
+     * comes before the locations under it.
+     */
+    public static final Comparator<String> LOCATION_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(final String location1, final String location2) {
+            return compareLocations(location1, location2);
+        }
+    };
+
+    private final Node<E> root = new Node<>();
+
+    /**
+     * Reference a value on a location, replacing the previous one if any.
+     *
+     * @param location (like "compute/vm1" or "/compute/vm1/")
+     * @param value
+     * @return the previous value on this location, null if none.
+     */
+    public E put(final String location, final E value) {
+        String[] segments = split(location);
+        List<Node<E>> path = new ArrayList<>(segments.length + 1);
+        Node<E> node = root;
+        path.add(node);
+        for (String segment : segments) {
+            Node<E> child = node.children.get(segment);
+            if (child == null) {
+                child = new Node<>();
+                node.children.put(segment, child);
+            }
+            node = child;
+            path.add(node);
+        }
+        E previous = node.value;
+        node.value = value;
+        if (previous == null && value != null) {
+            for (Node<E> parent : path) {
+                parent.count++;
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Remove the value on a location, empty nodes are pruned.
+     *
+     * @param location
+     * @return the removed value, null if none.
+     */
+    public E remove(final String location) {
+        String[] segments = split(location);
+        List<Node<E>> path = new ArrayList<>(segments.length + 1);
+        Node<E> node = root;
+        path.add(node);
+        for (String segment : segments) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+            path.add(node);
+        }
+        E previous = node.value;
+        if (previous == null) {
+            return null;
+        }
+        node.value = null;
+        for (Node<E> parent : path) {
+            parent.count--;
+        }
+        // Prune the nodes without any value left below them.
+        for (int i = segments.length; i > 0; i--) {
+            if (path.get(i).count == 0) {
+                path.get(i - 1).children.remove(segments[i - 1]);
+            } else {
+                break;
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * @param location
+     * @return the value on this exact location, null if none.
+     */
+    public E get(final String location) {
+        Node<E> node = findNode(location);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Get the value on a location and all values under it, ordered by
+     * location.
+     *
+     * @param location (like "compute" or "/compute/", empty or "/" for all
+     * values).
+     * @return a list of values, empty if none.
+     */
+    public List<E> collect(final String location) {
+        Node<E> node = findNode(location);
+        if (node == null) {
+            return new ArrayList<>();
+        }
+        List<E> values = new ArrayList<>(node.count);
+        collect(node, values);
+        return values;
+    }
+
+    /**
+     * Iterate over the values under a location which come strictly after
+     * another location, ordered by location. The start is found by walking
+     * down the trie, values before it are not visited. The trie must not be
+     * modified while iterating.
+     *
+     * @param location (like "compute", empty or "/" for all values).
+     * @param afterLocation null to iterate from the first value.
+     * @return an iterator of values.
+     */
+    public Iterator<E> iterator(final String location, final String afterLocation) {
+        Node<E> node = findNode(location);
+        ValueIterator<E> it = new ValueIterator<>();
+        if (node == null) {
+            return it;
+        }
+        if (afterLocation == null) {
+            it.push(node, true);
+            return it;
+        }
+        String[] segments = split(location);
+        String[] afterSegments = split(afterLocation);
+        if (!isPrefix(segments, afterSegments)) {
+            // The start is outside of this location.
+            if (compareLocations(afterLocation, location) < 0) {
+                it.push(node, true);
+            }
+            return it;
+        }
+        // Push the following siblings of each node on the start path, the
+        // deepest ones are visited first.
+        for (int i = segments.length; i < afterSegments.length; i++) {
+            it.stack.push(node.children.tailMap(afterSegments[i], false).values().iterator());
+            node = node.children.get(afterSegments[i]);
+            if (node == null) {
+                return it;
+            }
+        }
+        it.push(node, false);
+        return it;
+    }
+
+    /**
+     * @param location
+     * @return the number of values on this location and under it.
+     */
+    public int count(final String location) {
+        Node<E> node = findNode(location);
+        return node == null ? 0 : node.count;
+    }
+
+    /**
+     * @return the number of referenced values.
+     */
+    public int size() {
+        return root.count;
+    }
+
+    /**
+     * Remove all values.
+     */
+    public void clear() {
+        root.children.clear();
+        root.value = null;
+        root.count = 0;
+    }
+
+    /**
+     * Split a location on its non empty segments.
+     *
+     * @param location
+     * @return segments, empty array for root location.
+     */
+    public static String[] split(final String location) {
+        if (location == null || location.isEmpty()) {
+            return new String[0];
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : location.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    /**
+     * Compare two locations segment by segment, a location comes before the
+     * locations under it.
+     *
+     * @param location1
+     * @param location2
+     * @return a negative integer, zero, or a positive integer as location1
+     * is before, equal to, or after location2.
+     */
+    public static int compareLocations(final String location1, final String location2) {
+        // Same as comparing the split segments, without allocations.
+        String loc1 = location1 == null ? "" : location1;
+        String loc2 = location2 == null ? "" : location2;
+        int length1 = loc1.length();
+        int length2 = loc2.length();
+        int i1 = 0;
+        int i2 = 0;
+        while (true) {
+            while (i1 < length1 && loc1.charAt(i1) == '/') {
+                i1++;
+            }
+            while (i2 < length2 && loc2.charAt(i2) == '/') {
+                i2++;
+            }
+            if (i1 >= length1 || i2 >= length2) {
+                return Boolean.compare(i1 < length1, i2 < length2);
+            }
+            int end1 = loc1.indexOf('/', i1);
+            int end2 = loc2.indexOf('/', i2);
+            if (end1 < 0) {
+                end1 = length1;
+            }
+            if (end2 < 0) {
+                end2 = length2;
+            }
+            int segmentLength1 = end1 - i1;
+            int segmentLength2 = end2 - i2;
+            int limit = Math.min(segmentLength1, segmentLength2);
+            for (int k = 0; k < limit; k++) {
+                char c1 = loc1.charAt(i1 + k);
+                char c2 = loc2.charAt(i2 + k);
+                if (c1 != c2) {
+                    return c1 - c2;
+                }
+            }
+            if (segmentLength1 != segmentLength2) {
+                return segmentLength1 - segmentLength2;
+            }
+            i1 = end1;
+            i2 = end2;
+        }
+    }
+
+    /**
+     * @param location
+     * @param path
+     * @return true if location is this path or under it, whole segments are
+     * compared.
+     */
+    public static boolean isUnder(final String location, final String path) {
+        return isPrefix(split(path), split(location));
+    }
+
+    private static boolean isPrefix(final String[] prefix, final String[] segments) {
+        if (prefix.length > segments.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (!prefix[i].equals(segments[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Node<E> findNode(final String location) {
+        Node<E> node = root;
+        for (String segment : split(location)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private static <E> void collect(final Node<E> node, final List<E> values) {
+        if (node.value != null) {
+            values.add(node.value);
+        }
+        Iterator<Node<E>> it = node.children.values().iterator();
+        while (it.hasNext()) {
+            collect(it.next(), values);
+        }
+    }
+
+    /**
+     * A path segment node.
+     */
+    private static class Node<E> {
+
+        private final NavigableMap<String, Node<E>> children = new TreeMap<>();
+        private E value;
+        /**
+         * Number of values on this node and its descendants.
+         */
+        private int count;
+    }
+
+    /**
+     * Depth first iterator of node values, each stack element iterates over
+     * the remaining children of a node.
+     */
+    private static class ValueIterator<E> implements Iterator<E> {
+
+        private final Deque<Iterator<Node<E>>> stack = new ArrayDeque<>();
+        private E nextValue;
+
+        private void push(final Node<E> node, final boolean withValue) {
+            stack.push(node.children.values().iterator());
+            if (withValue) {
+                nextValue = node.value;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextValue == null && !stack.isEmpty()) {
+                Iterator<Node<E>> children = stack.peek();
+                if (!children.hasNext()) {
+                    stack.pop();
+                    continue;
+                }
+                Node<E> child = children.next();
+                stack.push(child.children.values().iterator());
+                nextValue = child.value;
+            }
+            return nextValue != null;
+        }
+
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E value = nextValue;
+            nextValue = null;
+            return value;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
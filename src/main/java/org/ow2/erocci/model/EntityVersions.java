@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Version numbers of the entities of an owner, used to build eTags. Each
+ * entity has its own atomic counter, versions are read and incremented
+ * without lock. The first version is 1.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class EntityVersions {
+
+    public static final int FIRST_VERSION = 1;
+
+    private final ConcurrentMap<String, AtomicInteger> versions = new ConcurrentHashMap<>();
+
+    /**
+     * Increment the version of an entity.
+     *
+     * @param id entity id.
+     * @return the new version.
+     */
+    public int increment(final String id) {
+        AtomicInteger version = versions.get(id);
+        if (version == null) {
+            version = new AtomicInteger(FIRST_VERSION);
+            AtomicInteger previous = versions.putIfAbsent(id, version);
+            if (previous != null) {
+                version = previous;
+            }
+        }
+        return version.incrementAndGet();
+    }
+
+    /**
+     * @param id entity id.
+     * @return the entity version, FIRST_VERSION if never updated.
+     */
+    public int get(final String id) {
+        AtomicInteger version = versions.get(id);
+        return version == null ? FIRST_VERSION : version.get();
+    }
+
+    public void clear() {
+        versions.clear();
+    }
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.occiware.clouddesigner.occi.Entity;
+import org.occiware.clouddesigner.occi.Link;
+import org.occiware.clouddesigner.occi.Mixin;
+import org.occiware.clouddesigner.occi.Resource;
+import org.ow2.erocci.backend.impl.Utils;
+
+/**
+ * Immutable copy of an entity as returned by Get, published by the owner's
+ * writer after each change so it is read without lock.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class EntityView {
+
+    private final String id;
+
+    private final String kind;
+
+    private final List<String> mixins;
+
+    /**
+     * Attributes with occi.core.id, and occi.core.source / occi.core.target
+     * for links.
+     */
+    private final Map<String, String> attributes;
+
+    /**
+     * Link locations of a resource, source and target locations of a link.
+     */
+    private final List<String> links;
+
+    /**
+     * Version of the entity (see ConfigurationManager.updateVersion).
+     */
+    private final int version;
+
+    /**
+     * Version of the owner's views where this view was published.
+     */
+    private final long snapshotVersion;
+
+    /**
+     * Serial derived from the version and the content of the entity.
+     */
+    private final long serial;
+
+    private EntityView(final String id, final String kind, final List<String> mixins,
+            final Map<String, String> attributes, final List<String> links, final int version,
+            final long snapshotVersion) {
+        this.id = id;
+        this.kind = kind;
+        this.mixins = Collections.unmodifiableList(mixins);
+        this.attributes = Collections.unmodifiableMap(attributes);
+        this.links = Collections.unmodifiableList(links);
+        this.version = version;
+        this.snapshotVersion = snapshotVersion;
+        this.serial = Utils.createSerial(version, Objects.hash(kind, mixins, attributes, links));
+    }
+
+    /**
+     * Copy an entity, to call by the owner's writer.
+     *
+     * @param entity
+     * @param version entity version.
+     * @param snapshotVersion version of the owner's views being published.
+     * @return the entity view.
+     */
+    public static EntityView of(final Entity entity, final int version, final long snapshotVersion) {
+        List<String> mixins = new ArrayList<>();
+        for (Mixin mixin : entity.getMixins()) {
+            mixins.add(mixin.getScheme() + mixin.getTerm());
+        }
+        Map<String, String> attributes = ConfigurationManager.getEntityAttributesMap(entity.getAttributes());
+        attributes.put("occi.core.id", Utils.getUUIDFromId(entity.getId(), attributes));
+
+        List<String> links = new ArrayList<>();
+        if (entity instanceof Resource) {
+            for (Link link : ((Resource) entity).getLinks()) {
+                links.add(link.getId().startsWith("/") ? link.getId() : "/" + link.getId());
+            }
+        } else if (entity instanceof Link) {
+            Link link = (Link) entity;
+            if (link.getSource() != null) {
+                links.add("/" + link.getSource().getId());
+                attributes.put("occi.core.source", "/" + link.getSource().getId());
+            }
+            if (link.getTarget() != null) {
+                links.add("/" + link.getTarget().getId());
+                attributes.put("occi.core.target", "/" + link.getTarget().getId());
+            }
+        }
+        String kind = entity.getKind() == null ? null : entity.getKind().getScheme() + entity.getKind().getTerm();
+        return new EntityView(entity.getId(), kind, mixins, attributes, links, version, snapshotVersion);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return kind id (scheme + term).
+     */
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     * @return mixin ids (scheme + term).
+     */
+    public List<String> getMixins() {
+        return mixins;
+    }
+
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    public List<String> getLinks() {
+        return links;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+
+    /**
+     * @return the serial of this entity state, unchanged while the entity
+     * does not change (also after a restart).
+     */
+    public long getSerial() {
+        return serial;
+    }
+
+}
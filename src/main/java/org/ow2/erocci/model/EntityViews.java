@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.occiware.clouddesigner.occi.Entity;
+
+/**
+ * Published views of the entities of an owner. The owner's writer publishes
+ * the views of the entities changed by a mutation when it completes, readers
+ * get the last published view of an entity without lock. Each publication
+ * increments the snapshot version of the owner.
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class EntityViews {
+
+    private final ConcurrentMap<String, EntityView> views = new ConcurrentHashMap<>();
+
+    private volatile long snapshotVersion;
+
+    /**
+     * Publish the views of changed entities, to call by the owner's writer.
+     *
+     * @param index owner's index, gives the changed entities.
+     * @param versions owner's entity versions.
+     */
+    void publish(final ConfigurationIndex index, final EntityVersions versions) {
+        List<String> changedIds = index.drainChangedIds();
+        if (changedIds.isEmpty()) {
+            return;
+        }
+        long version = snapshotVersion + 1;
+        for (String id : changedIds) {
+            Entity entity = index.getEntity(id);
+            if (entity == null) {
+                views.remove(id);
+            } else {
+                views.put(id, EntityView.of(entity, versions.get(id), version));
+            }
+        }
+        snapshotVersion = version;
+    }
+
+    /**
+     * @param id entity id.
+     * @return the last published view of this entity, null if none.
+     */
+    public EntityView get(final String id) {
+        return views.get(id);
+    }
+
+    /**
+     * @return the version of the last publication.
+     */
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+
+    void clear() {
+        views.clear();
+    }
+
+}
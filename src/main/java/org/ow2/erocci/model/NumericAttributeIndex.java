@@ -0,0 +1,250 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Sorted index of numeric attribute values: attribute name, then parsed
+ * value, then the entities having this value. Used by numeric range filters,
+ * values which are not numbers are not referenced.
+ *
+ * @author Christophe Gourdin - Inria
+ * @param <E> type of the indexed entities.
+ */
+public class NumericAttributeIndex<E> {
+
+    /**
+     * Indexed attribute names, lower case.
+     */
+    private final Set<String> indexedNames = new HashSet<>();
+
+    /**
+     * Key: attribute name (lower case), value: entities by numeric value.
+     */
+    private final Map<String, NavigableMap<Double, Set<E>>> entitiesByValue = new HashMap<>();
+
+    /**
+     * Indexed values of each entity, key: attribute name (lower case).
+     */
+    private final Map<E, Map<String, Double>> valuesByEntity = new HashMap<>();
+
+    /**
+     * Build an index on these attribute names.
+     *
+     * @param attributeNames
+     */
+    public NumericAttributeIndex(final Collection<String> attributeNames) {
+        for (String name : attributeNames) {
+            indexedNames.add(name.toLowerCase());
+        }
+    }
+
+    /**
+     * @param attributeName
+     * @return true if this attribute is indexed.
+     */
+    public boolean isIndexed(final String attributeName) {
+        return attributeName != null && indexedNames.contains(attributeName.toLowerCase());
+    }
+
+    /**
+     * @return true if no attributes are indexed.
+     */
+    public boolean isEmpty() {
+        return indexedNames.isEmpty();
+    }
+
+    /**
+     * Reference the current attribute values of an entity, replacing the
+     * previously referenced values.
+     *
+     * @param entity
+     * @param attributes (key: attribute name, value: attribute value).
+     */
+    public void update(final E entity, final Map<String, String> attributes) {
+        if (indexedNames.isEmpty()) {
+            return;
+        }
+        Map<String, Double> values = new HashMap<>();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            String name = entry.getKey() == null ? null : entry.getKey().toLowerCase();
+            if (name != null && entry.getValue() != null && indexedNames.contains(name)) {
+                Double value = parse(entry.getValue());
+                if (value != null) {
+                    values.put(name, value);
+                }
+            }
+        }
+        if (values.equals(valuesByEntity.get(entity))) {
+            return;
+        }
+        remove(entity);
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            NavigableMap<Double, Set<E>> entities = entitiesByValue.get(entry.getKey());
+            if (entities == null) {
+                entities = new TreeMap<>();
+                entitiesByValue.put(entry.getKey(), entities);
+            }
+            Set<E> valueEntities = entities.get(entry.getValue());
+            if (valueEntities == null) {
+                valueEntities = new LinkedHashSet<>();
+                entities.put(entry.getValue(), valueEntities);
+            }
+            valueEntities.add(entity);
+        }
+        valuesByEntity.put(entity, values);
+    }
+
+    /**
+     * Unreference an entity.
+     *
+     * @param entity
+     */
+    public void remove(final E entity) {
+        Map<String, Double> values = valuesByEntity.remove(entity);
+        if (values == null) {
+            return;
+        }
+        for (Map.Entry<String, Double> entry : values.entrySet()) {
+            NavigableMap<Double, Set<E>> entities = entitiesByValue.get(entry.getKey());
+            if (entities == null) {
+                continue;
+            }
+            Set<E> valueEntities = entities.get(entry.getValue());
+            if (valueEntities != null) {
+                valueEntities.remove(entity);
+                if (valueEntities.isEmpty()) {
+                    entities.remove(entry.getValue());
+                }
+            }
+            if (entities.isEmpty()) {
+                entitiesByValue.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Get the entities with a value in a range.
+     *
+     * @param attributeName
+     * @param min lower bound, null if none.
+     * @param minInclusive
+     * @param max upper bound, null if none.
+     * @param maxInclusive
+     * @return entities in this range, never null.
+     */
+    public Set<E> getEntities(final String attributeName, final Double min, final boolean minInclusive,
+            final Double max, final boolean maxInclusive) {
+        Set<E> result = new HashSet<>();
+        NavigableMap<Double, Set<E>> range = getRange(attributeName, min, minInclusive, max, maxInclusive);
+        if (range != null) {
+            for (Set<E> valueEntities : range.values()) {
+                result.addAll(valueEntities);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Count the entities with a value in a range, without building the
+     * entity set.
+     *
+     * @param attributeName
+     * @param min lower bound, null if none.
+     * @param minInclusive
+     * @param max upper bound, null if none.
+     * @param maxInclusive
+     * @return the number of entities in this range.
+     */
+    public int count(final String attributeName, final Double min, final boolean minInclusive,
+            final Double max, final boolean maxInclusive) {
+        int count = 0;
+        NavigableMap<Double, Set<E>> range = getRange(attributeName, min, minInclusive, max, maxInclusive);
+        if (range != null) {
+            for (Set<E> valueEntities : range.values()) {
+                count += valueEntities.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check the indexed value of an entity.
+     *
+     * @param entity
+     * @param attributeName
+     * @param min lower bound, null if none.
+     * @param minInclusive
+     * @param max upper bound, null if none.
+     * @param maxInclusive
+     * @return true if the entity has a value in this range.
+     */
+    public boolean isInRange(final E entity, final String attributeName, final Double min, final boolean minInclusive,
+            final Double max, final boolean maxInclusive) {
+        Map<String, Double> values = valuesByEntity.get(entity);
+        Double value = values == null || attributeName == null ? null : values.get(attributeName.toLowerCase());
+        if (value == null || (min == null && max == null)) {
+            return false;
+        }
+        if (min != null && (minInclusive ? value < min : value <= min)) {
+            return false;
+        }
+        return max == null || (maxInclusive ? value <= max : value < max);
+    }
+
+    private NavigableMap<Double, Set<E>> getRange(final String attributeName, final Double min, final boolean minInclusive,
+            final Double max, final boolean maxInclusive) {
+        NavigableMap<Double, Set<E>> entities = attributeName == null ? null : entitiesByValue.get(attributeName.toLowerCase());
+        if (entities == null || (min == null && max == null)) {
+            return null;
+        }
+        if (min != null && max != null) {
+            if (min > max) {
+                return null;
+            }
+            return entities.subMap(min, minInclusive, max, maxInclusive);
+        } else if (min != null) {
+            return entities.tailMap(min, minInclusive);
+        }
+        return entities.headMap(max, maxInclusive);
+    }
+
+    /**
+     * Remove all references.
+     */
+    public void clear() {
+        entitiesByValue.clear();
+        valuesByEntity.clear();
+    }
+
+    private static Double parse(final String value) {
+        try {
+            Double number = Double.valueOf(value.trim());
+            return number.isNaN() ? null : number;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+}
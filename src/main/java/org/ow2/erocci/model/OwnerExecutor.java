@@ -0,0 +1,165 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Single writer of an owner's configuration: the mutations of an owner are
+ * run one after the other on its own thread, so owners never contend with
+ * each other. Reads run on the caller thread with the owner's read lock, in
+ * parallel with the reads and with the writes of the other owners.
+ *
+ * Owner operations also hold the store read lock of ConfigurationManager,
+ * operations on all owners hold its write lock. Entity views published by the
+ * writer are read without any lock (see EntityViews).
+ *
+ * @author Christophe Gourdin - Inria
+ */
+public class OwnerExecutor {
+
+    /**
+     * Idle writer threads are stopped after this delay.
+     */
+    private static final long IDLE_TIMEOUT_SECONDS = 60;
+
+    private final String owner;
+
+    private final ReentrantReadWriteLock ownerLock = new ReentrantReadWriteLock();
+
+    private final ThreadPoolExecutor writer;
+
+    /**
+     * @param owner
+     */
+    public OwnerExecutor(final String owner) {
+        this.owner = owner;
+        this.writer = new ThreadPoolExecutor(1, 1, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(runnable, "erocci-owner-" + owner);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.writer.allowCoreThreadTimeOut(true);
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Run a mutation on the owner's writer thread and wait for its result. A
+     * mutation run from a mutation of the same owner is run directly. The
+     * views of the changed entities are published when the mutation ends.
+     *
+     * @param task
+     * @return the task result.
+     */
+    public <T> T write(final Callable<T> task) {
+        if (ownerLock.isWriteLockedByCurrentThread()) {
+            return callAndPublish(task);
+        }
+        Future<T> future = writer.submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                Lock storeLock = ConfigurationManager.getReadLock();
+                storeLock.lock();
+                ownerLock.writeLock().lock();
+                try {
+                    return callAndPublish(task);
+                } finally {
+                    ownerLock.writeLock().unlock();
+                    storeLock.unlock();
+                }
+            }
+        });
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for owner " + owner + " writer", ex);
+        } catch (ExecutionException ex) {
+            throw propagate(ex.getCause());
+        }
+    }
+
+    /**
+     * Run a read on the caller thread.
+     *
+     * @param task
+     * @return the task result.
+     */
+    public <T> T read(final Callable<T> task) {
+        Lock storeLock = ConfigurationManager.getReadLock();
+        storeLock.lock();
+        ownerLock.readLock().lock();
+        try {
+            return call(task);
+        } finally {
+            ownerLock.readLock().unlock();
+            storeLock.unlock();
+        }
+    }
+
+    /**
+     * Stop the writer thread, pending mutations are still run.
+     */
+    public void shutdown() {
+        writer.shutdown();
+    }
+
+    /**
+     * Run a mutation, then publish the views of the entities it has changed
+     * (also when it fails after a partial change).
+     */
+    private <T> T callAndPublish(final Callable<T> task) {
+        try {
+            return call(task);
+        } finally {
+            ConfigurationManager.publishEntityViews(owner);
+        }
+    }
+
+    private static <T> T call(final Callable<T> task) {
+        try {
+            return task.call();
+        } catch (Exception ex) {
+            throw propagate(ex);
+        }
+    }
+
+    private static RuntimeException propagate(final Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new RuntimeException(cause);
+    }
+
+}
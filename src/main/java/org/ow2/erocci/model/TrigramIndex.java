@@ -0,0 +1,318 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trigram index of attribute values, used to prune the candidates of LIKE
+ * (contains) collection filters: a value containing a pattern contains all
+ * the trigrams of this pattern. Candidates must still be checked with
+ * String.contains.
+ *
+ * Memory is bounded: values longer than maxValueLength are not split in
+ * trigrams, and no more trigram references are added once maxPostings is
+ * reached. Such values are kept on an overflow set, always returned as
+ * candidates.
+ *
+ * @author Christophe Gourdin - Inria
+ * @param <E> type of the indexed entities.
+ */
+public class TrigramIndex<E> {
+
+    public static final int GRAM_LENGTH = 3;
+
+    /**
+     * Indexed attribute names, lower case.
+     */
+    private final Set<String> indexedNames = new HashSet<>();
+
+    private final int maxValueLength;
+
+    private final long maxPostings;
+
+    /**
+     * Number of trigram references (entity by trigram).
+     */
+    private long postings = 0;
+
+    /**
+     * Key: attribute name (lower case), value: entities by trigram.
+     */
+    private final Map<String, Map<String, Set<E>>> entitiesByGram = new HashMap<>();
+
+    /**
+     * Key: attribute name (lower case), value: entities with a value not
+     * split in trigrams.
+     */
+    private final Map<String, Set<E>> overflow = new HashMap<>();
+
+    /**
+     * Indexed values of each entity, key: attribute name (lower case).
+     */
+    private final Map<E, Map<String, String>> valuesByEntity = new HashMap<>();
+
+    /**
+     * Entities with a value referenced on overflow, key: attribute name (lower
+     * case).
+     */
+    private final Map<E, Set<String>> overflowByEntity = new HashMap<>();
+
+    /**
+     * Build an index on these attribute names.
+     *
+     * @param attributeNames
+     * @param maxValueLength longer values are not split in trigrams.
+     * @param maxPostings maximum number of trigram references.
+     */
+    public TrigramIndex(final Collection<String> attributeNames, final int maxValueLength, final long maxPostings) {
+        for (String name : attributeNames) {
+            indexedNames.add(name.toLowerCase());
+        }
+        this.maxValueLength = maxValueLength;
+        this.maxPostings = maxPostings;
+    }
+
+    /**
+     * @param attributeName
+     * @return true if this attribute is indexed.
+     */
+    public boolean isIndexed(final String attributeName) {
+        return attributeName != null && indexedNames.contains(attributeName.toLowerCase());
+    }
+
+    /**
+     * @return true if no attributes are indexed.
+     */
+    public boolean isEmpty() {
+        return indexedNames.isEmpty();
+    }
+
+    /**
+     * @return the number of trigram references.
+     */
+    public long getPostings() {
+        return postings;
+    }
+
+    /**
+     * Reference the current attribute values of an entity, replacing the
+     * previously referenced values.
+     *
+     * @param entity
+     * @param attributes (key: attribute name, value: attribute value).
+     */
+    public void update(final E entity, final Map<String, String> attributes) {
+        if (indexedNames.isEmpty()) {
+            return;
+        }
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            String name = entry.getKey() == null ? null : entry.getKey().toLowerCase();
+            if (name != null && entry.getValue() != null && indexedNames.contains(name)) {
+                values.put(name, entry.getValue());
+            }
+        }
+        if (values.equals(valuesByEntity.get(entity))) {
+            return;
+        }
+        remove(entity);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String name = entry.getKey();
+            String value = entry.getValue();
+            Set<String> grams = getGrams(value);
+            if (value.length() > maxValueLength || postings + grams.size() > maxPostings) {
+                addReference(overflow, name, entity);
+                Set<String> names = overflowByEntity.get(entity);
+                if (names == null) {
+                    names = new HashSet<>();
+                    overflowByEntity.put(entity, names);
+                }
+                names.add(name);
+                continue;
+            }
+            Map<String, Set<E>> entities = entitiesByGram.get(name);
+            if (entities == null) {
+                entities = new HashMap<>();
+                entitiesByGram.put(name, entities);
+            }
+            for (String gram : grams) {
+                addReference(entities, gram, entity);
+            }
+            postings += grams.size();
+        }
+        valuesByEntity.put(entity, values);
+    }
+
+    /**
+     * Unreference an entity.
+     *
+     * @param entity
+     */
+    public void remove(final E entity) {
+        Map<String, String> values = valuesByEntity.remove(entity);
+        if (values == null) {
+            return;
+        }
+        Set<String> overflowNames = overflowByEntity.remove(entity);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String name = entry.getKey();
+            if (overflowNames != null && overflowNames.contains(name)) {
+                removeReference(overflow, name, entity);
+                continue;
+            }
+            Map<String, Set<E>> entities = entitiesByGram.get(name);
+            if (entities == null) {
+                continue;
+            }
+            Set<String> grams = getGrams(entry.getValue());
+            for (String gram : grams) {
+                removeReference(entities, gram, entity);
+            }
+            postings -= grams.size();
+            if (entities.isEmpty()) {
+                entitiesByGram.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Get the entities which may have a value containing a pattern.
+     *
+     * @param attributeName
+     * @param pattern
+     * @return candidate entities, null if the pattern is too short to use the
+     * index.
+     */
+    public Set<E> getCandidates(final String attributeName, final String pattern) {
+        if (attributeName == null || pattern == null || pattern.length() < GRAM_LENGTH) {
+            return null;
+        }
+        String name = attributeName.toLowerCase();
+        Set<E> candidates = new HashSet<>();
+        Map<String, Set<E>> entities = entitiesByGram.get(name);
+        if (entities != null) {
+            // Intersect the trigram references, smallest first.
+            List<Set<E>> references = new ArrayList<>();
+            boolean missingGram = false;
+            for (String gram : getGrams(pattern)) {
+                Set<E> gramEntities = entities.get(gram);
+                if (gramEntities == null) {
+                    missingGram = true;
+                    break;
+                }
+                references.add(gramEntities);
+            }
+            if (!missingGram && !references.isEmpty()) {
+                Set<E> smallest = references.get(0);
+                for (Set<E> reference : references) {
+                    if (reference.size() < smallest.size()) {
+                        smallest = reference;
+                    }
+                }
+                for (E entity : smallest) {
+                    boolean found = true;
+                    for (Set<E> reference : references) {
+                        if (reference != smallest && !reference.contains(entity)) {
+                            found = false;
+                            break;
+                        }
+                    }
+                    if (found) {
+                        candidates.add(entity);
+                    }
+                }
+            }
+        }
+        Set<E> overflowEntities = overflow.get(name);
+        if (overflowEntities != null) {
+            candidates.addAll(overflowEntities);
+        }
+        return candidates;
+    }
+
+    /**
+     * Estimate the number of candidates for a pattern without building the
+     * candidate set: the smallest trigram reference count, plus overflow.
+     *
+     * @param attributeName
+     * @param pattern
+     * @return an upper bound of the candidates count, -1 if the pattern is
+     * too short to use the index.
+     */
+    public int estimateCandidates(final String attributeName, final String pattern) {
+        if (attributeName == null || pattern == null || pattern.length() < GRAM_LENGTH) {
+            return -1;
+        }
+        String name = attributeName.toLowerCase();
+        int estimate = 0;
+        Map<String, Set<E>> entities = entitiesByGram.get(name);
+        if (entities != null) {
+            estimate = Integer.MAX_VALUE;
+            for (String gram : getGrams(pattern)) {
+                Set<E> gramEntities = entities.get(gram);
+                estimate = Math.min(estimate, gramEntities == null ? 0 : gramEntities.size());
+            }
+        }
+        Set<E> overflowEntities = overflow.get(name);
+        return estimate + (overflowEntities == null ? 0 : overflowEntities.size());
+    }
+
+    /**
+     * Remove all references.
+     */
+    public void clear() {
+        entitiesByGram.clear();
+        overflow.clear();
+        valuesByEntity.clear();
+        overflowByEntity.clear();
+        postings = 0;
+    }
+
+    private static Set<String> getGrams(final String value) {
+        Set<String> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= value.length(); i++) {
+            grams.add(value.substring(i, i + GRAM_LENGTH));
+        }
+        return grams;
+    }
+
+    private static <E> void addReference(final Map<String, Set<E>> references, final String key, final E entity) {
+        Set<E> entities = references.get(key);
+        if (entities == null) {
+            entities = new HashSet<>();
+            references.put(key, entities);
+        }
+        entities.add(entity);
+    }
+
+    private static <E> void removeReference(final Map<String, Set<E>> references, final String key, final E entity) {
+        Set<E> entities = references.get(key);
+        if (entities != null) {
+            entities.remove(entity);
+            if (entities.isEmpty()) {
+                references.remove(key);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl.test;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.emf.common.util.BasicEList;
+import org.junit.Test;
+import org.occiware.clouddesigner.occi.AttributeState;
+import org.occiware.clouddesigner.occi.Entity;
+import org.occiware.clouddesigner.occi.Resource;
+import org.ow2.erocci.backend.impl.ActionEngine;
+import org.ow2.erocci.backend.impl.ConnectorExecutor;
+import org.ow2.erocci.model.ConfigurationManager;
+import org.ow2.erocci.model.DetachedEntity;
+import org.ow2.erocci.model.OwnerExecutor;
+
+public class ActionEngineTest {
+
+	@Test
+	public void testEntityOrder() throws Exception {
+		ActionEngine engine = new ActionEngine(4);
+		final List<Integer> done = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch allDone = new CountDownLatch(50);
+		for (int i = 0; i < 50; i++) {
+			final int order = i;
+			engine.submit("compute/vm1", "start", new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					done.add(order);
+					allDone.countDown();
+					return null;
+				}
+			});
+		}
+		assertTrue(allDone.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 50; i++) {
+			assertEquals(Integer.valueOf(i), done.get(i));
+		}
+	}
+
+	@Test
+	public void testEntitiesInParallel() throws Exception {
+		ActionEngine engine = new ActionEngine(2);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch otherDone = new CountDownLatch(1);
+		// A blocked action of vm1 does not hold the actions of vm2.
+		engine.submit("compute/vm1", "stop", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				started.countDown();
+				release.await(10, TimeUnit.SECONDS);
+				return null;
+			}
+		});
+		engine.submit("compute/vm2", "stop", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				otherDone.countDown();
+				return null;
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+		assertEquals(ActionEngine.STATUS_RUNNING, engine.getJobAttributes("compute/vm1").get(ActionEngine.ATTRIBUTE_STATUS));
+		release.countDown();
+	}
+
+	@Test
+	public void testJobStatus() throws Exception {
+		ActionEngine engine = new ActionEngine(1);
+		final CountDownLatch failed = new CountDownLatch(1);
+		ActionEngine.Job job = engine.submit("compute/vm1", "restart", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				failed.countDown();
+				throw new IllegalStateException("hypervisor unreachable");
+			}
+		});
+		assertTrue(failed.await(10, TimeUnit.SECONDS));
+		// The status is set after the action returns.
+		for (int i = 0; i < 100 && !ActionEngine.STATUS_FAILED.equals(job.getStatus()); i++) {
+			Thread.sleep(10);
+		}
+		Map<String, String> attributes = engine.getJobAttributes("compute/vm1");
+		assertEquals(job.getId(), attributes.get(ActionEngine.ATTRIBUTE_JOB));
+		assertEquals("restart", attributes.get(ActionEngine.ATTRIBUTE_ACTION));
+		assertEquals(ActionEngine.STATUS_FAILED, attributes.get(ActionEngine.ATTRIBUTE_STATUS));
+		assertEquals("hypervisor unreachable", attributes.get(ActionEngine.ATTRIBUTE_MESSAGE));
+		assertTrue(engine.getJobAttributes("compute/vm2").isEmpty());
+	}
+
+	@Test
+	public void testErrorFailsJob() throws Exception {
+		ActionEngine engine = new ActionEngine(1);
+		ActionEngine.Job job = engine.submit("compute/vm1", "start", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				throw new LinkageError("connector class missing");
+			}
+		});
+		for (int i = 0; i < 100 && !ActionEngine.STATUS_FAILED.equals(job.getStatus()); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(ActionEngine.STATUS_FAILED, job.getStatus());
+		assertTrue(job.getMessage().contains("connector class missing"));
+		// The next actions of the entity still run.
+		final CountDownLatch done = new CountDownLatch(1);
+		engine.submit("compute/vm1", "stop", new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				done.countDown();
+				return null;
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testActionsOfOneOwnerInParallel() throws Exception {
+		ActionEngine engine = new ActionEngine(2);
+		final ConnectorExecutor connectors = new ConnectorExecutor(COPIER);
+		final String owner = "actions-owner";
+		OwnerExecutor executor = ConfigurationManager.getOwnerExecutor(owner);
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		List<ActionEngine.Job> jobs = new ArrayList<>();
+		for (String id : new String[] { "compute/vm1", "compute/vm2" }) {
+			final Entity entity = newEntity(id);
+			jobs.add(engine.submit(id, "start", new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					connectors.action(owner, entity, new ConnectorExecutor.ConnectorCall<Void>() {
+						@Override
+						public Void call(final Entity copy) throws Exception {
+							assertNotSame(entity, copy);
+							started.countDown();
+							release.await(10, TimeUnit.SECONDS);
+							return null;
+						}
+					});
+					return null;
+				}
+			}));
+		}
+		// Both actions run at once, the owner's writer and readers are free.
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		assertEquals("written", executor.write(new Callable<String>() {
+			@Override
+			public String call() {
+				return "written";
+			}
+		}));
+		assertEquals("read", executor.read(new Callable<String>() {
+			@Override
+			public String call() {
+				return "read";
+			}
+		}));
+		release.countDown();
+		for (ActionEngine.Job job : jobs) {
+			for (int i = 0; i < 100 && !ActionEngine.STATUS_DONE.equals(job.getStatus()); i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(ActionEngine.STATUS_DONE, job.getStatus());
+		}
+	}
+
+	/**
+	 * Copies the test entities.
+	 */
+	private static final DetachedEntity.Copier COPIER = new DetachedEntity.Copier() {
+		@Override
+		public Entity copy(final Entity entity) {
+			return newEntity(entity.getId());
+		}
+	};
+
+	private static Entity newEntity(final String id) {
+		final BasicEList<AttributeState> states = new BasicEList<>();
+		return (Entity) Proxy.newProxyInstance(Resource.class.getClassLoader(), new Class<?>[] { Resource.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(final Object proxy, final Method method, final Object[] args) {
+						switch (method.getName()) {
+						case "equals":
+							return proxy == args[0];
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "getId":
+							return id;
+						case "getAttributes":
+							return states;
+						default:
+							return null;
+						}
+					}
+				});
+	}
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.erocci.backend.Unavailable;
+import org.ow2.erocci.backend.impl.AdmissionControl;
+import org.ow2.erocci.backend.impl.AdmissionControl.MethodClass;
+
+public class AdmissionControlTest {
+
+	@Before
+	public void setUp() throws Exception {
+		System.setProperty("erocci.admission.write.maxInFlight", "1");
+		System.setProperty("erocci.admission.write.maxQueueMillis", "50");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		System.clearProperty("erocci.admission.write.maxInFlight");
+		System.clearProperty("erocci.admission.write.maxQueueMillis");
+	}
+
+	@Test
+	public void testReject() {
+		AdmissionControl admission = new AdmissionControl();
+		admission.acquire(MethodClass.WRITE, "Create2");
+		try {
+			admission.acquire(MethodClass.WRITE, "Create2");
+			fail("Second write must be rejected");
+		} catch (Unavailable ex) {
+			// Retryable error.
+		}
+		// Reads have their own permits.
+		admission.acquire(MethodClass.READ, "Get");
+		admission.release(MethodClass.READ);
+
+		admission.release(MethodClass.WRITE);
+		admission.acquire(MethodClass.WRITE, "Create2");
+		admission.release(MethodClass.WRITE);
+	}
+
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.erocci.backend.impl.CollectionFilter;
+import org.ow2.erocci.backend.impl.CollectionFilterPredicate;
+
+public class CollectionFilterPredicateTest {
+
+	private Map<String, String> attributes;
+
+	@Before
+	public void setUp() throws Exception {
+		attributes = new HashMap<>();
+		attributes.put("occi.compute.memory", "8.0");
+		attributes.put("occi.compute.cores", "8");
+		attributes.put("occi.core.title", "web server");
+	}
+
+	@Test
+	public void testNumericOperators() {
+		assertTrue(matches(filter(CollectionFilter.OPERATOR_GREATER_THAN, "occi.compute.memory", "4")));
+		assertFalse(matches(filter(CollectionFilter.OPERATOR_GREATER_THAN, "occi.compute.cores", "8")));
+		assertTrue(matches(filter(CollectionFilter.OPERATOR_GREATER_OR_EQUAL, "occi.compute.cores", "8")));
+		assertTrue(matches(filter(CollectionFilter.OPERATOR_LOWER_THAN, "occi.compute.cores", "16")));
+		assertFalse(matches(filter(CollectionFilter.OPERATOR_LOWER_OR_EQUAL, "occi.compute.cores", "4")));
+		assertTrue(matches(filter(CollectionFilter.OPERATOR_RANGE, "occi.compute.memory", "4..8")));
+		assertTrue(matches(filter(CollectionFilter.OPERATOR_RANGE, "occi.compute.memory", "4..")));
+		assertFalse(matches(filter(CollectionFilter.OPERATOR_RANGE, "occi.compute.memory", "..4")));
+		// Not a number.
+		assertFalse(matches(filter(CollectionFilter.OPERATOR_GREATER_THAN, "occi.core.title", "4")));
+		assertFalse(matches(filter(CollectionFilter.OPERATOR_GREATER_THAN, "occi.compute.cores", "abc")));
+	}
+
+	@Test
+	public void testAllFiltersMustMatch() {
+		assertTrue(matches(filter(CollectionFilter.OPERATOR_GREATER_THAN, "OCCI.compute.memory", "4"),
+				filter(CollectionFilter.OPERATOR_GREATER_OR_EQUAL, "occi.compute.cores", "8"),
+				filter(CollectionFilter.OPERATOR_LIKE, "occi.core.title", "web")));
+		assertFalse(matches(filter(CollectionFilter.OPERATOR_GREATER_THAN, "occi.compute.memory", "4"),
+				filter(CollectionFilter.OPERATOR_EQUAL, "occi.core.title", "web")));
+		assertFalse(matches(filter(CollectionFilter.OPERATOR_EQUAL, "occi.compute.hostname", null)));
+		assertTrue(matches(filter(CollectionFilter.OPERATOR_LIKE, "", "server")));
+		assertTrue(matches());
+	}
+
+	private boolean matches(final CollectionFilter... filters) {
+		List<CollectionFilter> filterList = new ArrayList<>();
+		for (CollectionFilter filter : filters) {
+			filterList.add(filter);
+		}
+		return new CollectionFilterPredicate(filterList).matches(attributes);
+	}
+
+	private static CollectionFilter filter(final int operator, final String attribute, final String value) {
+		CollectionFilter filter = new CollectionFilter();
+		filter.setOperator(operator);
+		filter.setAttributeFilter(attribute);
+		filter.setValue(value);
+		return filter;
+	}
+
+}
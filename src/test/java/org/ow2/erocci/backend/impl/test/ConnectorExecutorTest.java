@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl.test;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.emf.common.util.BasicEList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.occiware.clouddesigner.occi.AttributeState;
+import org.occiware.clouddesigner.occi.Entity;
+import org.occiware.clouddesigner.occi.Resource;
+import org.ow2.erocci.backend.Timeout;
+import org.ow2.erocci.backend.impl.ConnectorExecutor;
+import org.ow2.erocci.model.DetachedEntity;
+
+public class ConnectorExecutorTest {
+
+	private static final String OWNER = "connectors-owner";
+
+	private ConnectorExecutor connectors;
+
+	@Before
+	public void setUp() throws Exception {
+		System.setProperty("erocci.connector.timeout", "200");
+		System.setProperty("erocci.connector.maxCallsPerKind", "1");
+		connectors = new ConnectorExecutor(COPIER);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		System.clearProperty("erocci.connector.timeout");
+		System.clearProperty("erocci.connector.maxCallsPerKind");
+	}
+
+	@Test
+	public void testCallOnCopy() {
+		final Entity entity = newEntity("compute/vm1");
+		String result = connectors.call(ConnectorExecutor.RETRIEVE, OWNER, entity,
+				new ConnectorExecutor.ConnectorCall<String>() {
+					@Override
+					public String call(final Entity copy) {
+						assertNotSame(entity, copy);
+						assertEquals(entity.getId(), copy.getId());
+						return "retrieved";
+					}
+				});
+		assertEquals("retrieved", result);
+	}
+
+	@Test
+	public void testHungConnectorTimesOut() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch ended = new CountDownLatch(1);
+		long start = System.nanoTime();
+		try {
+			connectors.call(ConnectorExecutor.RETRIEVE, OWNER, newEntity("compute/vm1"),
+					new ConnectorExecutor.ConnectorCall<Void>() {
+						@Override
+						public Void call(final Entity copy) throws Exception {
+							try {
+								release.await(10, TimeUnit.SECONDS);
+							} finally {
+								ended.countDown();
+							}
+							return null;
+						}
+					});
+			fail("Timeout expected");
+		} catch (Timeout ex) {
+			// The caller gives up at the deadline, the call goes on.
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+			assertEquals(1, ended.getCount());
+		}
+		// The late call ends on its own, its permit is released.
+		release.countDown();
+		assertTrue(ended.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 100 && !isPermitFree(); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(isPermitFree());
+	}
+
+	@Test
+	public void testBusyKindFailsFast() throws Exception {
+		System.setProperty("erocci.connector.timeout", "10000");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread first = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					connectors.call(ConnectorExecutor.UPDATE, OWNER, newEntity("compute/vm1"),
+							new ConnectorExecutor.ConnectorCall<Void>() {
+								@Override
+								public Void call(final Entity copy) throws Exception {
+									started.countDown();
+									release.await(10, TimeUnit.SECONDS);
+									return null;
+								}
+							});
+				} catch (Throwable ex) {
+					failure.set(ex);
+				}
+			}
+		});
+		first.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		// The only permit of the kind is taken: no wait for it.
+		long start = System.nanoTime();
+		try {
+			connectors.update(OWNER, newEntity("compute/vm2"));
+			fail("Timeout expected");
+		} catch (Timeout ex) {
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		}
+		release.countDown();
+		first.join(10000);
+		assertNull(failure.get());
+	}
+
+	@Test
+	public void testConnectorFailure() {
+		try {
+			connectors.call(ConnectorExecutor.CREATE, OWNER, newEntity("compute/vm1"),
+					new ConnectorExecutor.ConnectorCall<Void>() {
+						@Override
+						public Void call(final Entity copy) {
+							throw new IllegalStateException("hypervisor unreachable");
+						}
+					});
+			fail("IllegalStateException expected");
+		} catch (IllegalStateException ex) {
+			assertEquals("hypervisor unreachable", ex.getMessage());
+		}
+		assertTrue(isPermitFree());
+	}
+
+	/**
+	 * @return true if a call of the test kind can start.
+	 */
+	private boolean isPermitFree() {
+		try {
+			connectors.call(ConnectorExecutor.RETRIEVE, OWNER, newEntity("compute/check"),
+					new ConnectorExecutor.ConnectorCall<Void>() {
+						@Override
+						public Void call(final Entity copy) {
+							return null;
+						}
+					});
+			return true;
+		} catch (Timeout ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Copies the test entities.
+	 */
+	private static final DetachedEntity.Copier COPIER = new DetachedEntity.Copier() {
+		@Override
+		public Entity copy(final Entity entity) {
+			return newEntity(entity.getId());
+		}
+	};
+
+	private static Entity newEntity(final String id) {
+		final BasicEList<AttributeState> states = new BasicEList<>();
+		return (Entity) Proxy.newProxyInstance(Resource.class.getClassLoader(), new Class<?>[] { Resource.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(final Object proxy, final Method method, final Object[] args) {
+						switch (method.getName()) {
+						case "equals":
+							return proxy == args[0];
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "getId":
+							return id;
+						case "getAttributes":
+							return states;
+						default:
+							return null;
+						}
+					}
+				});
+	}
+
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.freedesktop.dbus.Variant;
+import org.junit.Test;
+import org.ow2.erocci.backend.NotFound;
+import org.ow2.erocci.backend.Septuple;
+import org.ow2.erocci.backend.impl.CoreImpl;
+import org.ow2.erocci.backend.impl.DispatchingCore;
+
+public class DispatchingCoreTest {
+
+	/**
+	 * Get blocks for "slow" until released, fails for "missing".
+	 */
+	private static class TestCore extends CoreImpl {
+
+		private final CountDownLatch slowStarted = new CountDownLatch(1);
+
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String> Get(
+				String location) {
+			if ("missing".equals(location)) {
+				throw new NotFound("Entity " + location + " --< doesnt exist !");
+			}
+			if ("slow".equals(location)) {
+				slowStarted.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return new Septuple<String, List<String>, Map<String, Variant>, List<String>, String, String, String>(
+					"kind", Collections.<String>emptyList(), Collections.<String, Variant>emptyMap(),
+					Collections.<String>emptyList(), "anonymous", "anonymous", location);
+		}
+	}
+
+	@Test
+	public void testSlowCallHoldsOnlyItsThread() throws Exception {
+		final TestCore core = new TestCore();
+		final DispatchingCore dispatcher = new DispatchingCore(core, 2, 2, false);
+		final AtomicReference<String> slowSerial = new AtomicReference<>();
+		Thread slow = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				slowSerial.set(dispatcher.Get("slow").g);
+			}
+		});
+		slow.start();
+		assertTrue(core.slowStarted.await(10, TimeUnit.SECONDS));
+		// The other calls run on the other dispatch thread.
+		assertEquals("fast", dispatcher.Get("fast").g);
+		core.release.countDown();
+		slow.join(10000);
+		assertEquals("slow", slowSerial.get());
+	}
+
+	@Test
+	public void testErrorsThrownBack() {
+		DispatchingCore dispatcher = new DispatchingCore(new TestCore(), 2, 2, false);
+		try {
+			dispatcher.Get("missing");
+			fail("NotFound expected");
+		} catch (NotFound ex) {
+			assertTrue(ex.getMessage().contains("missing"));
+		}
+	}
+
+}
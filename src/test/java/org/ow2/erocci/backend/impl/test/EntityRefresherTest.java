@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.ow2.erocci.backend.impl.EntityRefresher;
+import org.ow2.erocci.backend.impl.RefreshSchedule;
+
+public class EntityRefresherTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testPriority() {
+		long now = 1000 * SECOND;
+		long hot = 60 * SECOND;
+		EntityRefresher.Target readNow = new EntityRefresher.Target("owner", null, now - SECOND, now - 10 * SECOND);
+		EntityRefresher.Target readBefore = new EntityRefresher.Target("owner", null, now - 30 * SECOND, null);
+		EntityRefresher.Target readLongAgo = new EntityRefresher.Target("owner", null, now - 120 * SECOND,
+				now - 100 * SECOND);
+		EntityRefresher.Target neverRefreshed = new EntityRefresher.Target("owner", null, null, null);
+		EntityRefresher.Target refreshedLast = new EntityRefresher.Target("owner", null, null, now - SECOND);
+
+		List<EntityRefresher.Target> targets = new ArrayList<>(Arrays.asList(refreshedLast, readLongAgo,
+				neverRefreshed, readBefore, readNow));
+		Collections.sort(targets, EntityRefresher.getPriorityOrder(now, hot));
+		// Read recently first, most recent first, then never refreshed, then
+		// refreshed the longest ago.
+		assertEquals(Arrays.asList(readNow, readBefore, neverRefreshed, readLongAgo, refreshedLast), targets);
+	}
+
+	@Test
+	public void testPacing() {
+		RefreshSchedule<String> schedule = new RefreshSchedule<>(4);
+		// 10 retrieves per second: a batch of 4 computes waits 400 ms.
+		schedule.add("compute", 10, Arrays.asList("vm1", "vm2", "vm3", "vm4", "vm5", "vm6"));
+		schedule.add("network", 2, Arrays.asList("net1", "net2"));
+		long start = 1000 * SECOND;
+
+		assertEquals(Arrays.asList("vm1", "vm2", "vm3", "vm4"), schedule.nextBatch(start));
+		// Computes wait, the networks are not paced yet.
+		assertEquals(Arrays.asList("net1", "net2"), schedule.nextBatch(start));
+		assertTrue(schedule.nextBatch(start).isEmpty());
+		assertEquals(SECOND * 4 / 10, schedule.getWaitNanos(start));
+		assertTrue(schedule.nextBatch(start + SECOND * 4 / 10 - 1).isEmpty());
+		assertEquals(Arrays.asList("vm5", "vm6"), schedule.nextBatch(start + SECOND * 4 / 10));
+		assertTrue(schedule.isEmpty());
+	}
+
+	@Test
+	public void testBatchSize() {
+		RefreshSchedule<String> schedule = new RefreshSchedule<>(3);
+		schedule.add("compute", 1000, Arrays.asList("vm1", "vm2"));
+		schedule.add("storage", 1000, Arrays.asList("disk1", "disk2"));
+		schedule.add("network", 1000, Collections.<String>emptyList());
+		long start = 1000 * SECOND;
+		// A batch takes the entities of several kinds, up to its size.
+		assertEquals(Arrays.asList("vm1", "vm2", "disk1"), schedule.nextBatch(start));
+		// The storages wait for the one already taken.
+		assertTrue(schedule.nextBatch(start).isEmpty());
+		assertEquals(SECOND / 1000, schedule.getWaitNanos(start));
+		assertEquals(Arrays.asList("disk2"), schedule.nextBatch(start + SECOND / 1000));
+		assertTrue(schedule.isEmpty());
+	}
+
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.backend.impl.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.erocci.backend.impl.RetrieveCache;
+
+public class RetrieveCacheTest {
+
+	@Before
+	public void setUp() throws Exception {
+		System.setProperty("erocci.retrieve.ttl", "60000");
+		System.setProperty("erocci.retrieve.ttl.network", "0");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		System.clearProperty("erocci.retrieve.ttl");
+		System.clearProperty("erocci.retrieve.ttl.network");
+	}
+
+	@Test
+	public void testFreshAndInvalidate() {
+		RetrieveCache cache = new RetrieveCache(10);
+		assertFalse(cache.isFresh("compute/vm1"));
+		cache.retrieved("compute/vm1", "compute");
+		assertTrue(cache.isFresh("compute/vm1"));
+		cache.invalidate("compute/vm1");
+		assertFalse(cache.isFresh("compute/vm1"));
+
+		// TTL 0 for this kind, always retrieved.
+		cache.retrieved("network/net1", "network");
+		assertFalse(cache.isFresh("network/net1"));
+	}
+
+	@Test
+	public void testLruEviction() {
+		RetrieveCache cache = new RetrieveCache(2);
+		cache.retrieved("compute/vm1", "compute");
+		cache.retrieved("compute/vm2", "compute");
+		// vm1 is used, vm2 is then the least recently used.
+		assertTrue(cache.isFresh("compute/vm1"));
+		cache.retrieved("compute/vm3", "compute");
+		assertTrue(cache.isFresh("compute/vm1"));
+		assertFalse(cache.isFresh("compute/vm2"));
+		assertTrue(cache.isFresh("compute/vm3"));
+	}
+
+}
@@ -17,8 +17,11 @@ package org.ow2.erocci.backend.impl.test;
 
 import static org.junit.Assert.*;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -51,6 +54,39 @@ public class UtilsTest {
 	}
 
 
+	@Test
+	public void testGetUniqueInt() throws Exception {
+		final int serialsByThread = 5000;
+		final Set<Integer> serials = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < serialsByThread; j++) {
+						int serial = Utils.getUniqueInt();
+						assertTrue(serial > 0);
+						serials.add(serial);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(threads.length * serialsByThread, serials.size());
+	}
+
+	@Test
+	public void testCreateSerial() {
+		long serial = Utils.createSerial(3, "compute/vm1".hashCode());
+		assertEquals(serial, Utils.createSerial(3, "compute/vm1".hashCode()));
+		assertFalse(serial == Utils.createSerial(4, "compute/vm1".hashCode()));
+		assertTrue(serial >= 0 && serial <= 0xFFFFFFFFL);
+		assertTrue(Utils.createSerial(Long.MAX_VALUE, Integer.MIN_VALUE) >= 0);
+	}
+
 	@Test
 	public void testIsEntityUUIDProvided() {
 		Map<String, Map<String, String>> workMap = buildIds();
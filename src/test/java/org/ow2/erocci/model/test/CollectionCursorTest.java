@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.ow2.erocci.backend.impl.CollectionFilter;
+import org.ow2.erocci.model.CollectionCursor;
+
+public class CollectionCursorTest {
+
+	@Test
+	public void testQueryKey() {
+		CollectionFilter active = new CollectionFilter();
+		active.setAttributeFilter("occi.compute.state");
+		active.setValue("active");
+		CollectionFilter inactive = new CollectionFilter();
+		inactive.setAttributeFilter("occi.compute.state");
+		inactive.setValue("inactive");
+		List<CollectionFilter> noFilter = Collections.emptyList();
+
+		String key = CollectionCursor.getQueryKey("/compute/", Arrays.asList(active));
+		assertEquals(key, CollectionCursor.getQueryKey("/compute/", Arrays.asList(active)));
+		assertFalse(key.equals(CollectionCursor.getQueryKey("/compute/", Arrays.asList(inactive))));
+		assertFalse(key.equals(CollectionCursor.getQueryKey("/compute/", noFilter)));
+		assertFalse(key.equals(CollectionCursor.getQueryKey("/network/", Arrays.asList(active))));
+
+		// A follow-up page is found by its query and its start index.
+		CollectionCursor cursor = new CollectionCursor(key, 11, "compute/vm10");
+		assertEquals(CollectionCursor.getCursorKey(key, 11), cursor.getCursorKey());
+		assertFalse(cursor.getCursorKey().equals(CollectionCursor.getCursorKey(key, 21)));
+		assertFalse(cursor.isPinned());
+	}
+
+	@Test
+	public void testPinnedExpiry() {
+		List<String> locations = new ArrayList<>();
+		for (int i = 1; i <= 30; i++) {
+			locations.add("/compute/vm" + i);
+		}
+		CollectionCursor cursor = new CollectionCursor("/compute/", 11, "compute/vm10",
+				Collections.unmodifiableList(locations), 1, 40, 1000);
+		assertTrue(cursor.isPinned());
+		assertTrue(cursor.isPinnedValid(1000, 40, 500, 10));
+		assertTrue(cursor.isPinnedValid(1500, 50, 500, 10));
+		// Too old, or too many views published since.
+		assertFalse(cursor.isPinnedValid(1501, 40, 500, 10));
+		assertFalse(cursor.isPinnedValid(1000, 51, 500, 10));
+		// Views reset (Terminate) since.
+		assertFalse(cursor.isPinnedValid(1000, 39, 500, 10));
+
+		CollectionCursor position = cursor.unpin();
+		assertFalse(position.isPinned());
+		assertFalse(position.isPinnedValid(1000, 40, 500, 10));
+		assertEquals(cursor.getCursorKey(), position.getCursorKey());
+		assertEquals("compute/vm10", position.getLastEntityId());
+	}
+
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model.test;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.emf.common.util.BasicEList;
+import org.junit.Before;
+import org.junit.Test;
+import org.occiware.clouddesigner.occi.AttributeState;
+import org.occiware.clouddesigner.occi.Entity;
+import org.occiware.clouddesigner.occi.Kind;
+import org.occiware.clouddesigner.occi.Mixin;
+import org.occiware.clouddesigner.occi.Resource;
+import org.ow2.erocci.backend.impl.CollectionFilter;
+import org.ow2.erocci.model.CollectionQueryPlan;
+import org.ow2.erocci.model.ConfigurationIndex;
+import org.ow2.erocci.model.EntityPathTrie;
+
+public class CollectionQueryPlanTest {
+
+	private static final String SCHEME = "http://schemas.ogf.org/occi/infrastructure#";
+
+	private static final int COMPUTES = 200;
+
+	private static final int NETWORKS = 20;
+
+	private ConfigurationIndex index;
+
+	private List<Entity> entities;
+
+	@Before
+	public void setUp() throws Exception {
+		index = new ConfigurationIndex(Arrays.asList("occi.compute.state"));
+		index.setNumericIndexedAttributes(Arrays.asList("occi.compute.memory"));
+		Kind compute = newCategory(Kind.class, "compute");
+		Kind network = newCategory(Kind.class, "network");
+		Mixin ssh = newCategory(Mixin.class, "ssh");
+		entities = new ArrayList<>();
+		for (int i = 0; i < COMPUTES; i++) {
+			Map<String, String> attributes = new HashMap<>();
+			attributes.put("occi.compute.state", i % 4 == 0 ? "active" : "inactive");
+			attributes.put("occi.compute.memory", String.valueOf(i));
+			attributes.put("occi.compute.hostname", "host" + i);
+			entities.add(newEntity("compute/vm" + i, compute, i % 10 == 0 ? ssh : null, attributes));
+		}
+		for (int i = 0; i < NETWORKS; i++) {
+			entities.add(newEntity("network/net" + i, network, null, new HashMap<String, String>()));
+		}
+		// Indexed in random order, collections are ordered by id.
+		List<Entity> shuffled = new ArrayList<>(entities);
+		Collections.shuffle(shuffled, new Random(3));
+		for (Entity entity : shuffled) {
+			index.addEntity(entity);
+		}
+	}
+
+	@Test
+	public void testKindPseudoFilter() {
+		CollectionQueryPlan plan = CollectionQueryPlan.create(index, index.getPathSource(""),
+				Arrays.asList(newFilter(CollectionFilter.OPERATOR_EQUAL, "kind", SCHEME + "network")));
+		// The small category drives the iteration, the whole path is a check.
+		assertTrue(plan.getDriver().toString().startsWith("category(" + SCHEME + "network)"));
+		List<String> ids = getIds(plan.execute(1, -1, null));
+		assertEquals(NETWORKS, ids.size());
+		assertEquals(getExpectedIds("network/", null), ids);
+	}
+
+	@Test
+	public void testMixinPseudoFilter() {
+		CollectionQueryPlan plan = CollectionQueryPlan.create(index, index.getPathSource("compute"),
+				Arrays.asList(newFilter(CollectionFilter.OPERATOR_EQUAL, "mixins", SCHEME + "ssh")));
+		List<String> ids = getIds(plan.execute(1, -1, null));
+		assertEquals(COMPUTES / 10, ids.size());
+		for (String id : ids) {
+			assertEquals(0, getNumber(id) % 10);
+		}
+		assertOrdered(ids);
+	}
+
+	@Test
+	public void testCategorySizeCountsEntitiesOnce() {
+		// A mixin with the id of the kind, on some entities of this kind.
+		Kind storage = newCategory(Kind.class, "storage");
+		Mixin storageMixin = newCategory(Mixin.class, "storage");
+		for (int i = 0; i < 10; i++) {
+			index.addEntity(newEntity("storage/disk" + i, storage, i < 5 ? storageMixin : null,
+					new HashMap<String, String>()));
+		}
+		assertEquals(10, index.getCategorySource(SCHEME + "storage").size());
+	}
+
+	@Test
+	public void testBitmapsIntersected() {
+		CollectionQueryPlan plan = CollectionQueryPlan.create(index, index.getCategorySource(SCHEME + "compute"),
+				Arrays.asList(newFilter(CollectionFilter.OPERATOR_EQUAL, "occi.compute.state", "active"),
+						newFilter(CollectionFilter.OPERATOR_EQUAL, "mixins", SCHEME + "ssh")));
+		// Kind, mixin and attribute value bitmaps are one access path.
+		assertTrue(plan.getDriver().toString().startsWith("and("));
+		assertFalse(plan.getDriver().isSorted());
+		List<String> ids = getIds(plan.execute(1, -1, null));
+		assertEquals(COMPUTES / 20, ids.size());
+		for (String id : ids) {
+			assertEquals(0, getNumber(id) % 20);
+		}
+		assertOrdered(ids);
+	}
+
+	@Test
+	public void testChecksAndResidualFilters() {
+		CollectionQueryPlan plan = CollectionQueryPlan.create(index, index.getPathSource("compute"),
+				Arrays.asList(newFilter(CollectionFilter.OPERATOR_GREATER_OR_EQUAL, "occi.compute.memory", "100"),
+						newFilter(CollectionFilter.OPERATOR_LIKE, "occi.compute.hostname", "host1")));
+		// The range drives or checks, the hostname is checked on attributes.
+		assertTrue(plan.toString().endsWith("filters checked on attributes=1"));
+		List<String> ids = getIds(plan.execute(1, -1, null));
+		// host100 to host199.
+		assertEquals(100, ids.size());
+		for (String id : ids) {
+			assertTrue(getNumber(id) >= 100);
+		}
+		assertOrdered(ids);
+
+		plan = CollectionQueryPlan.create(index, index.getPathSource("compute"),
+				Arrays.asList(newFilter(CollectionFilter.OPERATOR_EQUAL, "occi.compute.hostname", "host7")));
+		assertEquals(Arrays.asList("compute/vm7"), getIds(plan.execute(1, -1, null)));
+	}
+
+	@Test
+	public void testCostAccountsForPageSize() {
+		List<CollectionFilter> filters = Arrays.asList(
+				newFilter(CollectionFilter.OPERATOR_EQUAL, "occi.compute.state", "active"));
+		// All entities: reading and sorting the 50 active ones is cheaper
+		// than walking the 200 computes.
+		CollectionQueryPlan plan = CollectionQueryPlan.create(index, index.getPathSource("compute"), filters, -1);
+		assertFalse(plan.getDriver().isSorted());
+		// A small page stops early on the ordered path.
+		plan = CollectionQueryPlan.create(index, index.getPathSource("compute"), filters, 2);
+		assertTrue(plan.getDriver().isSorted());
+		assertEquals(getIds(CollectionQueryPlan.create(index, index.getPathSource("compute"), filters).execute(1, 2, null)),
+				getIds(plan.execute(1, 2, null)));
+	}
+
+	@Test
+	public void testPaging() {
+		List<CollectionFilter> filters = Arrays.asList(
+				newFilter(CollectionFilter.OPERATOR_EQUAL, "occi.compute.state", "inactive"));
+		CollectionQueryPlan plan = CollectionQueryPlan.create(index, index.getPathSource(""), filters);
+		List<String> all = getIds(plan.execute(1, -1, null));
+		assertEquals(COMPUTES - COMPUTES / 4, all.size());
+		assertOrdered(all);
+
+		// Pages resumed after the last id (cursor) or by skipping records.
+		List<String> paged = new ArrayList<>();
+		String afterId = null;
+		int startIndex = 1;
+		while (true) {
+			List<String> page = getIds(plan.execute(1, 7, afterId));
+			assertEquals(getIds(plan.execute(startIndex, 7, null)), page);
+			if (page.isEmpty()) {
+				break;
+			}
+			paged.addAll(page);
+			afterId = page.get(page.size() - 1);
+			startIndex += page.size();
+		}
+		assertEquals(all, paged);
+	}
+
+	@Test
+	public void testIterateOrdered() {
+		List<Entity> shuffled = new ArrayList<>(entities);
+		Collections.shuffle(shuffled, new Random(5));
+		assertEquals(getExpectedIds("", null), getIds(ConfigurationIndex.iterateOrdered(shuffled, null)));
+		String afterId = getExpectedIds("", null).get(100);
+		assertEquals(getExpectedIds("", afterId), getIds(ConfigurationIndex.iterateOrdered(shuffled, afterId)));
+		assertFalse(ConfigurationIndex.iterateOrdered(shuffled, "zzz").hasNext());
+	}
+
+	private List<String> getExpectedIds(final String prefix, final String afterId) {
+		List<String> ids = new ArrayList<>();
+		for (Entity entity : entities) {
+			if (entity.getId().startsWith(prefix)
+					&& (afterId == null || EntityPathTrie.LOCATION_ORDER.compare(entity.getId(), afterId) > 0)) {
+				ids.add(entity.getId());
+			}
+		}
+		Collections.sort(ids, EntityPathTrie.LOCATION_ORDER);
+		return ids;
+	}
+
+	private static void assertOrdered(final List<String> ids) {
+		List<String> sorted = new ArrayList<>(ids);
+		Collections.sort(sorted, EntityPathTrie.LOCATION_ORDER);
+		assertEquals(sorted, ids);
+	}
+
+	private static int getNumber(final String id) {
+		return Integer.parseInt(id.substring(id.lastIndexOf("vm") + 2));
+	}
+
+	private static List<String> getIds(final List<Entity> entities) {
+		return getIds(entities.iterator());
+	}
+
+	private static List<String> getIds(final Iterator<Entity> it) {
+		List<String> ids = new ArrayList<>();
+		while (it.hasNext()) {
+			ids.add(it.next().getId());
+		}
+		return ids;
+	}
+
+	private static CollectionFilter newFilter(final int operator, final String attribute, final String value) {
+		CollectionFilter filter = new CollectionFilter();
+		filter.setOperator(operator);
+		filter.setAttributeFilter(attribute);
+		filter.setValue(value);
+		return filter;
+	}
+
+	private static <T> T newCategory(final Class<T> type, final String term) {
+		Map<String, Object> values = new HashMap<>();
+		values.put("getScheme", SCHEME);
+		values.put("getTerm", term);
+		values.put("getActions", new BasicEList<Object>());
+		return newProxy(type, values);
+	}
+
+	private static Entity newEntity(final String id, final Kind kind, final Mixin mixin,
+			final Map<String, String> attributes) {
+		BasicEList<Mixin> mixins = new BasicEList<>();
+		if (mixin != null) {
+			mixins.add(mixin);
+		}
+		BasicEList<AttributeState> states = new BasicEList<>();
+		for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+			Map<String, Object> values = new HashMap<>();
+			values.put("getName", attribute.getKey());
+			values.put("getValue", attribute.getValue());
+			states.add(newProxy(AttributeState.class, values));
+		}
+		Map<String, Object> values = new HashMap<>();
+		values.put("getId", id);
+		values.put("getKind", kind);
+		values.put("getMixins", mixins);
+		values.put("getAttributes", states);
+		values.put("getLinks", new BasicEList<Object>());
+		return newProxy(Resource.class, values);
+	}
+
+	/**
+	 * Model object answering its getters from a map, with identity equality.
+	 */
+	private static <T> T newProxy(final Class<T> type, final Map<String, Object> values) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return type.getSimpleName() + values.get("getId");
+				default:
+					return values.get(method.getName());
+				}
+			}
+		}));
+	}
+
+}
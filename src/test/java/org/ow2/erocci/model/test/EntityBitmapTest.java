@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model.test;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+import org.ow2.erocci.model.EntityBitmap;
+
+public class EntityBitmapTest {
+
+	private static final int MAX_ORDINAL = 300000;
+
+	@Test
+	public void testAddRemove() {
+		Random random = new Random(42);
+		EntityBitmap bitmap = new EntityBitmap();
+		BitSet expected = new BitSet();
+		// Dense chunk first (bitset), then sparse removals (back to array).
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(!expected.get(i), bitmap.add(i));
+			expected.set(i);
+		}
+		for (int i = 0; i < 50000; i++) {
+			int ordinal = random.nextInt(MAX_ORDINAL);
+			if (random.nextBoolean()) {
+				assertEquals(!expected.get(ordinal), bitmap.add(ordinal));
+				expected.set(ordinal);
+			} else {
+				assertEquals(expected.get(ordinal), bitmap.remove(ordinal));
+				expected.clear(ordinal);
+			}
+		}
+		for (int i = 0; i < 9000; i++) {
+			bitmap.remove(i);
+			expected.clear(i);
+		}
+		assertSame(expected, bitmap);
+		assertFalse(bitmap.contains(-1));
+	}
+
+	@Test
+	public void testAndOr() {
+		Random random = new Random(7);
+		EntityBitmap bitmap1 = new EntityBitmap();
+		EntityBitmap bitmap2 = new EntityBitmap();
+		BitSet expected1 = new BitSet();
+		BitSet expected2 = new BitSet();
+		for (int i = 0; i < 60000; i++) {
+			// bitmap1 is dense on the first chunk, both are sparse above.
+			int ordinal1 = i < 20000 ? random.nextInt(65536) : random.nextInt(MAX_ORDINAL);
+			int ordinal2 = random.nextInt(MAX_ORDINAL);
+			bitmap1.add(ordinal1);
+			expected1.set(ordinal1);
+			if (i % 3 == 0) {
+				bitmap2.add(ordinal2);
+				expected2.set(ordinal2);
+			}
+		}
+		BitSet expectedAnd = (BitSet) expected1.clone();
+		expectedAnd.and(expected2);
+		assertSame(expectedAnd, bitmap1.and(bitmap2));
+		assertSame(expectedAnd, bitmap2.and(bitmap1));
+		BitSet expectedOr = (BitSet) expected1.clone();
+		expectedOr.or(expected2);
+		assertSame(expectedOr, bitmap1.or(bitmap2));
+		assertSame(expectedOr, bitmap2.or(bitmap1));
+		// Operands are not modified.
+		assertSame(expected1, bitmap1);
+		assertSame(expected2, bitmap2);
+		assertTrue(bitmap1.and(new EntityBitmap()).isEmpty());
+	}
+
+	private static void assertSame(final BitSet expected, final EntityBitmap bitmap) {
+		assertEquals(expected.cardinality(), bitmap.getCardinality());
+		int ordinal = bitmap.nextSetBit(0);
+		for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+			assertEquals(i, ordinal);
+			assertTrue(bitmap.contains(i));
+			ordinal = bitmap.nextSetBit(ordinal + 1);
+		}
+		assertEquals(-1, ordinal);
+	}
+
+}
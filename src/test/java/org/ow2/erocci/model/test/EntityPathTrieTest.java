@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.erocci.model.EntityPathTrie;
+
+public class EntityPathTrieTest {
+
+	private EntityPathTrie<String> trie;
+
+	@Before
+	public void setUp() throws Exception {
+		trie = new EntityPathTrie<>();
+		trie.put("compute/vm1", "vm1");
+		trie.put("compute/vm10", "vm10");
+		trie.put("compute/vm1/disk", "disk");
+		trie.put("network/net1", "net1");
+	}
+
+	@Test
+	public void testGet() {
+		assertEquals("vm1", trie.get("compute/vm1"));
+		assertEquals("vm1", trie.get("/compute/vm1/"));
+		assertNull(trie.get("compute"));
+		assertNull(trie.get("compute/vm"));
+		assertEquals(4, trie.size());
+	}
+
+	@Test
+	public void testCollectDoesntMatchPartialSegment() {
+		List<String> values = trie.collect("compute/vm1");
+		assertEquals(2, values.size());
+		assertEquals("vm1", values.get(0));
+		assertEquals("disk", values.get(1));
+		assertFalse(values.contains("vm10"));
+	}
+
+	@Test
+	public void testCollectPrefix() {
+		List<String> values = trie.collect("/compute/");
+		assertEquals(3, values.size());
+		assertEquals(3, trie.count("compute"));
+		assertEquals(4, trie.collect("/").size());
+		assertEquals(4, trie.collect("").size());
+		assertTrue(trie.collect("storage").isEmpty());
+	}
+
+	@Test
+	public void testRemove() {
+		assertEquals("vm1", trie.remove("compute/vm1"));
+		assertNull(trie.remove("compute/vm1"));
+		assertEquals("disk", trie.get("compute/vm1/disk"));
+		assertEquals("disk", trie.remove("compute/vm1/disk"));
+		assertEquals(0, trie.count("compute/vm1"));
+		assertEquals(1, trie.count("compute"));
+		assertEquals("net1", trie.remove("network/net1"));
+		assertTrue(trie.collect("network").isEmpty());
+		assertEquals(1, trie.size());
+	}
+
+	@Test
+	public void testIteratorResumesAfterLocation() {
+		assertEquals(trie.collect(""), toList(trie.iterator("", null)));
+		List<String> values = toList(trie.iterator("", "compute/vm1"));
+		assertEquals(3, values.size());
+		assertEquals("disk", values.get(0));
+		assertEquals("vm10", values.get(1));
+		assertEquals("net1", values.get(2));
+		// Removed or unknown locations are valid starts.
+		assertEquals("vm10", toList(trie.iterator("compute", "compute/vm1/zzz")).get(0));
+		assertEquals(1, toList(trie.iterator("", "compute/vm2")).size());
+		assertEquals(3, toList(trie.iterator("compute", "a")).size());
+		assertTrue(toList(trie.iterator("compute", "network")).isEmpty());
+	}
+
+	@Test
+	public void testLocationOrder() {
+		assertTrue(EntityPathTrie.compareLocations("compute/vm1", "compute/vm1/disk") < 0);
+		assertTrue(EntityPathTrie.compareLocations("compute/vm1/disk", "compute/vm10") < 0);
+		assertEquals(0, EntityPathTrie.compareLocations("/compute/vm1", "compute/vm1/"));
+	}
+
+	private static List<String> toList(final Iterator<String> it) {
+		List<String> values = new ArrayList<>();
+		while (it.hasNext()) {
+			values.add(it.next());
+		}
+		return values;
+	}
+
+}
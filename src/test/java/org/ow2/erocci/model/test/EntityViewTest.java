@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model.test;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.BasicEList;
+import org.junit.Test;
+import org.occiware.clouddesigner.occi.AttributeState;
+import org.occiware.clouddesigner.occi.Entity;
+import org.occiware.clouddesigner.occi.Kind;
+import org.occiware.clouddesigner.occi.Mixin;
+import org.occiware.clouddesigner.occi.Resource;
+import org.ow2.erocci.model.EntityView;
+
+public class EntityViewTest {
+
+	private static final String SCHEME = "http://schemas.ogf.org/occi/infrastructure#";
+
+	@Test
+	public void testSerialStable() {
+		Map<String, String> attributes = new LinkedHashMap<>();
+		attributes.put("occi.compute.state", "active");
+		attributes.put("occi.compute.memory", "4");
+		Map<String, String> reordered = new LinkedHashMap<>();
+		reordered.put("occi.compute.memory", "4");
+		reordered.put("occi.compute.state", "active");
+
+		EntityView view = EntityView.of(newEntity("compute/vm1", "compute", "ssh", attributes), 3, 10);
+		// Same content and version, on another entity object or publication.
+		EntityView same = EntityView.of(newEntity("compute/vm1", "compute", "ssh", reordered), 3, 42);
+		assertEquals(view.getSerial(), same.getSerial());
+		assertEquals(10, view.getSnapshotVersion());
+		assertEquals(42, same.getSnapshotVersion());
+	}
+
+	@Test
+	public void testSerialChanges() {
+		Map<String, String> attributes = new HashMap<>();
+		attributes.put("occi.compute.state", "active");
+		long serial = EntityView.of(newEntity("compute/vm1", "compute", null, attributes), 3, 10).getSerial();
+
+		// New version.
+		assertFalse(serial == EntityView.of(newEntity("compute/vm1", "compute", null, attributes), 4, 10).getSerial());
+		// Other attribute value, mixin or kind.
+		Map<String, String> stopped = new HashMap<>();
+		stopped.put("occi.compute.state", "inactive");
+		assertFalse(serial == EntityView.of(newEntity("compute/vm1", "compute", null, stopped), 3, 10).getSerial());
+		assertFalse(serial == EntityView.of(newEntity("compute/vm1", "compute", "ssh", attributes), 3, 10).getSerial());
+		assertFalse(serial == EntityView.of(newEntity("compute/vm1", "storage", null, attributes), 3, 10).getSerial());
+	}
+
+	private static Entity newEntity(final String id, final String kindTerm, final String mixinTerm,
+			final Map<String, String> attributes) {
+		BasicEList<Mixin> mixins = new BasicEList<>();
+		if (mixinTerm != null) {
+			mixins.add(newCategory(Mixin.class, mixinTerm));
+		}
+		BasicEList<AttributeState> states = new BasicEList<>();
+		for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+			Map<String, Object> values = new HashMap<>();
+			values.put("getName", attribute.getKey());
+			values.put("getValue", attribute.getValue());
+			states.add(newProxy(AttributeState.class, values));
+		}
+		Map<String, Object> values = new HashMap<>();
+		values.put("getId", id);
+		values.put("getKind", newCategory(Kind.class, kindTerm));
+		values.put("getMixins", mixins);
+		values.put("getAttributes", states);
+		values.put("getLinks", new BasicEList<Object>());
+		return newProxy(Resource.class, values);
+	}
+
+	private static <T> T newCategory(final Class<T> type, final String term) {
+		Map<String, Object> values = new HashMap<>();
+		values.put("getScheme", SCHEME);
+		values.put("getTerm", term);
+		return newProxy(type, values);
+	}
+
+	/**
+	 * Model object answering its getters from a map.
+	 */
+	private static <T> T newProxy(final Class<T> type, final Map<String, Object> values) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					return values.get(method.getName());
+				}
+			}
+		}));
+	}
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.erocci.model.NumericAttributeIndex;
+
+public class NumericAttributeIndexTest {
+
+	private NumericAttributeIndex<String> index;
+
+	@Before
+	public void setUp() throws Exception {
+		index = new NumericAttributeIndex<>(Arrays.asList("occi.compute.memory"));
+		index.update("vm1", Collections.singletonMap("occi.compute.memory", "2"));
+		index.update("vm2", Collections.singletonMap("occi.compute.memory", "4.0"));
+		index.update("vm3", Collections.singletonMap("occi.compute.memory", "16"));
+		index.update("vm4", Collections.singletonMap("occi.compute.memory", "unknown"));
+	}
+
+	@Test
+	public void testRanges() {
+		assertEquals(2, index.getEntities("occi.compute.memory", 4.0, true, null, false).size());
+		Set<String> entities = index.getEntities("OCCI.compute.memory", 4.0, false, null, false);
+		assertEquals(1, entities.size());
+		assertTrue(entities.contains("vm3"));
+		assertEquals(2, index.getEntities("occi.compute.memory", null, false, 4.0, true).size());
+		assertEquals(1, index.getEntities("occi.compute.memory", 3.0, true, 8.0, true).size());
+		assertTrue(index.getEntities("occi.compute.memory", 8.0, true, 3.0, true).isEmpty());
+		assertTrue(index.getEntities("occi.compute.cores", 1.0, true, null, false).isEmpty());
+	}
+
+	@Test
+	public void testUpdateAndRemove() {
+		index.update("vm1", Collections.singletonMap("occi.compute.memory", "32"));
+		assertEquals(2, index.getEntities("occi.compute.memory", 8.0, true, null, false).size());
+		index.remove("vm3");
+		Set<String> entities = index.getEntities("occi.compute.memory", 8.0, true, null, false);
+		assertEquals(1, entities.size());
+		assertTrue(entities.contains("vm1"));
+	}
+
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.erocci.model.OwnerExecutor;
+
+public class OwnerExecutorTest {
+
+	private OwnerExecutor owner1;
+
+	private OwnerExecutor owner2;
+
+	@Before
+	public void setUp() throws Exception {
+		owner1 = new OwnerExecutor("owner1");
+		owner2 = new OwnerExecutor("owner2");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		owner1.shutdown();
+		owner2.shutdown();
+	}
+
+	@Test
+	public void testNestedWrite() {
+		// A write or a read from the writer runs directly.
+		String result = owner1.write(new Callable<String>() {
+			@Override
+			public String call() {
+				return owner1.write(new Callable<String>() {
+					@Override
+					public String call() {
+						return owner1.read(new Callable<String>() {
+							@Override
+							public String call() {
+								return "nested";
+							}
+						});
+					}
+				});
+			}
+		});
+		assertEquals("nested", result);
+	}
+
+	@Test
+	public void testOwnersWriteInParallel() throws Exception {
+		final CountDownLatch otherWritten = new CountDownLatch(1);
+		final AtomicReference<Boolean> waited = new AtomicReference<>();
+		Thread writer1 = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				waited.set(owner1.write(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						return otherWritten.await(10, TimeUnit.SECONDS);
+					}
+				}));
+			}
+		});
+		writer1.start();
+		// The write of owner2 runs while owner1's writer is busy.
+		owner2.write(new Callable<Void>() {
+			@Override
+			public Void call() {
+				otherWritten.countDown();
+				return null;
+			}
+		});
+		writer1.join(10000);
+		assertEquals(Boolean.TRUE, waited.get());
+	}
+
+	@Test
+	public void testOwnerWritesSerialized() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					owner1.write(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+							Thread.sleep(5);
+							running.decrementAndGet();
+							return null;
+						}
+					});
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join(10000);
+		}
+		assertEquals(1, maxRunning.get());
+	}
+
+	@Test
+	public void testReadsWhileOtherOwnerWrites() throws Exception {
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				owner2.write(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						writing.countDown();
+						release.await(10, TimeUnit.SECONDS);
+						return null;
+					}
+				});
+			}
+		});
+		writer.start();
+		assertTrue(writing.await(10, TimeUnit.SECONDS));
+		assertEquals("read", owner1.read(new Callable<String>() {
+			@Override
+			public String call() {
+				return "read";
+			}
+		}));
+		release.countDown();
+		writer.join(10000);
+	}
+
+	@Test
+	public void testWriteFailure() {
+		try {
+			owner1.write(new Callable<Void>() {
+				@Override
+				public Void call() {
+					throw new IllegalArgumentException("bad attribute");
+				}
+			});
+			fail("IllegalArgumentException expected");
+		} catch (IllegalArgumentException ex) {
+			assertEquals("bad attribute", ex.getMessage());
+		}
+		// The writer goes on.
+		assertEquals(Integer.valueOf(1), owner1.write(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return 1;
+			}
+		}));
+	}
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2015-2017 Inria
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ow2.erocci.model.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ow2.erocci.model.TrigramIndex;
+
+public class TrigramIndexTest {
+
+	private TrigramIndex<String> index;
+
+	@Before
+	public void setUp() throws Exception {
+		index = new TrigramIndex<>(Arrays.asList("occi.core.title"), 16, 1000);
+		index.update("vm1", Collections.singletonMap("occi.core.title", "web server"));
+		index.update("vm2", Collections.singletonMap("occi.core.title", "database server"));
+		index.update("vm3", Collections.singletonMap("occi.core.summary", "web server"));
+	}
+
+	@Test
+	public void testCandidates() {
+		assertTrue(index.isIndexed("OCCI.core.title"));
+		Set<String> candidates = index.getCandidates("occi.core.title", "server");
+		assertEquals(2, candidates.size());
+		candidates = index.getCandidates("occi.core.title", "web");
+		assertEquals(1, candidates.size());
+		assertTrue(candidates.contains("vm1"));
+		assertTrue(index.getCandidates("occi.core.title", "mail").isEmpty());
+		assertNull(index.getCandidates("occi.core.title", "we"));
+	}
+
+	@Test
+	public void testUpdateAndRemove() {
+		index.update("vm1", Collections.singletonMap("occi.core.title", "mail"));
+		assertTrue(index.getCandidates("occi.core.title", "web").isEmpty());
+		assertEquals(1, index.getCandidates("occi.core.title", "mail").size());
+		index.remove("vm1");
+		index.remove("vm2");
+		assertEquals(0, index.getPostings());
+	}
+
+	@Test
+	public void testLongValuesAreAlwaysCandidates() {
+		index.update("vm4", Collections.singletonMap("occi.core.title", "a very long title for a web server"));
+		Set<String> candidates = index.getCandidates("occi.core.title", "xyz");
+		assertEquals(1, candidates.size());
+		assertTrue(candidates.contains("vm4"));
+		index.remove("vm4");
+		assertTrue(index.getCandidates("occi.core.title", "xyz").isEmpty());
+	}
+
+}